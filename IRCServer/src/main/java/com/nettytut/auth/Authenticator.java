@@ -0,0 +1,203 @@
+package com.nettytut.auth;
+
+import com.nettytut.model.IdTable;
+import com.nettytut.model.SymbolTable;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks passwords against a {@link CredentialStore} on its own bounded pool,
+ * so slow hashing never runs on an event loop and a burst of logins can't
+ * delay the messages of users who are already signed in.
+ * Results are delivered on the executor of the caller, usually the event loop
+ * of the connection, so its handler needs no locking.
+ * <p>
+ * Recently verified passwords are cached as a fast keyed digest, so reconnecting
+ * users don't pay for the slow hash again. Only verified passwords are cached,
+ * a wrong password always goes to the store. An expired entry is removed when its
+ * login comes back; once the cache is full, expired entries of all logins are swept,
+ * and if it is still full new passwords aren't cached until entries expire.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code auth.threads} - hashing threads, default half of the cores, at least 1.</li>
+ *     <li>{@code auth.queueSize} - logins waiting for a thread, more fail as busy, default 1024.</li>
+ *     <li>{@code auth.cacheTtlSeconds} - how long a verified password is cached, 0 disables, default 300.</li>
+ *     <li>{@code auth.cacheSize} - how many verified passwords are cached at most, default 65536.</li>
+ * </ul>
+ */
+public class Authenticator {
+    public static final String THREADS_PROPERTY = "auth.threads";
+    public static final String QUEUE_SIZE_PROPERTY = "auth.queueSize";
+    public static final String CACHE_TTL_PROPERTY = "auth.cacheTtlSeconds";
+    public static final String CACHE_SIZE_PROPERTY = "auth.cacheSize";
+    public static final int DEFAULT_CACHE_SIZE = 65536;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final CredentialStore credentialStore;
+    private final Executor executor;
+    /* Verified password digests by login id */
+    private final IdTable<CachedCredential> cache = new IdTable<>();
+    /* Entries in the cache, may briefly exceed maxCacheSize by the number of hashing threads */
+    private final AtomicInteger cacheSize = new AtomicInteger();
+    private final long cacheTtlNanos;
+    private final int maxCacheSize;
+    /* Keys the cached digests, so they can't be checked against precomputed tables */
+    private final byte[] pepper = new byte[16];
+
+    /**
+     * Authenticates on the executor, e.g. {@link io.netty.util.concurrent.ImmediateExecutor}
+     * to hash in the calling thread.
+     */
+    public Authenticator(CredentialStore credentialStore, Executor executor, long cacheTtl, TimeUnit unit) {
+        this(credentialStore, executor, cacheTtl, unit, DEFAULT_CACHE_SIZE);
+    }
+
+    public Authenticator(CredentialStore credentialStore, Executor executor, long cacheTtl, TimeUnit unit,
+                         int maxCacheSize) {
+        if (cacheTtl < 0) throw new IllegalArgumentException("cacheTtl: " + cacheTtl);
+        if (maxCacheSize < 0) throw new IllegalArgumentException("maxCacheSize: " + maxCacheSize);
+        this.credentialStore = credentialStore;
+        this.executor = executor;
+        this.cacheTtlNanos = unit.toNanos(cacheTtl);
+        this.maxCacheSize = maxCacheSize;
+        new SecureRandom().nextBytes(pepper);
+    }
+
+    public static Authenticator fromSystemProperties(CredentialStore credentialStore) {
+        int threads = Integer.getInteger(THREADS_PROPERTY,
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int queueSize = Integer.getInteger(QUEUE_SIZE_PROPERTY, 1024);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DefaultThreadFactory("auth"));
+        return new Authenticator(credentialStore, executor,
+                Long.getLong(CACHE_TTL_PROPERTY, 300), TimeUnit.SECONDS,
+                Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    }
+
+    public CredentialStore getCredentialStore() {
+        return credentialStore;
+    }
+
+    /**
+     * Verifies the password of the login or registers it if the login is new.
+     * @return the future result which notifies its listeners on the executor;
+     * it fails with RejectedExecutionException if too many logins are waiting
+     */
+    public Future<CredentialStore.Result> authenticate(final String login, final String password,
+                                                       EventExecutor executor) {
+        final Promise<CredentialStore.Result> promise = executor.newPromise();
+        final byte[] digest = digest(password);
+        if (isCached(login, digest)) return promise.setSuccess(CredentialStore.Result.VERIFIED);
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        CredentialStore.Result result = credentialStore.authenticate(login, password);
+                        if (result != CredentialStore.Result.REJECTED) cache(login, digest);
+                        promise.trySuccess(result);
+                    } catch (RuntimeException e) {
+                        promise.tryFailure(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+
+    /**
+     * @return the number of cached passwords, including expired ones which haven't been removed yet
+     */
+    public int getCacheSize() {
+        return cacheSize.get();
+    }
+
+    public void shutdown() {
+        if (executor instanceof ExecutorService) ((ExecutorService) executor).shutdown();
+    }
+
+    private boolean isCached(String login, byte[] digest) {
+        int loginId = SymbolTable.LOGINS.lookup(login);
+        CachedCredential cached = cache.get(loginId);
+        if (cached == null) return false;
+        if (cached.isExpired(System.nanoTime())) {
+            remove(loginId, cached);
+            return false;
+        }
+        return MessageDigest.isEqual(cached.digest, digest);
+    }
+
+    private void cache(String login, byte[] digest) {
+        if (cacheTtlNanos == 0 || maxCacheSize == 0) return;
+        // Only called after the store accepted the login, so it is interned already
+        int loginId = SymbolTable.LOGINS.intern(login);
+        CachedCredential fresh = new CachedCredential(digest, System.nanoTime() + cacheTtlNanos);
+        CachedCredential existing = cache.get(loginId);
+        if (existing != null) remove(loginId, existing);
+        if (cacheSize.get() >= maxCacheSize && sweep() == 0) return;
+        if (cache.putIfAbsent(loginId, fresh) == null) cacheSize.incrementAndGet();
+    }
+
+    private void remove(int loginId, CachedCredential cached) {
+        if (cache.remove(loginId, cached)) cacheSize.decrementAndGet();
+    }
+
+    /**
+     * Removes the expired entries of all logins. Runs on the hashing pool, where a scan
+     * of the login ids is cheap next to the hash it saves.
+     * @return the number of removed entries
+     */
+    private synchronized int sweep() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (int loginId = 0, n = SymbolTable.LOGINS.size(); loginId < n; loginId++) {
+            CachedCredential cached = cache.get(loginId);
+            if (cached != null && cached.isExpired(now) && cache.remove(loginId, cached)) {
+                cacheSize.decrementAndGet();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            md.update(pepper);
+            return md.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static final class CachedCredential {
+        private final byte[] digest;
+        private final long expiresAt;
+
+        CachedCredential(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.nettytut.auth;
+
+import com.nettytut.model.IdTable;
+import com.nettytut.model.SymbolTable;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Salted password hashes of the chat users, by login id.
+ * The first sign in with a login registers its password, later ones have to match it.
+ * Hashing is deliberately slow (PBKDF2, {@code -Dauth.iterations}, default 10000),
+ * so a stolen store is expensive to brute force.
+ */
+public class CredentialStore {
+    public static final String ITERATIONS_PROPERTY = "auth.iterations";
+    public static final int DEFAULT_ITERATIONS = Integer.getInteger(ITERATIONS_PROPERTY, 10000);
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    public enum Result {
+        /* The login was free and the password is now registered for it */
+        REGISTERED,
+        VERIFIED,
+        REJECTED
+    }
+
+    private final IdTable<Credential> credentials = new IdTable<>();
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+
+    public CredentialStore() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    public CredentialStore(int iterations) {
+        if (iterations < 1) throw new IllegalArgumentException("iterations: " + iterations);
+        this.iterations = iterations;
+    }
+
+    /**
+     * Verifies the password of the login or registers it if the login is new.
+     * Takes milliseconds of CPU, so it shouldn't run on an event loop.
+     */
+    public Result authenticate(String login, String password) {
+        int loginId = SymbolTable.LOGINS.lookup(login);
+        Credential credential = loginId != SymbolTable.NO_ID ? credentials.get(loginId) : null;
+        if (credential == null) {
+            // Only a login which gets registered is interned
+            loginId = SymbolTable.LOGINS.intern(login);
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            Credential created = new Credential(salt, iterations, hash(password, salt, iterations));
+            credential = credentials.putIfAbsent(loginId, created);
+            // Somebody else may have registered the login meanwhile
+            if (credential == null) return Result.REGISTERED;
+        }
+        return credential.matches(password) ? Result.VERIFIED : Result.REJECTED;
+    }
+
+    public boolean isRegistered(String login) {
+        return credentials.get(SymbolTable.LOGINS.lookup(login)) != null;
+    }
+
+    private static byte[] hash(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to hash password with " + ALGORITHM, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static final class Credential {
+        private final byte[] salt;
+        /* Kept per credential, so the default can be raised without locking out users */
+        private final int iterations;
+        private final byte[] hash;
+
+        Credential(byte[] salt, int iterations, byte[] hash) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.hash = hash;
+        }
+
+        boolean matches(String password) {
+            // Constant time, so the compare doesn't tell how much of the hash matched
+            return MessageDigest.isEqual(hash, hash(password, salt, iterations));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.nettytut.broadcast;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Broadcasts chat messages to the members of a chat channel.
+ * A message is encoded once into a single buffer, wrapped once per
+ * {@link ChatTransport} of the members, and every member gets a duplicate
+ * of its transport's message. Members are grouped by their event loop,
+ * so each loop runs one task which writes to and flushes all of its members.
+ */
+public final class ChatMessageBroadcaster {
+    private static final ByteBuf YOU_PREFIX = Unpooled.unreleasableBuffer(
+            Unpooled.copiedBuffer("[you] ", CharsetUtil.UTF_8));
+    private static final byte[] LINE_DELIMITER = {'\r', '\n'};
+
+    private ChatMessageBroadcaster() {}
+
+    /**
+     * Sends "[login] message" to the members of the group
+     * and "[you] message" to the sender.
+     */
+    public static void broadcast(ChannelGroup group, Channel sender, String login, CharSequence message) {
+        ByteBuf encoded = sender.alloc().buffer(login.length() + message.length() + 8);
+        encoded.writeByte('[');
+        ByteBufUtil.writeUtf8(encoded, login);
+        encoded.writeByte(']').writeByte(' ');
+        int bodyIndex = encoded.writerIndex();
+        ByteBufUtil.writeUtf8(encoded, message);
+        encoded.writeBytes(LINE_DELIMITER);
+        broadcast(group, sender, encoded, bodyIndex);
+    }
+
+    /**
+     * Sends the line to all members of the group alike.
+     */
+    public static void announce(ChannelGroup group, ByteBufAllocator alloc, CharSequence line) {
+        ByteBuf encoded = alloc.buffer(line.length() + 2);
+        ByteBufUtil.writeUtf8(encoded, line);
+        encoded.writeBytes(LINE_DELIMITER);
+        broadcast(group, null, encoded, 0);
+    }
+
+    private static void broadcast(ChannelGroup group, Channel sender, ByteBuf encoded, int bodyIndex) {
+        try {
+            for (Map.Entry<EventLoop, List<Channel>> entry : groupByEventLoop(group).entrySet()) {
+                EventLoop eventLoop = entry.getKey();
+                Runnable task = new WriteTask(entry.getValue(), sender, encoded.retain(), bodyIndex);
+                if (eventLoop.inEventLoop()) {
+                    task.run();
+                } else {
+                    eventLoop.execute(task);
+                }
+            }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static Map<EventLoop, List<Channel>> groupByEventLoop(ChannelGroup group) {
+        Map<EventLoop, List<Channel>> members = new IdentityHashMap<>();
+        for (Channel ch : group) {
+            List<Channel> channels = members.get(ch.eventLoop());
+            if (channels == null) {
+                channels = new ArrayList<>();
+                members.put(ch.eventLoop(), channels);
+            }
+            channels.add(ch);
+        }
+        return members;
+    }
+
+    private static ChatTransport transportOf(Channel ch) {
+        ChatTransport transport = ch.attr(ChatTransport.KEY).get();
+        return transport != null ? transport : ChatTransport.LINES;
+    }
+
+    private static Object duplicate(Object wrapped) {
+        return wrapped instanceof ByteBufHolder
+                ? ((ByteBufHolder) wrapped).duplicate().retain()
+                : ((ByteBuf) wrapped).duplicate().retain();
+    }
+
+    /**
+     * Writes the encoded message to the members sharing one event loop.
+     * Owns one reference of the encoded buffer.
+     */
+    private static final class WriteTask implements Runnable {
+        private final List<Channel> channels;
+        private final Channel sender;
+        private final ByteBuf encoded;
+        private final int bodyIndex;
+
+        WriteTask(List<Channel> channels, Channel sender, ByteBuf encoded, int bodyIndex) {
+            this.channels = channels;
+            this.sender = sender;
+            this.encoded = encoded;
+            this.bodyIndex = bodyIndex;
+        }
+
+        @Override
+        public void run() {
+            // Mostly one or two transports, so wrapping happens once per loop and transport
+            Map<ChatTransport, Object> wrapped = new IdentityHashMap<>(4);
+            try {
+                for (Channel ch : channels) {
+                    ChatTransport transport = transportOf(ch);
+                    if (ch == sender) {
+                        ch.write(transport.wrap(senderCopy()), ch.voidPromise());
+                        continue;
+                    }
+                    Object msg = wrapped.get(transport);
+                    if (msg == null) {
+                        msg = transport.wrap(encoded.retain());
+                        wrapped.put(transport, msg);
+                    }
+                    ch.write(duplicate(msg), ch.voidPromise());
+                }
+                for (Channel ch : channels) {
+                    ch.flush();
+                }
+            } finally {
+                encoded.release();
+                for (Object msg : wrapped.values()) {
+                    ReferenceCountUtil.release(msg);
+                }
+            }
+        }
+
+        private ByteBuf senderCopy() {
+            ByteBuf body = encoded.slice(bodyIndex, encoded.writerIndex() - bodyIndex).retain();
+            return Unpooled.wrappedBuffer(YOU_PREFIX.duplicate(), body);
+        }
+    }
+}
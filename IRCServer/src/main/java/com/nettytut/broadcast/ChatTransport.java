@@ -0,0 +1,35 @@
+package com.nettytut.broadcast;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AttributeKey;
+
+/**
+ * How the connections of one kind, e.g. telnet or WebSocket, are written to
+ * by the rooms. A broadcast encodes its text line once; the transport of a member
+ * wraps it into what the member's pipeline expects, once per event loop, and
+ * every member of that transport gets a duplicate of the result.
+ * <p>
+ * Set on a channel with {@link #KEY}, connections without one get text lines.
+ */
+public interface ChatTransport {
+    AttributeKey<ChatTransport> KEY = AttributeKey.valueOf("chatTransport");
+
+    /* Writes the lines as they are, for the telnet and binary protocol connections */
+    ChatTransport LINES = new ChatTransport() {
+        @Override
+        public Object wrap(ByteBuf line) {
+            return line;
+        }
+
+        @Override
+        public String toString() {
+            return "LINES";
+        }
+    };
+
+    /**
+     * @param line UTF-8 text ending with CRLF, whose reference is passed to the result
+     * @return a ByteBuf or a ByteBufHolder sharing the bytes of the line
+     */
+    Object wrap(ByteBuf line);
+}
@@ -0,0 +1,93 @@
+package com.nettytut.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Decodes frames of the binary chat protocol into pooled {@link ChatCommand}s.
+ * <pre>
+ * +---------------+--------------+---------------+---------------+-----
+ * | frame length  | opcode       | arg length    | arg           | ...
+ * | (varint)      | (1 byte)     | (varint)      | (UTF-8 bytes) |
+ * +---------------+--------------+---------------+---------------+-----
+ * </pre>
+ * The frame length counts the bytes following it. Arguments are copied
+ * straight from the inbound buffer into the pooled command, no intermediate frames
+ * are created; Strings are made by the handler where it needs them.
+ */
+public class BinaryCommandDecoder extends ByteToMessageDecoder {
+    private final int maxFrameLength;
+
+    public BinaryCommandDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        while (in.isReadable()) {
+            int start = in.readerIndex();
+            int frameLength = readVarint(in, in.writerIndex());
+            if (frameLength == -1) {
+                in.readerIndex(start);
+                return;
+            }
+            if (frameLength > maxFrameLength)
+                throw new TooLongFrameException("Frame length " + frameLength + " exceeds " + maxFrameLength);
+            if (in.readableBytes() < frameLength) {
+                in.readerIndex(start);
+                return;
+            }
+            out.add(decodeFrame(in, in.readerIndex() + frameLength));
+        }
+    }
+
+    private static ChatCommand decodeFrame(ByteBuf in, int frameEnd) {
+        if (in.readerIndex() == frameEnd)
+            throw new CorruptedFrameException("Empty frame");
+        byte code = in.readByte();
+        ChatOpcode opcode = ChatOpcode.valueOf(code);
+        if (opcode == null) {
+            in.readerIndex(frameEnd);
+            throw new CorruptedFrameException("Unknown opcode " + code);
+        }
+        ChatCommand command = ChatCommand.newInstance(opcode);
+        for (int i = 0; i < opcode.argCount(); i++) {
+            int argLength = readVarint(in, frameEnd);
+            if (argLength < 0 || in.readerIndex() + argLength > frameEnd) {
+                command.recycle();
+                in.readerIndex(frameEnd);
+                throw new CorruptedFrameException("Malformed arguments of " + opcode);
+            }
+            command.readArg(in, argLength);
+        }
+        if (in.readerIndex() != frameEnd) {
+            command.recycle();
+            in.readerIndex(frameEnd);
+            throw new CorruptedFrameException("Unexpected trailing bytes in " + opcode);
+        }
+        return command;
+    }
+
+    /**
+     * Reads an unsigned 32-bit varint not going beyond the limit.
+     * @return the value or -1 if the varint is incomplete
+     */
+    static int readVarint(ByteBuf in, int limit) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (in.readerIndex() >= limit) return -1;
+            byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (result < 0) throw new CorruptedFrameException("Negative varint");
+                return result;
+            }
+        }
+        throw new CorruptedFrameException("Malformed varint");
+    }
+}
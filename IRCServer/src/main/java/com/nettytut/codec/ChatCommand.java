@@ -0,0 +1,100 @@
+package com.nettytut.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.Recycler;
+
+/**
+ * A decoded command of the binary chat protocol.
+ * Instances are pooled: arguments are copied into a reusable array
+ * and the command must be recycled once it has been handled.
+ */
+public final class ChatCommand {
+    private static final int MAX_ARGS = 2;
+    private static final int INITIAL_PAYLOAD_SIZE = 128;
+
+    private static final Recycler<ChatCommand> RECYCLER = new Recycler<ChatCommand>() {
+        @Override
+        protected ChatCommand newObject(Handle handle) {
+            return new ChatCommand(handle);
+        }
+    };
+
+    private final Recycler.Handle handle;
+    private final int[] argOffsets = new int[MAX_ARGS];
+    private final int[] argLengths = new int[MAX_ARGS];
+    private byte[] payload = new byte[INITIAL_PAYLOAD_SIZE];
+    private int payloadLength;
+    private int argCount;
+    private ChatOpcode opcode;
+
+    private ChatCommand(Recycler.Handle handle) {
+        this.handle = handle;
+    }
+
+    public static ChatCommand newInstance(ChatOpcode opcode) {
+        ChatCommand command = RECYCLER.get();
+        command.opcode = opcode;
+        return command;
+    }
+
+    public ChatOpcode opcode() {
+        return opcode;
+    }
+
+    public int argCount() {
+        return argCount;
+    }
+
+    public int argLength(int index) {
+        checkIndex(index);
+        return argLengths[index];
+    }
+
+    /**
+     * Decodes the argument, which allocates a String every time.
+     */
+    public String argAsString(int index) {
+        checkIndex(index);
+        return new String(payload, argOffsets[index], argLengths[index], CharsetUtil.UTF_8);
+    }
+
+    /**
+     * Copies the next argument of the given length from the buffer.
+     */
+    void readArg(ByteBuf in, int length) {
+        if (argCount == MAX_ARGS)
+            throw new IllegalStateException("Too many arguments for " + opcode);
+        int required = payloadLength + length;
+        if (required > payload.length) {
+            byte[] grown = new byte[Math.max(required, payload.length << 1)];
+            System.arraycopy(payload, 0, grown, 0, payloadLength);
+            payload = grown;
+        }
+        in.readBytes(payload, payloadLength, length);
+        argOffsets[argCount] = payloadLength;
+        argLengths[argCount] = length;
+        payloadLength = required;
+        argCount++;
+    }
+
+    public void recycle() {
+        opcode = null;
+        argCount = 0;
+        payloadLength = 0;
+        RECYCLER.recycle(this, handle);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= argCount)
+            throw new IndexOutOfBoundsException("Argument " + index + " of " + opcode);
+    }
+
+    @Override
+    public String toString() {
+        return "ChatCommand{" +
+                "opcode=" + opcode +
+                ", argCount=" + argCount +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package com.nettytut.codec;
+
+/**
+ * Commands of the binary chat protocol. Every command has a fixed number of arguments.
+ */
+public enum ChatOpcode {
+    LOGIN(1, 2),
+    JOIN(2, 1),
+    MESSAGE(3, 1),
+    SAVE_PLACE(4, 1),
+    USERS(5, 0),
+    ACTIVE_USERS(6, 0),
+    BYE(7, 0),
+    REPLAY(8, 1),
+    CREATE(9, 1);
+
+    private static final ChatOpcode[] BY_CODE = new ChatOpcode[128];
+
+    static {
+        for (ChatOpcode opcode : values()) BY_CODE[opcode.code] = opcode;
+    }
+
+    private final byte code;
+    private final int argCount;
+
+    ChatOpcode(int code, int argCount) {
+        this.code = (byte) code;
+        this.argCount = argCount;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public int argCount() {
+        return argCount;
+    }
+
+    /**
+     * @return the opcode or null if the code is unknown
+     */
+    public static ChatOpcode valueOf(byte code) {
+        return code >= 0 ? BY_CODE[code] : null;
+    }
+}
@@ -1,71 +1,120 @@
 package com.nettytut.handlers;
 
 
+import com.nettytut.auth.Authenticator;
+import com.nettytut.auth.CredentialStore;
+import com.nettytut.codec.ChatCommand;
+import com.nettytut.codec.ChatOpcode;
 import com.nettytut.exceptions.InvalidChatChannelGroup;
 import com.nettytut.exceptions.InvalidChatChannelName;
+import com.nettytut.metrics.ChatMetrics;
+import com.nettytut.model.ChatRoom;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import com.nettytut.model.SymbolTable;
 import com.nettytut.model.User;
+import com.nettytut.model.UserSession;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.ImmediateExecutor;
 
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Handles a server-side channel.
+ * A new instance is created for every connection and is only called from the
+ * executor of its context: the channel's event loop, or one executor of the
+ * business group if the handler was added with one. Authentication results are
+ * delivered on that executor too, so the per-connection state needs no locking
+ * as long as it is only touched through {@code ctx.executor()}, never through
+ * {@code ctx.channel().eventLoop()}. Rooms run their broadcasts on their own loops.
  */
-@Sharable
 public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
-    /* Holds the name of ChannelGroup and the ChannelGroup */
-    private final Map<String, ChannelGroup> chatChannelGroup;
-    /* Holds pairs of user and related name of ChannelGroup from chatChannelGroup */
-    private final Map<User, String> userChatChannelMap;
+    /* Holds the chat rooms by name */
+    private final ChatRooms chatRooms;
+    /* Holds sessions of users and the names of their chat rooms */
+    private final SessionRegistry sessionRegistry;
+    private final ChatMetrics metrics;
+    private final Authenticator authenticator;
 
     private User user;
+    private UserSession session;
+    /* Set while a password is checked, commands sent meanwhile wait in pendingRequests */
+    private boolean authenticating;
+    private final Queue<Object> pendingRequests = new ArrayDeque<>();
+    /* Set when the connection is closed for being idle, its peer is likely dead */
+    private boolean reaped;
     /**
     * Defines if need to save place in chat channel group for user
     * when he has disconnected.
     */
     private static AtomicBoolean isSavePlace = new AtomicBoolean(true);
     private final static AttributeKey<User> USER_ATTRIBUTE_KEY = AttributeKey.valueOf("user");
-    private final static Map<String, BlockingQueue<String>> lastMessages;
     private final static ChannelGroup activeUsers = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
-    private final static int QUANTITY_OF_SHOWING_MESSAGES = 10;
     private final static int GROUP_CAPACITY = 2;
-    private final static String EMPTY_CHAT_GROUP_NAME = "empty";
     private final static String SET_SAVE_PLACE_TO_FALSE = "0";
+    private final static byte[] LINE_DELIMITER = {'\r', '\n'};
+    /* Sent to quiet connections, so dead peers are noticed by TCP and NATs keep the mapping */
+    private final static String KEEPALIVE_LINE = "\r\n";
 
-    static {
-        lastMessages = new ConcurrentHashMap<>();
-        lastMessages.put("zepto", new LinkedBlockingQueue<>());
-        lastMessages.put("test", new LinkedBlockingQueue<>());
+    public TelnetServerHandler(ChatRooms chatRooms, SessionRegistry sessionRegistry) {
+        this(chatRooms, sessionRegistry, new ChatMetrics(chatRooms, sessionRegistry));
     }
 
-    public TelnetServerHandler(Map<String, ChannelGroup> chatChannelGroup, Map<User, String> userChatChannelMap) {
-        this.chatChannelGroup = chatChannelGroup;
-        this.userChatChannelMap = userChatChannelMap;
+    /**
+     * Checks passwords in the thread which handles the connection.
+     */
+    public TelnetServerHandler(ChatRooms chatRooms, SessionRegistry sessionRegistry, ChatMetrics metrics) {
+        this(chatRooms, sessionRegistry, metrics,
+                new Authenticator(sessionRegistry.getCredentialStore(), ImmediateExecutor.INSTANCE, 0, TimeUnit.SECONDS));
+    }
+
+    public TelnetServerHandler(ChatRooms chatRooms, SessionRegistry sessionRegistry, ChatMetrics metrics,
+                               Authenticator authenticator) {
+        this.chatRooms = chatRooms;
+        this.sessionRegistry = sessionRegistry;
+        this.metrics = metrics;
+        this.authenticator = authenticator;
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         // Send greeting for a new connection.
         activeUsers.add(ctx.channel());
+        metrics.connectionOpened(ctx.channel());
         ctx.write("Welcome to " + InetAddress.getLocalHost().getHostName() + "!\r\n");
         ctx.write("It is " + new Date() + " now.\r\n");
         ctx.flush();
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        metrics.connectionClosed();
+        if(isUserLoggedIn()) {
+            // A reaped peer isn't coming back soon, so its place is freed anyway
+            if(!isSavePlace.get() || reaped) sessionRegistry.release(session);
+            sessionRegistry.signOut(session.getLoginId());
+        }
+        discardPendingRequests();
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void channelRead0(ChannelHandlerContext ctx, String request) throws Exception {
         // Generate and write a response.
@@ -73,37 +122,100 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
         if (request.isEmpty()) {
             writeMessageFromContextHandler(ctx, "Please type something.\r\n");
         } else if ("bye".equals(request.toLowerCase())) {
+            metrics.commandReceived(ChatOpcode.BYE);
             close = true;
         } else if (request.startsWith("login")) {
-            try {
-                authorizeUser(ctx, request);
-            } catch(IllegalArgumentException | IllegalStateException e){
-                writeMessageFromContextHandler(ctx, e.getMessage());
-            }
+            metrics.commandReceived(ChatOpcode.LOGIN);
+            String[] params = request.split(" ");
+            if(params.length < 3)
+                writeMessageFromContextHandler(ctx, "Wrong login/password pair.");
+            else
+                signIn(ctx, params[1], params[2]);
         } else if (request.startsWith("saveplace")) {
-            changeSavePlace(request);
+            metrics.commandReceived(ChatOpcode.SAVE_PLACE);
+            String[] params = request.split(" ");
+            if(params.length == 2) changeSavePlace(params[1]);
         } else if (request.startsWith("join")) {
-            try {
-                joinUserToChannel(request, ctx);
-            } catch(IllegalStateException e) {
-                writeMessageFromContextHandler(ctx, e.getMessage());
-            }
+            metrics.commandReceived(ChatOpcode.JOIN);
+            String[] params = request.split(" ");
+            join(ctx, params.length == 2 ? params[1] : null);
+        } else if (request.startsWith("create")) {
+            metrics.commandReceived(ChatOpcode.CREATE);
+            String[] params = request.split(" ");
+            if(params.length == 2) createChatRoom(ctx, params[1]);
+        } else if (request.startsWith("replay")) {
+            metrics.commandReceived(ChatOpcode.REPLAY);
+            String[] params = request.split(" ");
+            if(params.length == 2) replay(ctx, params[1]);
         } else if ("activeusers".equals(request.toLowerCase())) {
+            metrics.commandReceived(ChatOpcode.ACTIVE_USERS);
             showActiveUsers(ctx);
         } else if ("users".equals(request.toLowerCase())) {
+            metrics.commandReceived(ChatOpcode.USERS);
+            showUsers(ctx);
+        } else {
+            metrics.commandReceived(ChatOpcode.MESSAGE);
+            sendMessage(ctx, request);
+        }
+        if (close) ctx.close();
+    }
+
+    /**
+     * Accepts commands of the binary protocol besides the text lines.
+     */
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (authenticating) {
+            // Commands may depend on the login, e.g. a join sent right after it
+            pendingRequests.add(msg);
+            return;
+        }
+        if (msg instanceof ChatCommand) {
+            ChatCommand command = (ChatCommand) msg;
             try {
-                showAllUsersFromChannel(ctx);
-            } catch (InvalidChatChannelName | InvalidChatChannelGroup e) {
-                writeMessageFromContextHandler(ctx, e.getMessage());
+                channelReadCommand(ctx, command);
+            } finally {
+                command.recycle();
             }
         } else {
-            if(isUserLoggedIn()) {
-                showMessage(ctx, request);
-            } else {
-                writeMessageFromContextHandler(ctx, "You need to sign in to write the messages.");
-            }
+            super.channelRead(ctx, msg);
+        }
+    }
+
+    private void channelReadCommand(ChannelHandlerContext ctx, ChatCommand command) {
+        metrics.commandReceived(command.opcode());
+        switch (command.opcode()) {
+            case LOGIN:
+                signIn(ctx, command.argAsString(0), command.argAsString(1));
+                break;
+            case JOIN:
+                join(ctx, command.argAsString(0));
+                break;
+            case MESSAGE:
+                if (command.argLength(0) == 0)
+                    writeMessageFromContextHandler(ctx, "Please type something.\r\n");
+                else
+                    sendMessage(ctx, command.argAsString(0));
+                break;
+            case SAVE_PLACE:
+                changeSavePlace(command.argAsString(0));
+                break;
+            case USERS:
+                showUsers(ctx);
+                break;
+            case ACTIVE_USERS:
+                showActiveUsers(ctx);
+                break;
+            case CREATE:
+                createChatRoom(ctx, command.argAsString(0));
+                break;
+            case REPLAY:
+                replay(ctx, command.argAsString(0));
+                break;
+            case BYE:
+                ctx.close();
+                break;
         }
-        if (close) ctx.close();
     }
 
     @Override
@@ -111,195 +223,217 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
         ctx.flush();
     }
 
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            handleIdle(ctx, ((IdleStateEvent) evt).state());
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    private void handleIdle(ChannelHandlerContext ctx, IdleState state) {
+        if (state == IdleState.READER_IDLE) {
+            reaped = true;
+            metrics.connectionReaped();
+            writeMessageFromContextHandler(ctx, "Disconnected for being idle.");
+            ctx.close();
+        } else if (state == IdleState.WRITER_IDLE) {
+            ctx.writeAndFlush(KEEPALIVE_LINE);
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
         cause.printStackTrace();
         ctx.close();
     }
 
-    private void authorizeUser(ChannelHandlerContext ctx, String request) {
-        String[] params = request.split(" ");
-        if(params.length < 3)
-            throw new IllegalArgumentException("Wrong login/password pair.");
-
-        String login = params[1];
-        String password = params[2];
-        User newUser = new User(login, password);
-        if (user != null || newUser.equals(user))
-            throw new IllegalStateException("You're already signed in.");
-        if(isUserExists(newUser))
-            throw new IllegalStateException("Such user already exists.");
-        synchronized (this) {
-            User savedUser = getSavedUserByLogin(login);
-            if (savedUser == null) {
-                userChatChannelMap.put(newUser, EMPTY_CHAT_GROUP_NAME);
-                user = newUser;
-                ctx.channel().attr(USER_ATTRIBUTE_KEY).set(newUser);
-                writeMessageFromContextHandler(ctx, "You're successfully signed up." +
-                        " Your login is " + login);
-            } else {
-                    if(savedUser.equals(newUser)) {
-                        user = newUser;
-                        writeMessageFromContextHandler(ctx, "You're successfully signed in." +
-                                " Your login is " + login);
-                    } else {
-                        writeMessageFromContextHandler(ctx, "Wrong password for login " + login);
-                        return;
-                    }
-                    ctx.channel().attr(USER_ATTRIBUTE_KEY).set(newUser);
-                    addUserToChatChannel(ctx, newUser);
-            }
+    private void signIn(ChannelHandlerContext ctx, String login, String password) {
+        try {
+            authorizeUser(ctx, login, password);
+        } catch(IllegalArgumentException | IllegalStateException e){
+            writeMessageFromContextHandler(ctx, e.getMessage());
         }
     }
 
-    private void joinUserToChannel(String request, ChannelHandlerContext ctx) {
-        if(!isUserLoggedIn())
-            throw new IllegalStateException("You're not logged in.");
-        String chatChannelName;
-        synchronized (this) {
-            if (isUserInGroup())
-                throw new IllegalStateException("You're already in chat channel " + getChatChannelNameForUser(user));
-            String[] params = request.split(" ");
-            if (params.length != 2) return;
-            chatChannelName = params[1];
-            if (isChatChannelGroupFull(chatChannelName, ctx))
-                throw new IllegalStateException("There is no place in channel " + chatChannelName);
-            if (!chatChannelGroup.containsKey(chatChannelName))
-                throw new IllegalStateException("There is no channels with name " + chatChannelName);
-            ChannelGroup channelGroup = chatChannelGroup.get(chatChannelName);
-            if (!channelGroup.contains(ctx.channel()))
-                assignUserToChatChannel(ctx, chatChannelName);
+    private void join(ChannelHandlerContext ctx, String chatChannelName) {
+        try {
+            joinUserToChannel(chatChannelName, ctx);
+        } catch(IllegalStateException e) {
+            writeMessageFromContextHandler(ctx, e.getMessage());
         }
-        printMessages(ctx, chatChannelName);
     }
 
-    private boolean isChatChannelGroupFull(String chatChannelName, ChannelHandlerContext ctx) {
-        if(isSavePlace.get()) {
-            return checkWithSavePlace(chatChannelName, ctx);
-        } else {
-            return checkWithoutSavePlace(chatChannelName);
+    private void showUsers(ChannelHandlerContext ctx) {
+        try {
+            showAllUsersFromChannel(ctx);
+        } catch (InvalidChatChannelName | InvalidChatChannelGroup e) {
+            writeMessageFromContextHandler(ctx, e.getMessage());
         }
     }
 
-    private void validateUserChatChannel() {
-        boolean isUserInChatChannel = false;
-        String chatChannelNameForUser = userChatChannelMap.get(user);
-        if(chatChannelNameForUser == null) return;
-        ChannelGroup chg = chatChannelGroup.get(chatChannelNameForUser);
-        if(chg != null) {
-            for(Channel ch : chg) {
-                if(ch.attr(USER_ATTRIBUTE_KEY).equals(user)) {
-                    isUserInChatChannel = true;
-                    break;
-                }
-            }
+    private void sendMessage(ChannelHandlerContext ctx, String message) {
+        if(isUserLoggedIn()) {
+            showMessage(ctx, message);
+        } else {
+            writeMessageFromContextHandler(ctx, "You need to sign in to write the messages.");
         }
-        if(!isUserInChatChannel) userChatChannelMap.replace(user, EMPTY_CHAT_GROUP_NAME);
     }
 
-    private boolean checkWithoutSavePlace(String chatChannelName) {
-        validateUserChatChannel();
-        ChannelGroup chg = chatChannelGroup.get(chatChannelName);
-        if(chg == null) return false;
-        return (chg.size() >= GROUP_CAPACITY);
+    /**
+     * Checks the password on the authenticator and completes the sign in
+     * on the executor of the handler. Reading is paused meanwhile; messages
+     * which were read already, or are still queued for a business executor,
+     * wait in pendingRequests.
+     */
+    private void authorizeUser(final ChannelHandlerContext ctx, final String login, String password) {
+        if (user != null)
+            throw new IllegalStateException("You're already signed in.");
+        if(!sessionRegistry.signIn(login))
+            throw new IllegalStateException("Such user already exists.");
+        authenticating = true;
+        ctx.channel().config().setAutoRead(false);
+        authenticator.authenticate(login, password, ctx.executor())
+                .addListener(new FutureListener<CredentialStore.Result>() {
+                    @Override
+                    public void operationComplete(Future<CredentialStore.Result> future) throws Exception {
+                        authenticating = false;
+                        if (!ctx.channel().isActive()) {
+                            sessionRegistry.signOut(login);
+                            return;
+                        }
+                        completeSignIn(ctx, login, future);
+                        ctx.channel().config().setAutoRead(true);
+                        processPendingRequests(ctx);
+                    }
+                });
     }
 
-    private boolean checkWithSavePlace(String chatChannelName, ChannelHandlerContext ctx) {
-        User user = ctx.channel().attr(USER_ATTRIBUTE_KEY).get();
-        int count = 0;
-        for(Map.Entry<User, String> entry : userChatChannelMap.entrySet()) {
-            if(entry.getKey().equals(user) && entry.getValue() != EMPTY_CHAT_GROUP_NAME) return false;
-            if (entry.getValue().equals(chatChannelName)) count++;
+    private void completeSignIn(ChannelHandlerContext ctx, String login, Future<CredentialStore.Result> result) {
+        if (!result.isSuccess()) {
+            sessionRegistry.signOut(login);
+            if (result.cause() instanceof RejectedExecutionException) {
+                writeMessageFromContextHandler(ctx, "Server is busy, please sign in later.");
+            } else {
+                writeMessageFromContextHandler(ctx, "Unable to sign in " + login);
+                result.cause().printStackTrace();
+            }
+            return;
         }
-        return count >= GROUP_CAPACITY;
-    }
-
-    private boolean isUserInGroup() {
-        String chatChannelName = getChatChannelNameForUser(user);
-        return chatChannelName != EMPTY_CHAT_GROUP_NAME;
+        if (result.getNow() == CredentialStore.Result.REJECTED) {
+            sessionRegistry.signOut(login);
+            writeMessageFromContextHandler(ctx, "Wrong password for login " + login);
+            return;
+        }
+        User newUser = new User(login);
+        UserSession savedSession = sessionRegistry.register(newUser);
+        session = savedSession;
+        user = newUser;
+        ctx.channel().attr(USER_ATTRIBUTE_KEY).set(newUser);
+        if (savedSession.getUser() == newUser) {
+            writeMessageFromContextHandler(ctx, "You're successfully signed up." +
+                    " Your login is " + login);
+            return;
+        }
+        writeMessageFromContextHandler(ctx, "You're successfully signed in." +
+                " Your login is " + login);
+        addUserToChatChannel(ctx, newUser);
     }
 
-    private User getSavedUserByLogin(String login) {
-        Set<User> users = userChatChannelMap.keySet();
-        for(User iUser : users) {
-            if(iUser.getLogin().equals(login)) return iUser;
+    /**
+     * Handles the commands which came in while the password was checked,
+     * until one of them is a login again.
+     */
+    private void processPendingRequests(ChannelHandlerContext ctx) throws Exception {
+        Object msg;
+        while (!authenticating && (msg = pendingRequests.poll()) != null) {
+            channelRead(ctx, msg);
         }
-        return null;
+        ctx.flush();
     }
 
-    private boolean isUserLoggedIn() {
-        return user != null;
+    private void discardPendingRequests() {
+        Object msg;
+        while ((msg = pendingRequests.poll()) != null) {
+            if (msg instanceof ChatCommand) ((ChatCommand) msg).recycle();
+        }
     }
 
-    private boolean addUserToChatChannel(ChannelHandlerContext ctx, User user) {
-        String chatChannelName = getChatChannelNameForUser(user);
-
-        if(chatChannelName == null) {
-            writeMessageFromContextHandler(ctx, "Can't restore chat channel name.");
-            return false;
-        }
-        synchronized (this) {
-            if(!chatChannelGroup.containsKey(chatChannelName)) {
-                writeMessageFromContextHandler(ctx, "Can't restore " +
-                        user.getLogin() + " in chat channel " + chatChannelName);
-                return false;
-            }
-            if (isChatChannelGroupFull(chatChannelName, ctx)) {
-                writeMessageFromContextHandler(ctx, "There is no place in channel " + chatChannelName);
-                return false;
-            }
-            assignUserToChatChannel(ctx, chatChannelName);
-            writeMessageFromContextHandler(ctx, "Restore " + user.getLogin()
-                    + " in chat channel " + chatChannelName);
+    private void joinUserToChannel(String chatChannelName, ChannelHandlerContext ctx) {
+        if(!isUserLoggedIn())
+            throw new IllegalStateException("You're not logged in.");
+        if (isUserInGroup())
+            throw new IllegalStateException("You're already in chat channel " + session.getChatChannelName());
+        if (chatChannelName == null) return;
+        // Unknown names aren't interned, so requests can't grow the symbol table
+        ChatRoom room = chatRooms.get(SymbolTable.ROOMS.lookup(chatChannelName));
+        if (room == null)
+            throw new IllegalStateException("There is no channels with name " + chatChannelName);
+        // The place is reserved before the channel joins the group,
+        // so concurrent joins can't exceed GROUP_CAPACITY.
+        if (!sessionRegistry.assign(session, room.getId(), GROUP_CAPACITY))
+            throw new IllegalStateException("There is no place in channel " + chatChannelName);
+        if (!room.join(ctx.channel(), user.getLogin())) {
+            // The room was removed for being unused meanwhile
+            sessionRegistry.release(session);
+            throw new IllegalStateException("There is no channels with name " + chatChannelName);
         }
-        printMessages(ctx, chatChannelName);
-
-        return true;
+        printMessages(ctx, room);
     }
 
-    private void assignUserToChatChannel(ChannelHandlerContext ctx, String chatChannelName) {
-        ChannelGroup channelGroup = chatChannelGroup.get(chatChannelName);
-        if(!checkUserChannelInGroup(channelGroup, ctx.channel())) {
-            channelGroup.add(ctx.channel());
-            //writeMessageFromContextHandler(ctx, "You have been added to chat channel " + chatChannelName);
+    private void createChatRoom(ChannelHandlerContext ctx, String chatChannelName) {
+        if(!isUserLoggedIn()) {
+            writeMessageFromContextHandler(ctx, "You're not logged in.");
+            return;
+        }
+        try {
+            if(chatRooms.create(chatChannelName, user.getLogin()) != null)
+                writeMessageFromContextHandler(ctx, "Channel " + chatChannelName + " created.");
+            else
+                writeMessageFromContextHandler(ctx, "Channel " + chatChannelName + " already exists.");
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            writeMessageFromContextHandler(ctx, e.getMessage());
         }
-        channelGroup.writeAndFlush("User " + ctx.channel().attr(USER_ATTRIBUTE_KEY).get().getLogin()
-                + " joined to " + chatChannelName +  " channel.\r\n");
-        userChatChannelMap.replace(user, chatChannelName);
     }
 
-    private String getChatChannelNameForUser(User user) {
-        return userChatChannelMap.get(user);
+    private boolean isUserInGroup() {
+        return session.isInChatChannel();
     }
 
-    private synchronized boolean isUserExists(User user) {
-        for(Channel ch : activeUsers) {
-            User chUser = ch.attr(USER_ATTRIBUTE_KEY).get();
-            if(chUser != null && user.getLogin().equals(chUser.getLogin()))
-                return true;
-        }
-        return false;
+    private boolean isUserLoggedIn() {
+        return user != null;
     }
 
     /**
-     * Checks if ChannelGroup contains current user Channel
-     * @param chatChannelGroup
-     * @param ch
+     * Restores the user in the chat channel whose place was saved for him.
      */
-    private boolean checkUserChannelInGroup(ChannelGroup chatChannelGroup, Channel ch) {
-        if(chatChannelGroup == null) return false;
-        return chatChannelGroup.contains(ch);
+    private boolean addUserToChatChannel(ChannelHandlerContext ctx, User user) {
+        if(!session.isInChatChannel()) return false;
+        String chatChannelName = session.getChatChannelName();
+        ChatRoom room = chatRooms.get(session.getChatChannelId());
+        if(room == null || !room.join(ctx.channel(), user.getLogin())) {
+            sessionRegistry.release(session);
+            writeMessageFromContextHandler(ctx, "Can't restore " +
+                    user.getLogin() + " in chat channel " + chatChannelName);
+            return false;
+        }
+        writeMessageFromContextHandler(ctx, "Restore " + user.getLogin()
+                + " in chat channel " + chatChannelName);
+        printMessages(ctx, room);
+
+        return true;
     }
 
     private void showAllUsersFromChannel(ChannelHandlerContext ctx)
             throws InvalidChatChannelName, InvalidChatChannelGroup {
-        User user = ctx.channel().attr(USER_ATTRIBUTE_KEY).get();
-        String chatChannelName = userChatChannelMap.get(user);
+        String chatChannelName = session != null ? session.getChatChannelName() : null;
 
         if(chatChannelName == null) throw new InvalidChatChannelName("Can't find chat channel name.");
 
-        ChannelGroup channelGroup = chatChannelGroup.get(chatChannelName);
-        if(channelGroup == null) throw new InvalidChatChannelGroup("Can't find channel group.");
+        ChatRoom room = chatRooms.get(session.getChatChannelId());
+        if(room == null) throw new InvalidChatChannelGroup("Can't find channel group.");
+        ChannelGroup channelGroup = room.getMembers();
 
         StringBuilder sb = new StringBuilder();
 
@@ -311,17 +445,10 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
     }
 
     private void showMessage(ChannelHandlerContext ctx, String message) {
-        String chatChannelName = userChatChannelMap.get(user);
-        ChannelGroup channelGroup = chatChannelGroup.get(chatChannelName);
-        if(channelGroup != null) {
-            for(Channel ch : channelGroup) {
-                if(ch != ctx.channel()) {
-                    ch.writeAndFlush( "[" + getUserLogin(ctx) + "] " + message + "\r\n");
-                } else {
-                    ch.writeAndFlush("[you] " + message + "\r\n");
-                }
-            }
-            addMessageToList(chatChannelName, message, user);
+        ChatRoom room = chatRooms.get(session.getChatChannelId());
+        if(room != null) {
+            room.broadcast(ctx.channel(), getUserLogin(ctx), message);
+            metrics.messageBroadcast(room.getMembers().size());
         } else {
             writeMessageFromContextHandler(ctx, "You're not in any channels.");
         }
@@ -338,37 +465,45 @@ public class TelnetServerHandler extends SimpleChannelInboundHandler<String> {
         ctx.writeAndFlush(message + "\r\n");
     }
 
-    private void addMessageToList(String chatChannelName, String message, User user) {
-        BlockingQueue<String> messages = lastMessages.get(chatChannelName);
-        synchronized (this) {
-            if(messages.size() >= QUANTITY_OF_SHOWING_MESSAGES) messages.poll();
-            messages.offer(String.format("[%s]%s", user.getLogin(), message));
-        }
-    }
-
-    private void changeSavePlace(String request) {
-        String[] params = request.split(" ");
-
-        if(params.length != 2) return;
-
-        if(params[1].equals(SET_SAVE_PLACE_TO_FALSE))
+    private void changeSavePlace(String flag) {
+        if(flag.equals(SET_SAVE_PLACE_TO_FALSE))
             isSavePlace.set(false);
         else
             isSavePlace.set(true);
     }
 
-    private void printMessages(ChannelHandlerContext ctx, String chatChannelName) {
-        StringBuilder sb = new StringBuilder();
-        BlockingQueue<String> messages = lastMessages.get(chatChannelName);
-        int i = 1;
-        for(String message : messages) {
-            sb.append(i).append(") ").append(message).append("\r\n");
-            i++;
+    private void printMessages(ChannelHandlerContext ctx, ChatRoom room) {
+        printMessagesSince(ctx, room, 0);
+    }
+
+    /**
+     * Prints messages of the user's chat channel which are newer than the sequence number,
+     * so a reconnected client can catch up.
+     */
+    private void replay(ChannelHandlerContext ctx, String sequence) {
+        ChatRoom room = isUserLoggedIn() ? chatRooms.get(session.getChatChannelId()) : null;
+        if(room == null) {
+            writeMessageFromContextHandler(ctx, "You're not in any channels.");
+            return;
         }
-        writeMessageFromContextHandler(ctx, sb.toString());
+        long since;
+        try {
+            since = Long.parseLong(sequence);
+        } catch (NumberFormatException e) {
+            writeMessageFromContextHandler(ctx, "Wrong message number " + sequence);
+            return;
+        }
+        printMessagesSince(ctx, room, since);
+    }
+
+    private void printMessagesSince(ChannelHandlerContext ctx, ChatRoom room, long sequence) {
+        ByteBuf out = ctx.alloc().buffer();
+        room.getHistory().replaySince(sequence, out);
+        out.writeBytes(LINE_DELIMITER);
+        ctx.writeAndFlush(out);
     }
 
-    private synchronized void showActiveUsers(ChannelHandlerContext ctx) {
+    private void showActiveUsers(ChannelHandlerContext ctx) {
         for (Channel ch : activeUsers) {
             User tmpUser = ch.attr(USER_ATTRIBUTE_KEY).get();
             String msg = (tmpUser != null) ? tmpUser.getLogin() : ch.toString();
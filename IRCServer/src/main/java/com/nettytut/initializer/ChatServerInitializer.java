@@ -1,41 +1,121 @@
 package com.nettytut.initializer;
 
+import com.nettytut.auth.Authenticator;
+import com.nettytut.codec.BinaryCommandDecoder;
 import com.nettytut.handlers.TelnetServerHandler;
-import com.nettytut.model.User;
+import com.nettytut.idle.IdlePolicy;
+import com.nettytut.idle.WheelIdleStateHandler;
+import com.nettytut.metrics.ChatMetrics;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import com.nettytut.outbound.BackpressureHandler;
+import com.nettytut.outbound.CoalescingWriteHandler;
+import com.nettytut.outbound.OutboundPolicy;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.group.ChannelGroup;
 import io.netty.handler.codec.DelimiterBasedFrameDecoder;
 import io.netty.handler.codec.Delimiters;
 import io.netty.handler.codec.string.StringDecoder;
 import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.ImmediateExecutor;
 
-import java.util.Map;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ChatServerInitializer
         extends ChannelInitializer<Channel>{
-    private final Map<String, ChannelGroup> group;
+    public static final int MAX_FRAME_LENGTH = 8192;
+    /**
+     * Telnet clients don't answer keepalives, so only a long silence means a dead peer:
+     * reaped after -Dchat.idle.readerSeconds (600), keepalive after -Dchat.idle.writerSeconds (60).
+     */
+    public static final IdlePolicy IDLE_POLICY = IdlePolicy.fromSystemProperties("chat.idle", 600, 60);
+    private final ChatRooms chatRooms;
     //private final Map<Channel, User> userGroup;
-    private final Map<User, String> userChatChannel;
+    private final SessionRegistry sessionRegistry;
+    /* Local ports which speak the binary protocol instead of text lines */
+    private final Set<Integer> binaryPorts;
+    /* Runs the business logic if set, so it doesn't block the I/O event loops */
+    private final EventExecutorGroup businessGroup;
+    private final ChatMetrics metrics;
+    /* Checks passwords, shared by all connections */
+    private final Authenticator authenticator;
     private static final StringDecoder DECODER = new StringDecoder();
     private static final StringEncoder ENCODER = new StringEncoder();
 
-    public ChatServerInitializer(Map<String, ChannelGroup> group,
-                                 Map<User, String> userChatChannel) {
-        this.group = group;
-        this.userChatChannel = userChatChannel;
+    public ChatServerInitializer(ChatRooms chatRooms,
+                                 SessionRegistry sessionRegistry) {
+        this(chatRooms, sessionRegistry, Collections.<Integer>emptySet());
+    }
+
+    public ChatServerInitializer(ChatRooms chatRooms,
+                                 SessionRegistry sessionRegistry,
+                                 Set<Integer> binaryPorts) {
+        this(chatRooms, sessionRegistry, binaryPorts, null);
+    }
+
+    public ChatServerInitializer(ChatRooms chatRooms,
+                                 SessionRegistry sessionRegistry,
+                                 Set<Integer> binaryPorts,
+                                 EventExecutorGroup businessGroup) {
+        this(chatRooms, sessionRegistry, binaryPorts, businessGroup,
+                new ChatMetrics(chatRooms, sessionRegistry));
+    }
+
+    public ChatServerInitializer(ChatRooms chatRooms,
+                                 SessionRegistry sessionRegistry,
+                                 Set<Integer> binaryPorts,
+                                 EventExecutorGroup businessGroup,
+                                 ChatMetrics metrics) {
+        this(chatRooms, sessionRegistry, binaryPorts, businessGroup, metrics,
+                new Authenticator(sessionRegistry.getCredentialStore(), ImmediateExecutor.INSTANCE, 0, TimeUnit.SECONDS));
+    }
+
+    public ChatServerInitializer(ChatRooms chatRooms,
+                                 SessionRegistry sessionRegistry,
+                                 Set<Integer> binaryPorts,
+                                 EventExecutorGroup businessGroup,
+                                 ChatMetrics metrics,
+                                 Authenticator authenticator) {
+        this.chatRooms = chatRooms;
+        this.sessionRegistry = sessionRegistry;
+        this.binaryPorts = binaryPorts;
+        this.businessGroup = businessGroup;
+        this.metrics = metrics;
+        this.authenticator = authenticator;
     }
 
     @Override
     protected void initChannel(Channel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
-        // Add the text line codec combination first,
-        pipeline.addLast(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()));
-        // the encoder and decoder are static as these are sharable
-        pipeline.addLast(DECODER);
+        // Idle time is measured at the socket, before anything is buffered,
+        if (IDLE_POLICY.isEnabled()) pipeline.addLast(new WheelIdleStateHandler(IDLE_POLICY));
+        // slow consumers are handled next to the socket, where replies are already encoded,
+        pipeline.addLast(new BackpressureHandler(OutboundPolicy.DEFAULT, chatRooms.getLobbyOutboundStats()));
+        // lines written in the same event loop tick go out as one write and flush,
+        pipeline.addLast(new CoalescingWriteHandler());
+        if (isBinary(ch.localAddress())) {
+            // then binary commands are decoded straight into pooled objects,
+            pipeline.addLast(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        } else {
+            // then the text line codec combination,
+            pipeline.addLast(new DelimiterBasedFrameDecoder(MAX_FRAME_LENGTH, Delimiters.lineDelimiter()));
+            // the encoder and decoder are static as these are sharable
+            pipeline.addLast(DECODER);
+        }
+        // replies are text lines for both protocols,
         pipeline.addLast(ENCODER);
         // and then business logic.
-        pipeline.addLast(new TelnetServerHandler(group, userChatChannel));
+        pipeline.addLast(businessGroup, new TelnetServerHandler(chatRooms, sessionRegistry, metrics, authenticator));
+    }
+
+    private boolean isBinary(SocketAddress localAddress) {
+        return localAddress instanceof InetSocketAddress
+                && binaryPorts.contains(((InetSocketAddress) localAddress).getPort());
     }
 }
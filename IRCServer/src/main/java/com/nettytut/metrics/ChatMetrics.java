@@ -0,0 +1,167 @@
+package com.nettytut.metrics;
+
+import com.nettytut.codec.ChatOpcode;
+import com.nettytut.model.ChatRoom;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import com.nettytut.outbound.BackpressureHandler;
+import com.nettytut.outbound.CoalescingWriteHandler;
+import com.nettytut.outbound.OutboundStats;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the chat server. Hot paths only increment striped counters
+ * or histogram buckets; gauges are computed when the metrics are scraped.
+ */
+public class ChatMetrics implements MetricsSource {
+    static final double[] FAN_OUT_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    static final double[] DELAY_BUCKETS_SECONDS = {0.00001, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025,
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1};
+
+    private final ChatRooms chatRooms;
+    private final SessionRegistry sessionRegistry;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsReaped = new LongAdder();
+    private final LongAdder[] commands = new LongAdder[ChatOpcode.values().length];
+    /* Number of members a broadcast message is delivered to */
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    /* Open connections, to sum up their outbound buffers */
+    private final ChannelGroup connections = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+    private final EventLoopProbe eventLoopProbe = new EventLoopProbe(100, TimeUnit.MILLISECONDS);
+
+    public ChatMetrics(ChatRooms chatRooms, SessionRegistry sessionRegistry) {
+        this.chatRooms = chatRooms;
+        this.sessionRegistry = sessionRegistry;
+        for (int i = 0; i < commands.length; i++) commands[i] = new LongAdder();
+    }
+
+    public EventLoopProbe getEventLoopProbe() {
+        return eventLoopProbe;
+    }
+
+    public void connectionOpened(Channel ch) {
+        connectionsOpened.increment();
+        connections.add(ch);
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void connectionReaped() {
+        connectionsReaped.increment();
+    }
+
+    public void commandReceived(ChatOpcode opcode) {
+        commands[opcode.ordinal()].increment();
+    }
+
+    public void messageBroadcast(int members) {
+        fanOut.record(members);
+    }
+
+    @Override
+    public void writeMetrics(PrometheusWriter out) {
+        out.counter("chat_connections_opened_total", "Accepted connections.", connectionsOpened.sum());
+        out.counter("chat_connections_closed_total", "Closed connections.", connectionsClosed.sum());
+        out.counter("chat_connections_reaped_total", "Connections closed for being idle.", connectionsReaped.sum());
+        out.gauge("chat_connections", "Open connections.", connections.size());
+        out.gauge("chat_users_online", "Signed in users.", sessionRegistry.getOnlineCount());
+
+        out.header("chat_commands_total", "counter", "Received commands of both protocols.");
+        for (ChatOpcode opcode : ChatOpcode.values()) {
+            out.sample("chat_commands_total", "command", opcode.name().toLowerCase(Locale.ROOT),
+                    commands[opcode.ordinal()].sum());
+        }
+        out.histogram("chat_broadcast_fanout", "Members a chat message is delivered to.", fanOut,
+                FAN_OUT_BUCKETS, 1);
+        writeOutboundBuffers(out);
+        writeRooms(out);
+        out.histogram("chat_event_loop_task_delay_seconds", "Delay of tasks scheduled on the worker event loops.",
+                eventLoopProbe.getDelays(), DELAY_BUCKETS_SECONDS, 1e-9);
+    }
+
+    private void writeOutboundBuffers(PrometheusWriter out) {
+        long total = 0;
+        long max = 0;
+        for (Channel ch : connections) {
+            long pending = pendingWriteBytes(ch);
+            total += pending;
+            max = Math.max(max, pending);
+        }
+        out.gauge("chat_outbound_pending_bytes", "Bytes waiting to be sent on all connections.", total);
+        out.gauge("chat_outbound_pending_bytes_max", "Most bytes waiting to be sent on a connection.", max);
+    }
+
+    /**
+     * Bytes held back by the outbound handlers plus, as Netty 4.0 doesn't expose
+     * the size of the socket's write buffer, its high water mark once it is exceeded.
+     */
+    static long pendingWriteBytes(Channel ch) {
+        long pending = 0;
+        BackpressureHandler backpressure = ch.pipeline().get(BackpressureHandler.class);
+        if (backpressure != null) pending += backpressure.getDeferredBytes();
+        CoalescingWriteHandler coalescing = ch.pipeline().get(CoalescingWriteHandler.class);
+        if (coalescing != null) pending += coalescing.getBatchBytes();
+        if (ch.isActive() && !ch.isWritable()) pending += ch.config().getWriteBufferHighWaterMark();
+        return pending;
+    }
+
+    private void writeRooms(PrometheusWriter out) {
+        out.header("chat_room_messages_total", "counter", "Messages broadcast in a room.");
+        for (ChatRoom room : chatRooms.getAll()) {
+            out.sample("chat_room_messages_total", "room", room.getName(), room.getMessageCount());
+        }
+        out.header("chat_room_members", "gauge", "Connections in a room.");
+        for (ChatRoom room : chatRooms.getAll()) {
+            out.sample("chat_room_members", "room", room.getName(), room.getMembers().size());
+        }
+        for (OutboundCounter counter : OutboundCounter.values()) {
+            out.header(counter.metric, "counter", counter.help);
+            out.sample(counter.metric, "room", "", counter.get(chatRooms.getLobbyOutboundStats()));
+            for (ChatRoom room : chatRooms.getAll()) {
+                out.sample(counter.metric, "room", room.getName(), counter.get(room.getOutboundStats()));
+            }
+        }
+    }
+
+    /* Counters of slow consumer handling, the lobby is the room with an empty name */
+    private enum OutboundCounter {
+        DEFERRED("chat_outbound_deferred_total", "Messages deferred for slow connections.") {
+            @Override
+            long get(OutboundStats stats) {
+                return stats.getDeferred();
+            }
+        },
+        DROPPED("chat_outbound_dropped_total", "Messages dropped for slow connections.") {
+            @Override
+            long get(OutboundStats stats) {
+                return stats.getDropped();
+            }
+        },
+        DISCONNECTED("chat_outbound_disconnected_total", "Slow connections closed.") {
+            @Override
+            long get(OutboundStats stats) {
+                return stats.getDisconnected();
+            }
+        };
+
+        final String metric;
+        final String help;
+
+        OutboundCounter(String metric, String help) {
+            this.metric = metric;
+            this.help = help;
+        }
+
+        abstract long get(OutboundStats stats);
+    }
+}
@@ -0,0 +1,65 @@
+package com.nettytut.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the message history of every chat channel.
+ * Histories are created on first use, so chat channels created at runtime have one too.
+ */
+public class ChatHistory {
+    public final static int DEFAULT_DEPTH = Integer.getInteger("chat.history.depth", 10);
+
+    /* Histories by chat channel id */
+    private final IdTable<MessageHistory> histories = new IdTable<>();
+    private final List<MessageHistory> allHistories = new CopyOnWriteArrayList<>();
+    private final int depth;
+    private volatile ChatJournal journal = ChatJournal.NONE;
+
+    public ChatHistory() {
+        this(DEFAULT_DEPTH);
+    }
+
+    public ChatHistory(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     * Sets the journal of appended messages for existing and future histories.
+     */
+    public synchronized void setJournal(ChatJournal journal) {
+        this.journal = journal;
+        for (MessageHistory history : allHistories) history.setJournal(journal);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Drops the history of a removed chat channel, a channel created with the name later starts empty.
+     */
+    public synchronized void remove(int chatChannelId, MessageHistory history) {
+        if (histories.remove(chatChannelId, history)) allHistories.remove(history);
+    }
+
+    public MessageHistory get(String chatChannelName) {
+        return get(SymbolTable.ROOMS.intern(chatChannelName));
+    }
+
+    public MessageHistory get(int chatChannelId) {
+        MessageHistory history = histories.get(chatChannelId);
+        if (history == null) {
+            synchronized (this) {
+                history = histories.get(chatChannelId);
+                if (history == null) {
+                    history = new MessageHistory(SymbolTable.ROOMS.name(chatChannelId), depth);
+                    history.setJournal(journal);
+                    histories.set(chatChannelId, history);
+                    allHistories.add(history);
+                }
+            }
+        }
+        return history;
+    }
+}
@@ -0,0 +1,47 @@
+package com.nettytut.model;
+
+/**
+ * Receives the changes of chat state which have to survive a restart.
+ * Calls are made on the thread which changes the state, so implementations must not block.
+ */
+public interface ChatJournal {
+    ChatJournal NONE = new ChatJournal() {
+        @Override
+        public void messageAppended(String chatChannelName, long timestamp, byte[] encoded) {
+        }
+
+        @Override
+        public void userAssigned(String login, String chatChannelName) {
+        }
+
+        @Override
+        public void roomCreated(String chatChannelName, String creator) {
+        }
+
+        @Override
+        public void roomRemoved(String chatChannelName) {
+        }
+    };
+
+    /**
+     * A message was appended to the history of the chat channel.
+     */
+    void messageAppended(String chatChannelName, long timestamp, byte[] encoded);
+
+    /**
+     * The user was moved to the chat channel or, if it is
+     * {@link SessionRegistry#EMPTY_CHAT_CHANNEL_NAME}, left his chat channel.
+     */
+    void userAssigned(String login, String chatChannelName);
+
+    /**
+     * The chat channel was created at runtime.
+     * @param creator login of the user who created it, null if the server did
+     */
+    void roomCreated(String chatChannelName, String creator);
+
+    /**
+     * The chat channel was removed after it had been unused for a while.
+     */
+    void roomRemoved(String chatChannelName);
+}
@@ -0,0 +1,168 @@
+package com.nettytut.model;
+
+import com.nettytut.broadcast.ChatMessageBroadcaster;
+import com.nettytut.outbound.BackpressureHandler;
+import com.nettytut.outbound.OutboundPolicy;
+import com.nettytut.outbound.OutboundStats;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A chat channel pinned to one event loop of the server.
+ * The event loop owns the room: history appends and broadcasts run on it,
+ * so they need no locks, and busy rooms are spread over all event loops.
+ * A room is closed before it is removed, see {@link ChatRooms}; joining a closed room fails.
+ */
+public class ChatRoom {
+    private final String name;
+    private final int id;
+    private final EventLoop eventLoop;
+    private final ChannelGroup members;
+    private final MessageHistory history;
+    /* How members which can't keep up with the room are handled */
+    private final OutboundPolicy outboundPolicy;
+    private final OutboundStats outboundStats = new OutboundStats();
+    private final LongAdder messageCount = new LongAdder();
+    /* Login of the user who created the room, null for rooms of the server */
+    private final String creator;
+    /* Guarded by this, so a join can't slip in while the room is closed */
+    private boolean closed;
+    /* When the expiry first found the room unused, 0 while it is used; only the expiry uses it */
+    long unusedSince;
+
+    public ChatRoom(String name, EventLoop eventLoop, MessageHistory history) {
+        this(name, eventLoop, history, OutboundPolicy.DEFAULT);
+    }
+
+    public ChatRoom(String name, EventLoop eventLoop, MessageHistory history, OutboundPolicy outboundPolicy) {
+        this(name, eventLoop, history, outboundPolicy, null);
+    }
+
+    public ChatRoom(String name, EventLoop eventLoop, MessageHistory history, OutboundPolicy outboundPolicy,
+                    String creator) {
+        this.name = name;
+        this.creator = creator;
+        this.id = SymbolTable.ROOMS.intern(name);
+        this.eventLoop = eventLoop;
+        this.members = new DefaultChannelGroup(name, eventLoop);
+        this.history = history;
+        this.outboundPolicy = outboundPolicy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the interned id of the name
+     */
+    public int getId() {
+        return id;
+    }
+
+    public EventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    /**
+     * @return the login of the user who created the room or null if the server did
+     */
+    public String getCreator() {
+        return creator;
+    }
+
+    public ChannelGroup getMembers() {
+        return members;
+    }
+
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public OutboundPolicy getOutboundPolicy() {
+        return outboundPolicy;
+    }
+
+    public OutboundStats getOutboundStats() {
+        return outboundStats;
+    }
+
+    /** Messages broadcast since the server started */
+    public long getMessageCount() {
+        return messageCount.sum();
+    }
+
+    /**
+     * Adds the channel to the room and announces the user to the members.
+     * @return false if the room has been closed
+     */
+    public boolean join(final Channel ch, final String login) {
+        synchronized (this) {
+            if (closed) return false;
+            members.add(ch);
+        }
+        BackpressureHandler.setPolicy(ch, outboundPolicy, outboundStats);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                ChatMessageBroadcaster.announce(members, ch.alloc(),
+                        "User " + login + " joined to " + name + " channel.");
+            }
+        });
+        return true;
+    }
+
+    /**
+     * @param sessionRegistry places saved in it count as use too, may be null
+     * @return true if the room has neither members nor saved places
+     */
+    boolean isUnused(SessionRegistry sessionRegistry) {
+        return members.isEmpty() && (sessionRegistry == null || sessionRegistry.getMemberCount(id) == 0);
+    }
+
+    /**
+     * Closes the room if it is unused. A place is reserved in the registry before
+     * the channel joins, so either the close sees the place or the join sees the close.
+     * @return true if the room is closed
+     */
+    synchronized boolean closeIfUnused(SessionRegistry sessionRegistry) {
+        if (!closed && !isUnused(sessionRegistry)) return false;
+        closed = true;
+        return true;
+    }
+
+    /**
+     * Appends the message to the history and sends it to the members.
+     */
+    public void broadcast(final Channel sender, final String login, final String message) {
+        final long timestamp = System.currentTimeMillis();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                messageCount.increment();
+                history.append(login, message, timestamp);
+                ChatMessageBroadcaster.broadcast(members, sender, login, message);
+            }
+        });
+    }
+
+    private void execute(Runnable task) {
+        if (eventLoop.inEventLoop()) {
+            task.run();
+        } else {
+            eventLoop.execute(task);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChatRoom{" +
+                "name='" + name + '\'' +
+                ", members=" + members.size() +
+                '}';
+    }
+}
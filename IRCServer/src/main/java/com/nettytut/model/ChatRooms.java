@@ -0,0 +1,267 @@
+package com.nettytut.model;
+
+import com.nettytut.outbound.OutboundPolicy;
+import com.nettytut.outbound.OutboundStats;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the chat rooms of the server. Rooms are created on demand and each one
+ * is pinned to the next event loop of the group. Rooms are indexed by the interned
+ * ids of their names, so per message lookups don't hash the name.
+ * <p>
+ * Rooms created by users are limited in number, overall and per user, and are removed
+ * once nobody has been in them or had a place saved in them for a while, see
+ * {@link #scheduleExpiry()}. Rooms of the server itself are kept. The name of a removed
+ * room stays interned, so the sessions which still refer to its id can't end up in
+ * another room.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code chat.rooms.max} - rooms in total, users can't create more, default 1024.</li>
+ *     <li>{@code chat.rooms.maxPerUser} - rooms a user may have created at a time, default 4.</li>
+ *     <li>{@code chat.rooms.emptyTtlSeconds} - how long an empty room of a user is kept, default 600.</li>
+ * </ul>
+ */
+public class ChatRooms {
+    public final static int MAX_NAME_LENGTH = 64;
+    public final static int DEFAULT_MAX_ROOMS = Integer.getInteger("chat.rooms.max", 1024);
+    public final static int DEFAULT_MAX_ROOMS_PER_USER = Integer.getInteger("chat.rooms.maxPerUser", 4);
+    public final static long DEFAULT_EMPTY_TTL_SECONDS = Long.getLong("chat.rooms.emptyTtlSeconds", 600);
+
+    /* Rooms by id */
+    private final IdTable<ChatRoom> rooms = new IdTable<>();
+    /* Copied on removal, which is rare, so iterating needs no copy */
+    private final List<ChatRoom> allRooms = new CopyOnWriteArrayList<>();
+    /* Rooms which exist or are being created, reserved before a room is created */
+    private final AtomicInteger roomCount = new AtomicInteger();
+    /* Rooms created by the user which still exist, by login id */
+    private final IdTable<AtomicInteger> createdCounts = new IdTable<>();
+    private final EventLoopGroup eventLoopGroup;
+    private final ChatHistory chatHistory;
+    /* Null if only the members of a room keep it from expiring */
+    private final SessionRegistry sessionRegistry;
+    private final int maxRooms;
+    private final int maxRoomsPerUser;
+    private final long emptyTtlNanos;
+    private volatile ChatJournal journal = ChatJournal.NONE;
+    /* Counts slow consumer handling of connections which aren't in a room */
+    private final OutboundStats lobbyOutboundStats = new OutboundStats();
+
+    public ChatRooms(EventLoopGroup eventLoopGroup, ChatHistory chatHistory) {
+        this(eventLoopGroup, chatHistory, null);
+    }
+
+    public ChatRooms(EventLoopGroup eventLoopGroup, ChatHistory chatHistory, SessionRegistry sessionRegistry) {
+        this(eventLoopGroup, chatHistory, sessionRegistry, DEFAULT_MAX_ROOMS, DEFAULT_MAX_ROOMS_PER_USER,
+                DEFAULT_EMPTY_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param sessionRegistry places saved in it keep a room from expiring, may be null
+     */
+    public ChatRooms(EventLoopGroup eventLoopGroup, ChatHistory chatHistory, SessionRegistry sessionRegistry,
+                     int maxRooms, int maxRoomsPerUser, long emptyTtl, TimeUnit unit) {
+        if (maxRooms < 0) throw new IllegalArgumentException("maxRooms: " + maxRooms);
+        if (maxRoomsPerUser < 0) throw new IllegalArgumentException("maxRoomsPerUser: " + maxRoomsPerUser);
+        if (emptyTtl < 0) throw new IllegalArgumentException("emptyTtl: " + emptyTtl);
+        this.eventLoopGroup = eventLoopGroup;
+        this.chatHistory = chatHistory;
+        this.sessionRegistry = sessionRegistry;
+        this.maxRooms = maxRooms;
+        this.maxRoomsPerUser = maxRoomsPerUser;
+        this.emptyTtlNanos = unit.toNanos(emptyTtl);
+    }
+
+    public void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    public ChatRoom get(String name) {
+        return rooms.get(SymbolTable.ROOMS.lookup(name));
+    }
+
+    /**
+     * @return the room with the interned id or null if there is none
+     */
+    public ChatRoom get(int id) {
+        return rooms.get(id);
+    }
+
+    public Collection<ChatRoom> getAll() {
+        return Collections.unmodifiableCollection(allRooms);
+    }
+
+    public int size() {
+        return roomCount.get();
+    }
+
+    public OutboundStats getLobbyOutboundStats() {
+        return lobbyOutboundStats;
+    }
+
+    /**
+     * Creates a room of the server, which isn't limited and doesn't expire.
+     * @return the created room or null if a room with the name already exists
+     * @throws IllegalArgumentException if the name can't be used for a room
+     */
+    public ChatRoom create(String name) {
+        return create(name, OutboundPolicy.DEFAULT);
+    }
+
+    /**
+     * Creates a room of the server which handles slow members with the policy.
+     * @return the created room or null if a room with the name already exists
+     * @throws IllegalArgumentException if the name can't be used for a room
+     */
+    public ChatRoom create(String name, OutboundPolicy outboundPolicy) {
+        validateName(name);
+        roomCount.incrementAndGet();
+        return add(name, outboundPolicy, null);
+    }
+
+    /**
+     * Creates a room for the user.
+     * @return the created room or null if a room with the name already exists
+     * @throws IllegalArgumentException if the name can't be used for a room
+     * @throws IllegalStateException if there are too many rooms or the user has created too many
+     */
+    public ChatRoom create(String name, String creator) {
+        validateName(name);
+        if (get(name) != null) return null;
+        AtomicInteger created = createdCount(creator);
+        if (!tryReserve(created, maxRoomsPerUser)) {
+            throw new IllegalStateException("You have created too many channels, the limit is " + maxRoomsPerUser + ".");
+        }
+        if (!tryReserve(roomCount, maxRooms)) {
+            created.decrementAndGet();
+            throw new IllegalStateException("There are too many channels, please join an existing one.");
+        }
+        ChatRoom room = add(name, OutboundPolicy.DEFAULT, creator);
+        if (room == null) created.decrementAndGet();
+        return room;
+    }
+
+    /**
+     * Recreates a room from the journal, regardless of the limits.
+     * @param creator null for a room of the server
+     */
+    public void restore(String name, String creator) {
+        if (get(name) != null) return;
+        if (creator != null) createdCount(creator).incrementAndGet();
+        roomCount.incrementAndGet();
+        if (add(name, OutboundPolicy.DEFAULT, creator) == null && creator != null) {
+            createdCount(creator).decrementAndGet();
+        }
+    }
+
+    /**
+     * Removes a room whose removal is replayed from the journal, with its history.
+     */
+    public void restoreRemoval(String name) {
+        ChatRoom room = get(name);
+        if (room != null && room.closeIfUnused(null)) remove(room);
+    }
+
+    /**
+     * Removes the rooms of users which have been unused for the empty TTL,
+     * checking every tenth of the TTL but at least once a minute.
+     */
+    public ScheduledFuture<?> scheduleExpiry() {
+        long period = Math.max(TimeUnit.SECONDS.toNanos(1), Math.min(emptyTtlNanos / 10, TimeUnit.MINUTES.toNanos(1)));
+        return eventLoopGroup.next().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                expireUnusedRooms(System.nanoTime());
+            }
+        }, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes the rooms of users which have been unused for the empty TTL as of now.
+     * Called by one thread at a time.
+     * @return the number of removed rooms
+     */
+    int expireUnusedRooms(long now) {
+        int removed = 0;
+        for (ChatRoom room : allRooms) {
+            if (room.getCreator() == null) continue;
+            if (!room.isUnused(sessionRegistry)) {
+                room.unusedSince = 0;
+            } else if (room.unusedSince == 0) {
+                // Zero means used, so a clock which reads zero is taken for one later
+                room.unusedSince = now != 0 ? now : 1;
+            } else if (now - room.unusedSince >= emptyTtlNanos
+                    && room.closeIfUnused(sessionRegistry) && remove(room)) {
+                journal.roomRemoved(room.getName());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the room or null if another one with the name was added first
+     */
+    private ChatRoom add(String name, OutboundPolicy outboundPolicy, String creator) {
+        int id = SymbolTable.ROOMS.intern(name);
+        ChatRoom room = rooms.get(id) == null
+                ? new ChatRoom(name, eventLoopGroup.next(), chatHistory.get(id), outboundPolicy, creator)
+                : null;
+        if (room == null || rooms.putIfAbsent(id, room) != null) {
+            roomCount.decrementAndGet();
+            return null;
+        }
+        allRooms.add(room);
+        journal.roomCreated(name, creator);
+        return room;
+    }
+
+    /**
+     * @return false if the room has been removed already
+     */
+    private boolean remove(ChatRoom room) {
+        if (!rooms.remove(room.getId(), room)) return false;
+        allRooms.remove(room);
+        chatHistory.remove(room.getId(), room.getHistory());
+        roomCount.decrementAndGet();
+        if (room.getCreator() != null) createdCount(room.getCreator()).decrementAndGet();
+        return true;
+    }
+
+    private AtomicInteger createdCount(String creator) {
+        int loginId = SymbolTable.LOGINS.intern(creator);
+        AtomicInteger count = createdCounts.get(loginId);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = createdCounts.putIfAbsent(loginId, created);
+            if (count == null) count = created;
+        }
+        return count;
+    }
+
+    private static boolean tryReserve(AtomicInteger count, int capacity) {
+        for (;;) {
+            int current = count.get();
+            if (current >= capacity) return false;
+            if (count.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    private static void validateName(String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH
+                || SessionRegistry.EMPTY_CHAT_CHANNEL_NAME.equals(name))
+            throw new IllegalArgumentException("Wrong chat channel name " + name);
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i)))
+                throw new IllegalArgumentException("Wrong chat channel name " + name);
+        }
+    }
+}
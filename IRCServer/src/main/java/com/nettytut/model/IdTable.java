@@ -0,0 +1,81 @@
+package com.nettytut.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent map from dense int ids, e.g. the ids of a {@link SymbolTable}, to values.
+ * Values live in fixed size chunks which are never moved, so lookups are two array
+ * reads without hashing and updates are a CAS; only adding chunks takes a lock.
+ */
+public class IdTable<V> {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /* Replaced as a whole when it grows, the chunks are shared by the copies */
+    private volatile AtomicReferenceArray<V>[] chunks = newChunks(1);
+
+    /**
+     * @return the value or null if there is none for the id
+     */
+    public V get(int id) {
+        if (id < 0) return null;
+        AtomicReferenceArray<V>[] chunks = this.chunks;
+        int index = id >>> CHUNK_BITS;
+        return index < chunks.length ? chunks[index].get(id & CHUNK_MASK) : null;
+    }
+
+    public void set(int id, V value) {
+        chunk(id).set(id & CHUNK_MASK, value);
+    }
+
+    /**
+     * @return the existing value or null if the value has been set
+     */
+    public V putIfAbsent(int id, V value) {
+        AtomicReferenceArray<V> chunk = chunk(id);
+        int offset = id & CHUNK_MASK;
+        for (;;) {
+            V existing = chunk.get(offset);
+            if (existing != null) return existing;
+            if (chunk.compareAndSet(offset, null, value)) return null;
+        }
+    }
+
+    /**
+     * Removes the value if it is set for the id.
+     * @return true if the value has been removed
+     */
+    public boolean remove(int id, V value) {
+        if (id < 0) return false;
+        AtomicReferenceArray<V>[] chunks = this.chunks;
+        int index = id >>> CHUNK_BITS;
+        return index < chunks.length && chunks[index].compareAndSet(id & CHUNK_MASK, value, null);
+    }
+
+    private AtomicReferenceArray<V> chunk(int id) {
+        if (id < 0) throw new IllegalArgumentException("id: " + id);
+        AtomicReferenceArray<V>[] chunks = this.chunks;
+        int index = id >>> CHUNK_BITS;
+        return index < chunks.length ? chunks[index] : grow(index);
+    }
+
+    private synchronized AtomicReferenceArray<V> grow(int index) {
+        AtomicReferenceArray<V>[] current = chunks;
+        if (index < current.length) return current[index];
+        AtomicReferenceArray<V>[] grown = Arrays.copyOf(current, Math.max(index + 1, current.length * 2));
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        }
+        chunks = grown;
+        return grown[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> AtomicReferenceArray<V>[] newChunks(int count) {
+        AtomicReferenceArray<V>[] chunks = new AtomicReferenceArray[count];
+        for (int i = 0; i < count; i++) chunks[i] = new AtomicReferenceArray<>(CHUNK_SIZE);
+        return chunks;
+    }
+}
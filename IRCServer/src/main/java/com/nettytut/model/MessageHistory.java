@@ -0,0 +1,114 @@
+package com.nettytut.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity ring buffer of the last messages of a chat channel.
+ * Messages are stored pre-encoded together with a sequence number and a timestamp,
+ * so replaying them is a plain copy of bytes. There is a single writer, the event loop
+ * of the {@link ChatRoom}; reads never block: a reader skips slots which have been
+ * overwritten meanwhile.
+ */
+public class MessageHistory {
+    private static final byte[] SEQUENCE_DELIMITER = {')', ' '};
+    private static final byte[] LINE_DELIMITER = {'\r', '\n'};
+
+    private final String chatChannelName;
+    private final AtomicReferenceArray<Entry> entries;
+    private final int capacity;
+    private volatile ChatJournal journal = ChatJournal.NONE;
+    /* Sequence number of the next message, published after the slot is written */
+    private volatile long nextSequence = 1;
+
+    public MessageHistory(int capacity) {
+        this(null, capacity);
+    }
+
+    public MessageHistory(String chatChannelName, int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity: " + capacity);
+        this.chatChannelName = chatChannelName;
+        this.capacity = capacity;
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return sequence number of the last message or 0 if there are no messages
+     */
+    public long getLastSequence() {
+        return nextSequence - 1;
+    }
+
+    /**
+     * Appends the message of the user.
+     * @return sequence number of the message
+     */
+    public long append(String login, String message, long timestamp) {
+        return append(("[" + login + "]" + message).getBytes(CharsetUtil.UTF_8), timestamp);
+    }
+
+    /**
+     * Appends a message which is already encoded.
+     * @return sequence number of the message
+     */
+    public long append(byte[] encoded, long timestamp) {
+        long sequence = nextSequence;
+        entries.set(index(sequence), new Entry(sequence, timestamp, encoded));
+        nextSequence = sequence + 1;
+        journal.messageAppended(chatChannelName, timestamp, encoded);
+        return sequence;
+    }
+
+    /**
+     * Writes messages with sequence numbers greater than the given one
+     * as "sequence) message" lines.
+     * @return number of written messages
+     */
+    public int replaySince(long sequence, ByteBuf out) {
+        long end = nextSequence;
+        // Nothing is newer, this also keeps sequence + 1 from overflowing
+        if (sequence >= end - 1) return 0;
+        long start = Math.max(Math.max(sequence + 1, end - capacity), 1);
+        int count = 0;
+        for (long i = start; i < end; i++) {
+            Entry entry = entries.get(index(i));
+            // The slot has been overwritten by a newer message
+            if (entry == null || entry.sequence != i) continue;
+            writeDecimal(entry.sequence, out);
+            out.writeBytes(SEQUENCE_DELIMITER).writeBytes(entry.encoded).writeBytes(LINE_DELIMITER);
+            count++;
+        }
+        return count;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private static void writeDecimal(long value, ByteBuf out) {
+        if (value >= 10) writeDecimal(value / 10, out);
+        out.writeByte((int) ('0' + value % 10));
+    }
+
+    static final class Entry {
+        final long sequence;
+        final long timestamp;
+        final byte[] encoded;
+
+        Entry(long sequence, long timestamp, byte[] encoded) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.encoded = encoded;
+        }
+    }
+}
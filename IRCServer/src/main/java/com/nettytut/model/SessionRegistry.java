@@ -0,0 +1,166 @@
+package com.nettytut.model;
+
+import com.nettytut.auth.CredentialStore;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds all user sessions of the chat server.
+ * Keeps a login index, a per chat channel member count and the set of
+ * logins that are currently online, so every lookup is O(1) regardless
+ * of how many users are connected. Sessions and chat channels are keyed by
+ * interned ids, see {@link SymbolTable}; the String methods resolve the name once
+ * and delegate. Online logins are claimed before the password is checked,
+ * so they are keyed by name and only registered logins are ever interned. Passwords aren't part of sessions,
+ * they are checked against the {@link CredentialStore} of the registry.
+ */
+public class SessionRegistry {
+    public final static String EMPTY_CHAT_CHANNEL_NAME = "empty";
+    public final static int EMPTY_CHAT_CHANNEL_ID = SymbolTable.ROOMS.intern(EMPTY_CHAT_CHANNEL_NAME);
+
+    /* Session of the user by login id */
+    private final IdTable<UserSession> sessions = new IdTable<>();
+    /* Number of places taken in the chat channel by chat channel id */
+    private final IdTable<AtomicInteger> memberCounts = new IdTable<>();
+    /* Logins which have an open connection, authenticated or not yet */
+    private final Set<String> onlineLogins = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger onlineCount = new AtomicInteger();
+    private final CredentialStore credentialStore;
+    private volatile ChatJournal journal = ChatJournal.NONE;
+
+    public SessionRegistry() {
+        this(new CredentialStore());
+    }
+
+    public SessionRegistry(CredentialStore credentialStore) {
+        this.credentialStore = credentialStore;
+    }
+
+    public CredentialStore getCredentialStore() {
+        return credentialStore;
+    }
+
+    public void setJournal(ChatJournal journal) {
+        this.journal = journal;
+    }
+
+    public UserSession getSession(String login) {
+        return sessions.get(SymbolTable.LOGINS.lookup(login));
+    }
+
+    public UserSession getSession(int loginId) {
+        return sessions.get(loginId);
+    }
+
+    /**
+     * Registers a session for the user if the login is free.
+     * @return the session which is registered for the login after the call
+     */
+    public UserSession register(User user) {
+        UserSession session = new UserSession(user);
+        UserSession existing = sessions.putIfAbsent(session.getLoginId(), session);
+        return existing != null ? existing : session;
+    }
+
+    /**
+     * Restores the assignment of the user to the chat channel, e.g. from disk.
+     * Passwords aren't restored, the next sign in with the login registers one.
+     */
+    public UserSession restore(String login, String chatChannelName) {
+        UserSession session = register(new User(login));
+        assign(session, chatChannelName, Integer.MAX_VALUE);
+        return session;
+    }
+
+    /**
+     * Marks the login as online.
+     * @return false if the login is already online on another connection
+     */
+    public boolean signIn(String login) {
+        if (!onlineLogins.add(login)) return false;
+        onlineCount.incrementAndGet();
+        return true;
+    }
+
+    public boolean signIn(int loginId) {
+        return signIn(SymbolTable.LOGINS.name(loginId));
+    }
+
+    public void signOut(String login) {
+        if (onlineLogins.remove(login)) onlineCount.decrementAndGet();
+    }
+
+    public void signOut(int loginId) {
+        String login = SymbolTable.LOGINS.name(loginId);
+        if (login != null) signOut(login);
+    }
+
+    public boolean isOnline(String login) {
+        return onlineLogins.contains(login);
+    }
+
+    public int getOnlineCount() {
+        return onlineCount.get();
+    }
+
+    public int getMemberCount(String chatChannelName) {
+        return getMemberCount(SymbolTable.ROOMS.lookup(chatChannelName));
+    }
+
+    public int getMemberCount(int chatChannelId) {
+        AtomicInteger count = memberCounts.get(chatChannelId);
+        return count != null ? count.get() : 0;
+    }
+
+    public boolean assign(UserSession session, String chatChannelName, int capacity) {
+        return assign(session, SymbolTable.ROOMS.intern(chatChannelName), capacity);
+    }
+
+    /**
+     * Moves the session to another chat channel. The place in the new chat channel
+     * is reserved with a CAS on its member count, so concurrent joins never
+     * exceed the capacity and joins to different chat channels never contend.
+     * @return false if there is no place in the chat channel
+     */
+    public boolean assign(UserSession session, int chatChannelId, int capacity) {
+        synchronized (session) {
+            int previous = session.getChatChannelId();
+            if (previous == chatChannelId) return true;
+            if (chatChannelId != EMPTY_CHAT_CHANNEL_ID
+                    && !tryReserve(memberCount(chatChannelId), capacity))
+                return false;
+            if (previous != EMPTY_CHAT_CHANNEL_ID)
+                memberCount(previous).decrementAndGet();
+            session.setChatChannelId(chatChannelId);
+            journal.userAssigned(session.getLogin(), SymbolTable.ROOMS.name(chatChannelId));
+            return true;
+        }
+    }
+
+    /**
+     * Frees the place the session holds in its chat channel.
+     */
+    public void release(UserSession session) {
+        assign(session, EMPTY_CHAT_CHANNEL_ID, Integer.MAX_VALUE);
+    }
+
+    private static boolean tryReserve(AtomicInteger count, int capacity) {
+        for (;;) {
+            int current = count.get();
+            if (current >= capacity) return false;
+            if (count.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    private AtomicInteger memberCount(int chatChannelId) {
+        AtomicInteger count = memberCounts.get(chatChannelId);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = memberCounts.putIfAbsent(chatChannelId, created);
+            if (count == null) count = created;
+        }
+        return count;
+    }
+}
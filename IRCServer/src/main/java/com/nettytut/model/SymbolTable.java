@@ -0,0 +1,57 @@
+package com.nettytut.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns names into compact int ids. Names are hashed once where they come
+ * from the wire or from disk; from then on the server keys its state by id,
+ * see {@link IdTable}. Ids are never reused, so only names which get state
+ * (registered logins, created rooms) are interned; names of requests are
+ * looked up instead, so unknown names can't grow the table.
+ */
+public final class SymbolTable {
+    public final static int NO_ID = -1;
+    public final static SymbolTable ROOMS = new SymbolTable();
+    public final static SymbolTable LOGINS = new SymbolTable();
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final IdTable<String> names = new IdTable<>();
+    private int nextId;
+
+    /**
+     * @return the id of the name, a new one if the name hasn't been interned yet
+     */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) return id;
+            int created = nextId++;
+            // The name is there before anyone can see the id
+            names.set(created, name);
+            ids.put(name, created);
+            return created;
+        }
+    }
+
+    /**
+     * @return the id of the name or NO_ID if it has never been interned
+     */
+    public int lookup(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : NO_ID;
+    }
+
+    /**
+     * @return the name of the id or null if there is no such id
+     */
+    public String name(int id) {
+        return names.get(id);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+}
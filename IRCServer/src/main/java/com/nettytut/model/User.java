@@ -1,48 +1,43 @@
 package com.nettytut.model;
 
-import io.netty.channel.Channel;
-
+/**
+ * Identity of a chat user, which is the login alone. Credentials are kept
+ * apart in a {@link com.nettytut.auth.CredentialStore}, so a user can be used
+ * as a key without hashing or leaking the password.
+ */
 public class User {
     protected final String login;
-    protected final String password;
+    /* Logins are hashed on every lookup, so the hash is computed once */
+    private final int hash;
 
-    public User(final String login, final String password) {
+    public User(final String login) {
+        if (login == null) throw new IllegalArgumentException("login is null");
         this.login = login;
-        this.password = password;
+        this.hash = login.hashCode();
     }
 
     public String getLogin() {
         return login;
     }
 
-    public String getPassword() {
-        return password;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
         User user = (User) o;
-
-        if (login != null ? !login.equals(user.login) : user.login != null) return false;
-        return password != null ? password.equals(user.password) : user.password == null;
-
+        return hash == user.hash && login.equals(user.login);
     }
 
     @Override
     public int hashCode() {
-        int result = login != null ? login.hashCode() : 0;
-        result = 31 * result + (password != null ? password.hashCode() : 0);
-        return result;
+        return hash;
     }
 
     @Override
     public String toString() {
         return "User{" +
                 "login='" + login + '\'' +
-                ", password='" + password + '\'' +
                 '}';
     }
 }
@@ -0,0 +1,53 @@
+package com.nettytut.model;
+
+/**
+ * Server-side state of a signed up user. Outlives the connection,
+ * so the user's place in a chat channel can be restored on next login.
+ */
+public class UserSession {
+    private final User user;
+    private final int loginId;
+    /* Id of the chat channel the user is assigned to, guarded by this session. */
+    private volatile int chatChannelId = SessionRegistry.EMPTY_CHAT_CHANNEL_ID;
+
+    public UserSession(User user) {
+        this.user = user;
+        this.loginId = SymbolTable.LOGINS.intern(user.getLogin());
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getLogin() {
+        return user.getLogin();
+    }
+
+    public int getLoginId() {
+        return loginId;
+    }
+
+    public String getChatChannelName() {
+        return SymbolTable.ROOMS.name(chatChannelId);
+    }
+
+    public int getChatChannelId() {
+        return chatChannelId;
+    }
+
+    void setChatChannelId(int chatChannelId) {
+        this.chatChannelId = chatChannelId;
+    }
+
+    public boolean isInChatChannel() {
+        return chatChannelId != SessionRegistry.EMPTY_CHAT_CHANNEL_ID;
+    }
+
+    @Override
+    public String toString() {
+        return "UserSession{" +
+                "login='" + getLogin() + '\'' +
+                ", chatChannelName='" + getChatChannelName() + '\'' +
+                '}';
+    }
+}
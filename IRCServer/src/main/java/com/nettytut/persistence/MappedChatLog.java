@@ -0,0 +1,326 @@
+package com.nettytut.persistence;
+
+import com.nettytut.model.ChatHistory;
+import com.nettytut.model.ChatJournal;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import io.netty.util.CharsetUtil;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only chat log stored in memory-mapped segment files.
+ * <p>
+ * Event loops only put records into a bounded queue. A single writer thread
+ * copies them into the mapped segment and forces it to disk at most once per
+ * sync interval, so a message costs the event loop one queue offer. If the disk
+ * stalls and the queue is full, records are dropped and counted instead of
+ * blocking the event loop or growing the heap, see {@link #getDroppedRecords()}.
+ * <p>
+ * Every record is framed as
+ * <pre>
+ * +--------------+-------------+------+-----------+----------+------+----------+------+
+ * | length (int) | crc32 (int) | type | timestamp | name len | name | data len | data |
+ * |              |             | (1)  | (8)       | (2)      |      | (4)      |      |
+ * +--------------+-------------+------+-----------+----------+------+----------+------+
+ * </pre>
+ * Length 0 marks the end of the written part of a segment. Recovery stops at the first
+ * record which is truncated or fails the checksum, and appending resumes from there.
+ */
+public class MappedChatLog implements ChatJournal, Closeable {
+    private static final InternalLogger logger = InternalLoggerFactory.getInstance(MappedChatLog.class);
+    public final static int DEFAULT_SEGMENT_SIZE = Integer.getInteger("chat.log.segmentSize", 64 * 1024 * 1024);
+    public final static long DEFAULT_SYNC_INTERVAL_MILLIS = Long.getLong("chat.log.syncMillis", 10);
+    public final static int DEFAULT_QUEUE_SIZE = Integer.getInteger("chat.log.queueSize", 65536);
+
+    private final static byte MESSAGE = 1;
+    private final static byte ASSIGNMENT = 2;
+    private final static byte ROOM = 3;
+    private final static byte ROOM_REMOVED = 4;
+    private final static byte[] EMPTY_DATA = new byte[0];
+    private final static int FRAME_HEADER_LENGTH = 8;
+    private final static int BODY_HEADER_LENGTH = 1 + 8 + 2 + 4;
+    private final static String SEGMENT_PREFIX = "segment-";
+    private final static String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final int segmentSize;
+    private final long syncIntervalNanos;
+    private final Queue<Record> pending;
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final CRC32 crc = new CRC32();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private boolean dirty;
+
+    public MappedChatLog(File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    public MappedChatLog(File directory, int segmentSize, long syncIntervalMillis) {
+        this(directory, segmentSize, syncIntervalMillis, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param queueSize records waiting for the writer, more are dropped
+     */
+    public MappedChatLog(File directory, int segmentSize, long syncIntervalMillis, int queueSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.pending = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "chat-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Rebuilds rooms, message histories and user assignments from the segments
+     * and starts appending after the last valid record.
+     */
+    public void recover(ChatRooms chatRooms, ChatHistory chatHistory, SessionRegistry sessionRegistry)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create chat log directory " + directory);
+        File[] segments = listSegments();
+        if (segments.length == 0) {
+            openSegment(0, 0);
+            return;
+        }
+        int position = 0;
+        for (File file : segments) {
+            MappedByteBuffer buffer = map(file);
+            position = replay(buffer, chatRooms, chatHistory, sessionRegistry);
+        }
+        File last = segments[segments.length - 1];
+        openSegment(segmentIndex(last), position);
+    }
+
+    /**
+     * Starts the writer thread. Records appended before are kept in the queue, as far as it holds them.
+     */
+    public void start() {
+        writer.start();
+    }
+
+    @Override
+    public void messageAppended(String chatChannelName, long timestamp, byte[] encoded) {
+        offer(new Record(MESSAGE, timestamp, chatChannelName, encoded));
+    }
+
+    @Override
+    public void userAssigned(String login, String chatChannelName) {
+        offer(new Record(ASSIGNMENT, System.currentTimeMillis(), login,
+                chatChannelName.getBytes(CharsetUtil.UTF_8)));
+    }
+
+    @Override
+    public void roomCreated(String chatChannelName, String creator) {
+        // Rooms of the server have no creator, as in logs written before there were creators
+        offer(new Record(ROOM, System.currentTimeMillis(), chatChannelName,
+                creator != null ? creator.getBytes(CharsetUtil.UTF_8) : EMPTY_DATA));
+    }
+
+    @Override
+    public void roomRemoved(String chatChannelName) {
+        offer(new Record(ROOM_REMOVED, System.currentTimeMillis(), chatChannelName, EMPTY_DATA));
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    private void offer(Record record) {
+        if (pending.offer(record)) return;
+        long dropped = droppedRecords.incrementAndGet();
+        // Every power of two, so a stalled disk doesn't flood the log as well
+        if (Long.bitCount(dropped) == 1) {
+            logger.warn("Chat log queue in {} is full, {} records dropped so far", directory, dropped);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        while (true) {
+            boolean wasClosed = closed;
+            Record record;
+            while ((record = pending.poll()) != null) {
+                try {
+                    write(record);
+                } catch (IOException | RuntimeException e) {
+                    // The record is lost, the following ones are still appended
+                    logger.warn("Failed to append {} to the chat log in {}", record, directory, e);
+                }
+            }
+            long now = System.nanoTime();
+            if (dirty && (wasClosed || now - lastSync >= syncIntervalNanos)) {
+                segment.force();
+                dirty = false;
+                lastSync = now;
+            }
+            if (wasClosed) return;
+            LockSupport.parkNanos(this, syncIntervalNanos);
+        }
+    }
+
+    private void write(Record record) throws IOException {
+        byte[] name = record.name.getBytes(CharsetUtil.UTF_8);
+        int bodyLength = BODY_HEADER_LENGTH + name.length + record.data.length;
+        int frameLength = FRAME_HEADER_LENGTH + bodyLength;
+        if (frameLength > segmentSize)
+            throw new IOException("Record of " + frameLength + " bytes doesn't fit a segment");
+        if (segment.remaining() < frameLength) {
+            segment.force();
+            openSegment(segmentIndex + 1, 0);
+        }
+        int start = segment.position();
+        segment.position(start + FRAME_HEADER_LENGTH);
+        segment.put(record.type)
+                .putLong(record.timestamp)
+                .putShort((short) name.length)
+                .put(name)
+                .putInt(record.data.length)
+                .put(record.data);
+        int checksum = checksum(segment, start + FRAME_HEADER_LENGTH, bodyLength);
+        // The length is written last, so a torn record is never taken for a valid one
+        segment.putInt(start + 4, checksum);
+        segment.putInt(start, bodyLength);
+        dirty = true;
+    }
+
+    private int replay(MappedByteBuffer buffer, ChatRooms chatRooms,
+                       ChatHistory chatHistory, SessionRegistry sessionRegistry) {
+        while (buffer.remaining() >= FRAME_HEADER_LENGTH) {
+            int start = buffer.position();
+            int bodyLength = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (bodyLength < BODY_HEADER_LENGTH || bodyLength > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            if (checksum(buffer, buffer.position(), bodyLength) != checksum) {
+                buffer.position(start);
+                break;
+            }
+            byte type = buffer.get();
+            long timestamp = buffer.getLong();
+            byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            byte[] data = new byte[buffer.getInt()];
+            buffer.get(data);
+            String nameString = new String(name, CharsetUtil.UTF_8);
+            if (type == MESSAGE) {
+                chatHistory.get(nameString).append(data, timestamp);
+            } else if (type == ASSIGNMENT) {
+                sessionRegistry.restore(nameString, new String(data, CharsetUtil.UTF_8));
+            } else if (type == ROOM) {
+                chatRooms.restore(nameString, data.length > 0 ? new String(data, CharsetUtil.UTF_8) : null);
+            } else if (type == ROOM_REMOVED) {
+                chatRooms.restoreRemoval(nameString);
+            }
+        }
+        return buffer.position();
+    }
+
+    private int checksum(ByteBuffer buffer, int index, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(index + length).position(index);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private void openSegment(long index, int position) throws IOException {
+        segmentIndex = index;
+        segment = map(new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX)));
+        segment.position(position);
+    }
+
+    /**
+     * Maps the whole segment. Existing segments keep the size they were created with.
+     */
+    private MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long size = raf.length() > 0 ? raf.length() : segmentSize;
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private File[] listSegments() {
+        File[] segments = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (segments == null) return new File[0];
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private static long segmentIndex(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Record {
+        final byte type;
+        final long timestamp;
+        final String name;
+        final byte[] data;
+
+        Record(byte type, long timestamp, String name, byte[] data) {
+            this.type = type;
+            this.timestamp = timestamp;
+            this.name = name;
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{" +
+                    "type=" + type +
+                    ", name='" + name + '\'' +
+                    ", timestamp=" + timestamp +
+                    ", dataLength=" + data.length +
+                    '}';
+        }
+    }
+}
@@ -1,7 +1,16 @@
 package com.nettytut.server;
 
+import com.nettytut.auth.Authenticator;
 import com.nettytut.initializer.ChatServerInitializer;
-import com.nettytut.model.User;
+import com.nettytut.metrics.ChatMetrics;
+import com.nettytut.metrics.MetricsHttpServer;
+import com.nettytut.model.ChatHistory;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import com.nettytut.persistence.MappedChatLog;
+import com.nettytut.transport.ServerConfig;
+import com.nettytut.transport.ServerOptions;
+import com.nettytut.transport.TransportFactory;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
@@ -9,45 +18,160 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.ImmediateEventExecutor;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 public class ChatServer {
     private final ChannelGroup channelGroup =
             new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
-    private final Map<String, ChannelGroup> channelGroups = new ConcurrentHashMap<>();
-    private final Map<User, String> userChatChannelMap = new ConcurrentHashMap<>();
-    private final EventLoopGroup group = new NioEventLoopGroup();
+    private final SessionRegistry sessionRegistry = new SessionRegistry();
+    private final ChatHistory chatHistory = new ChatHistory();
+    private final TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+    private final ServerConfig config = ServerConfig.fromSystemProperties();
+    private final EventLoopGroup bossGroup = config.newBossGroup(transportFactory);
+    private final EventLoopGroup workerGroup = config.newWorkerGroup(transportFactory);
+    /* Null if the handlers run on the worker event loops */
+    private final EventExecutorGroup businessGroup = config.newBusinessGroup();
+    /* Serves the metrics, so a scrape never delays accepting or chat I/O; null if they aren't served */
+    private EventLoopGroup metricsGroup;
+    /* Rooms are pinned to worker event loops, the ones their members do I/O on */
+    private final ChatRooms chatRooms = new ChatRooms(workerGroup, chatHistory, sessionRegistry);
+    private final ChatMetrics metrics = new ChatMetrics(chatRooms, sessionRegistry);
+    /* Hashes passwords on its own threads, off the event loops */
+    private final Authenticator authenticator =
+            Authenticator.fromSystemProperties(sessionRegistry.getCredentialStore());
     private Channel channel;
+    private MappedChatLog chatLog;
 
     public ChannelFuture start(InetSocketAddress address) {
+        return start(address, null);
+    }
+
+    /**
+     * Starts accepting text lines on the address and,
+     * if binaryAddress isn't null, binary protocol commands on binaryAddress.
+     */
+    public ChannelFuture start(InetSocketAddress address, InetSocketAddress binaryAddress) {
         initChannelGroups();
+        initChatLog();
+        initMetrics();
+        Set<Integer> binaryPorts = binaryAddress != null
+                ? Collections.singleton(binaryAddress.getPort())
+                : Collections.<Integer>emptySet();
         ServerBootstrap bootstrap = new ServerBootstrap();
-        bootstrap.group(group)
-                .channel(NioServerSocketChannel.class)
+        transportFactory.configure(bootstrap.group(bossGroup, workerGroup));
+        ServerOptions.fromSystemProperties().apply(bootstrap)
                 //.childHandler(createInitializer(channelGroup));
-                .childHandler(createInitializer(channelGroups, userChatChannelMap));
-        ChannelFuture future = bootstrap.bind(address);
-        future.syncUninterruptibly();
+                .childHandler(createInitializer(chatRooms, sessionRegistry, binaryPorts, businessGroup, metrics, authenticator));
+        List<ChannelFuture> futures = transportFactory.bind(bootstrap, address);
+        if(binaryAddress != null) {
+            futures.addAll(transportFactory.bind(bootstrap, binaryAddress));
+        }
+        // Server channels are kept in the group to be closed together
+        for(ChannelFuture bound : futures) {
+            channelGroup.add(bound.channel());
+        }
+        ChannelFuture future = futures.get(0);
         channel = future.channel();
         return future;
     }
 
+    /**
+     * Accepts connections of another protocol on the address, e.g. WebSocket clients.
+     * They share the event loops and the chat state of the server.
+     */
+    public ChannelFuture bind(InetSocketAddress address, ChannelInitializer<Channel> initializer) {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        transportFactory.configure(bootstrap.group(bossGroup, workerGroup));
+        ServerOptions.fromSystemProperties().apply(bootstrap)
+                .childHandler(initializer);
+        List<ChannelFuture> futures = transportFactory.bind(bootstrap, address);
+        for(ChannelFuture bound : futures) {
+            channelGroup.add(bound.channel());
+        }
+        return futures.get(0);
+    }
+
+    public ChatRooms getChatRooms() {
+        return chatRooms;
+    }
+
+    public SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    public ChatMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * @return null if the handlers run on the worker event loops
+     */
+    public EventExecutorGroup getBusinessGroup() {
+        return businessGroup;
+    }
+
     protected void initChannelGroups() {
-        channelGroups.put("zepto", new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE));
-        channelGroups.put("test", new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE));
+        chatRooms.create("zepto");
+        chatRooms.create("test");
+        chatRooms.scheduleExpiry();
+    }
+
+    /**
+     * Restores chat state from the log in -Dchat.log.dir if it is set
+     * and keeps appending to it.
+     */
+    protected void initChatLog() {
+        String directory = System.getProperty("chat.log.dir");
+        if(directory == null) return;
+        chatLog = new MappedChatLog(new File(directory));
+        try {
+            chatLog.recover(chatRooms, chatHistory, sessionRegistry);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to recover chat log from " + directory, e);
+        }
+        chatRooms.setJournal(chatLog);
+        chatHistory.setJournal(chatLog);
+        sessionRegistry.setJournal(chatLog);
+        chatLog.start();
+    }
+
+    /**
+     * Probes the worker event loops and, if -Dchat.metrics.port is set,
+     * serves the metrics on http://host:port/metrics in the Prometheus format
+     * from an event loop of its own.
+     */
+    protected void initMetrics() {
+        metrics.getEventLoopProbe().start(workerGroup);
+        Integer port = Integer.getInteger("chat.metrics.port");
+        if(port == null) return;
+        metricsGroup = transportFactory.newEventLoopGroup(1, new DefaultThreadFactory("metrics"));
+        ChannelFuture future = new MetricsHttpServer(metrics)
+                .start(metricsGroup, transportFactory, new InetSocketAddress(port));
+        channelGroup.add(future.channel());
     }
 
     protected ChannelInitializer<Channel> createInitializer(
-            Map<String, ChannelGroup> group,
-            Map<User, String> userChatChannelMap) {
-        return new ChatServerInitializer(group, userChatChannelMap);
+            ChatRooms chatRooms,
+            SessionRegistry sessionRegistry,
+            Set<Integer> binaryPorts,
+            EventExecutorGroup businessGroup,
+            ChatMetrics metrics,
+            Authenticator authenticator) {
+        return new ChatServerInitializer(chatRooms, sessionRegistry, binaryPorts, businessGroup, metrics,
+                authenticator);
     }
 
     public void destroy() {
@@ -55,18 +179,31 @@ public class ChatServer {
             channel.close();
         }
         channelGroup.close();
-        group.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        if(metricsGroup != null) {
+            metricsGroup.shutdownGracefully();
+        }
+        if(businessGroup != null) {
+            businessGroup.shutdownGracefully();
+        }
+        authenticator.shutdown();
+        if(chatLog != null) {
+            chatLog.close();
+        }
     }
 
     public static void main(String[] args) throws Exception {
-        if(args.length != 1) {
-            System.err.println("Please give port as argument");
+        if(args.length < 1 || args.length > 2) {
+            System.err.println("Please give port and optionally binary protocol port as arguments");
             System.exit(1);
         }
         int port = Integer.parseInt(args[0]);
+        InetSocketAddress binaryAddress = args.length == 2
+                ? new InetSocketAddress(Integer.parseInt(args[1])) : null;
         final ChatServer endpoint = new ChatServer();
         ChannelFuture future = endpoint.start(
-                new InetSocketAddress(port));
+                new InetSocketAddress(port), binaryAddress);
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
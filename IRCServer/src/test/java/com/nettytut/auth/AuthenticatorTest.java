@@ -0,0 +1,142 @@
+package com.nettytut.auth;
+
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the pool and the cache of verified passwords of Authenticator.
+ */
+public class AuthenticatorTest
+    extends TestCase
+{
+    public AuthenticatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( AuthenticatorTest.class );
+    }
+
+    public void testVerifiedPasswordIsCached() throws Exception
+    {
+        CountingStore store = new CountingStore();
+        Authenticator authenticator = newAuthenticator(store, 1, 10);
+        assertEquals(CredentialStore.Result.REGISTERED, authenticate(authenticator, "auth-cached", "secret"));
+        assertEquals(CredentialStore.Result.VERIFIED, authenticate(authenticator, "auth-cached", "secret"));
+        assertEquals(1, store.calls);
+        // A wrong password is never answered from the cache
+        assertEquals(CredentialStore.Result.REJECTED, authenticate(authenticator, "auth-cached", "other"));
+        assertEquals(2, store.calls);
+        authenticator.shutdown();
+    }
+
+    public void testExpiredPasswordIsRemoved() throws Exception
+    {
+        CountingStore store = new CountingStore();
+        Authenticator authenticator = new Authenticator(store, ImmediateExecutor.INSTANCE, 1, TimeUnit.MILLISECONDS);
+        assertEquals(CredentialStore.Result.REGISTERED, authenticate(authenticator, "auth-expired", "secret"));
+        assertEquals(1, authenticator.getCacheSize());
+        Thread.sleep(5);
+        // The expired entry is dropped and the store verifies the password again
+        assertEquals(CredentialStore.Result.VERIFIED, authenticate(authenticator, "auth-expired", "secret"));
+        assertEquals(2, store.calls);
+        assertEquals(1, authenticator.getCacheSize());
+    }
+
+    public void testFullCacheSweepsExpiredPasswords() throws Exception
+    {
+        CountingStore store = new CountingStore();
+        Authenticator authenticator = new Authenticator(store, ImmediateExecutor.INSTANCE, 1, TimeUnit.MILLISECONDS, 2);
+        authenticate(authenticator, "auth-full1", "p");
+        authenticate(authenticator, "auth-full2", "p");
+        assertEquals(2, authenticator.getCacheSize());
+        Thread.sleep(5);
+        // Neither login comes back, the next one sweeps both of them
+        authenticate(authenticator, "auth-full3", "p");
+        assertEquals(1, authenticator.getCacheSize());
+    }
+
+    public void testFullCacheStopsCaching() throws Exception
+    {
+        CountingStore store = new CountingStore();
+        Authenticator authenticator = new Authenticator(store, ImmediateExecutor.INSTANCE, 1, TimeUnit.MINUTES, 1);
+        authenticate(authenticator, "auth-cap1", "p");
+        authenticate(authenticator, "auth-cap2", "p");
+        assertEquals(1, authenticator.getCacheSize());
+        assertEquals(CredentialStore.Result.VERIFIED, authenticate(authenticator, "auth-cap2", "p"));
+        assertEquals(3, store.calls);
+        assertEquals(CredentialStore.Result.VERIFIED, authenticate(authenticator, "auth-cap1", "p"));
+        assertEquals(3, store.calls);
+    }
+
+    public void testFullQueueFailsAsBusy() throws Exception
+    {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        CredentialStore store = new CredentialStore(1) {
+            @Override
+            public Result authenticate(String login, String password) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.authenticate(login, password);
+            }
+        };
+        Authenticator authenticator = newAuthenticator(store, 1, 1);
+        Future<CredentialStore.Result> running = authenticator.authenticate("auth-busy1", "p", ImmediateEventExecutor.INSTANCE);
+        // Wait until the first one has left the queue
+        Thread.sleep(100);
+        Future<CredentialStore.Result> queued = authenticator.authenticate("auth-busy2", "p", ImmediateEventExecutor.INSTANCE);
+        Future<CredentialStore.Result> rejected = authenticator.authenticate("auth-busy3", "p", ImmediateEventExecutor.INSTANCE);
+        assertTrue(rejected.isDone());
+        assertTrue(rejected.cause() instanceof RejectedExecutionException);
+        blocked.countDown();
+        assertEquals(CredentialStore.Result.REGISTERED, running.get(5, TimeUnit.SECONDS));
+        assertEquals(CredentialStore.Result.REGISTERED, queued.get(5, TimeUnit.SECONDS));
+        authenticator.shutdown();
+    }
+
+    private static Authenticator newAuthenticator(CredentialStore store, int threads, int queueSize)
+    {
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize));
+        return new Authenticator(store, executor, 1, TimeUnit.MINUTES);
+    }
+
+    private static CredentialStore.Result authenticate(Authenticator authenticator, String login, String password)
+            throws Exception
+    {
+        return authenticator.authenticate(login, password, ImmediateEventExecutor.INSTANCE).get(5, TimeUnit.SECONDS);
+    }
+
+    private static class CountingStore extends CredentialStore
+    {
+        volatile int calls;
+
+        CountingStore()
+        {
+            super(1);
+        }
+
+        @Override
+        public Result authenticate(String login, String password)
+        {
+            calls++;
+            return super.authenticate(login, password);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.nettytut.auth;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests registration and verification of passwords in CredentialStore.
+ */
+public class CredentialStoreTest
+    extends TestCase
+{
+    public CredentialStoreTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CredentialStoreTest.class );
+    }
+
+    public void testFirstSignInRegistersPassword()
+    {
+        CredentialStore store = new CredentialStore(10);
+        assertFalse(store.isRegistered("store-first"));
+        assertEquals(CredentialStore.Result.REGISTERED, store.authenticate("store-first", "secret"));
+        assertTrue(store.isRegistered("store-first"));
+        assertEquals(CredentialStore.Result.VERIFIED, store.authenticate("store-first", "secret"));
+    }
+
+    public void testWrongPasswordIsRejected()
+    {
+        CredentialStore store = new CredentialStore(10);
+        store.authenticate("store-wrong", "secret");
+        assertEquals(CredentialStore.Result.REJECTED, store.authenticate("store-wrong", "Secret"));
+        assertEquals(CredentialStore.Result.REJECTED, store.authenticate("store-wrong", ""));
+    }
+
+    public void testStoresAreIndependent()
+    {
+        CredentialStore first = new CredentialStore(10);
+        CredentialStore second = new CredentialStore(10);
+        first.authenticate("store-shared", "one");
+        assertEquals(CredentialStore.Result.REGISTERED, second.authenticate("store-shared", "two"));
+        assertEquals(CredentialStore.Result.REJECTED, first.authenticate("store-shared", "two"));
+    }
+}
@@ -0,0 +1,95 @@
+package com.nettytut.broadcast;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests that a broadcast encodes the message once, prefixes it with "[you]" only
+ * for the sender, flushes every member once and releases all of its buffers.
+ */
+public class ChatMessageBroadcasterTest
+    extends TestCase
+{
+    public ChatMessageBroadcasterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ChatMessageBroadcasterTest.class );
+    }
+
+    public void testMessageIsEncodedOnceAndYouGoesToSender()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        FlushCounter[] flushes = new FlushCounter[3];
+        EmbeddedChannel[] members = new EmbeddedChannel[flushes.length];
+        for (int i = 0; i < members.length; i++) {
+            flushes[i] = new FlushCounter();
+            members[i] = new EmbeddedChannel(flushes[i]);
+            group.add(members[i]);
+        }
+        EmbeddedChannel sender = members[0];
+        sender.config().setAllocator(new UnpooledByteBufAllocator(false));
+
+        ChatMessageBroadcaster.broadcast(group, sender, "alice", "hi");
+
+        ByteBuf own = (ByteBuf) sender.readOutbound();
+        assertEquals("[you] hi\r\n", own.toString(CharsetUtil.UTF_8));
+        assertNull(sender.readOutbound());
+        ByteBuf first = (ByteBuf) members[1].readOutbound();
+        ByteBuf second = (ByteBuf) members[2].readOutbound();
+        assertEquals("[alice] hi\r\n", first.toString(CharsetUtil.UTF_8));
+        assertEquals("[alice] hi\r\n", second.toString(CharsetUtil.UTF_8));
+        // Both members got a duplicate of one encoded buffer
+        ByteBuf encoded = first.unwrap();
+        assertSame(encoded, second.unwrap());
+        for (FlushCounter flush : flushes) {
+            assertEquals(1, flush.count);
+        }
+
+        own.release();
+        first.release();
+        second.release();
+        assertEquals(0, encoded.refCnt());
+        for (EmbeddedChannel member : members) {
+            assertFalse(member.finish());
+        }
+    }
+
+    public void testAnnouncementHasNoYou()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel member = new EmbeddedChannel();
+        group.add(member);
+        ChatMessageBroadcaster.announce(group, UnpooledByteBufAllocator.DEFAULT, "alice joined");
+        ByteBuf line = (ByteBuf) member.readOutbound();
+        assertEquals("alice joined\r\n", line.toString(CharsetUtil.UTF_8));
+        line.release();
+        assertEquals(0, line.refCnt());
+        assertFalse(member.finish());
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter
+    {
+        int count;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception
+        {
+            count++;
+            super.flush(ctx);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.nettytut.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests decoding of the binary chat protocol, including frames which are split,
+ * truncated or malformed.
+ */
+public class BinaryCommandDecoderTest
+    extends TestCase
+{
+    private static final int MAX_FRAME_LENGTH = 64;
+
+    public BinaryCommandDecoderTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BinaryCommandDecoderTest.class );
+    }
+
+    public void testDecodesFrameSplitAcrossReads()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        ByteBuf frame = frame(ChatOpcode.LOGIN, "alice", "secret");
+        while (frame.readableBytes() > 1) {
+            assertFalse(ch.writeInbound(frame.readBytes(1)));
+        }
+        assertTrue(ch.writeInbound(frame));
+        ChatCommand command = (ChatCommand) ch.readInbound();
+        assertEquals(ChatOpcode.LOGIN, command.opcode());
+        assertEquals(2, command.argCount());
+        assertEquals("alice", command.argAsString(0));
+        assertEquals("secret", command.argAsString(1));
+        command.recycle();
+        assertFalse(ch.finish());
+    }
+
+    public void testDecodesSeveralFramesOfOneRead()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        ch.writeInbound(Unpooled.wrappedBuffer(
+                frame(ChatOpcode.JOIN, "zepto"), frame(ChatOpcode.USERS), frame(ChatOpcode.MESSAGE, "hi")));
+        ChatCommand join = (ChatCommand) ch.readInbound();
+        assertEquals("zepto", join.argAsString(0));
+        join.recycle();
+        ChatCommand users = (ChatCommand) ch.readInbound();
+        assertEquals(ChatOpcode.USERS, users.opcode());
+        assertEquals(0, users.argCount());
+        users.recycle();
+        ChatCommand message = (ChatCommand) ch.readInbound();
+        assertEquals("hi", message.argAsString(0));
+        message.recycle();
+        assertFalse(ch.finish());
+    }
+
+    public void testWaitsForTruncatedVarint()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(1024));
+        // The frame length of 200 takes two bytes
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 197) text.append('x');
+        ByteBuf frame = frame(ChatOpcode.MESSAGE, text.toString());
+        assertEquals(0xC8, frame.getUnsignedByte(0));
+        assertFalse(ch.writeInbound(frame.readBytes(1)));
+        assertTrue(ch.writeInbound(frame));
+        ChatCommand command = (ChatCommand) ch.readInbound();
+        assertEquals(text.toString(), command.argAsString(0));
+        command.recycle();
+        assertFalse(ch.finish());
+    }
+
+    public void testRejectsTooLongFrame()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        ByteBuf frame = Unpooled.buffer();
+        writeVarint(frame, MAX_FRAME_LENGTH + 1);
+        try {
+            ch.writeInbound(frame);
+            fail();
+        } catch (TooLongFrameException expected) {
+        }
+        assertFalse(ch.finish());
+    }
+
+    public void testRejectsMalformedVarint()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        // Five bytes with the continuation bit don't fit into 32 bits
+        try {
+            ch.writeInbound(Unpooled.wrappedBuffer(new byte[] {-1, -1, -1, -1, -1, 1}));
+            fail();
+        } catch (CorruptedFrameException expected) {
+        }
+        assertFalse(ch.finish());
+    }
+
+    public void testRejectsArgumentLongerThanFrame()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeByte(4).writeByte(ChatOpcode.JOIN.code()).writeByte(10).writeByte('a').writeByte('b');
+        try {
+            ch.writeInbound(frame);
+            fail();
+        } catch (CorruptedFrameException expected) {
+        }
+        // The decoder skipped the broken frame
+        assertEquals(0, frame.refCnt());
+        ch.writeInbound(frame(ChatOpcode.BYE));
+        ChatCommand bye = (ChatCommand) ch.readInbound();
+        assertEquals(ChatOpcode.BYE, bye.opcode());
+        bye.recycle();
+        assertFalse(ch.finish());
+    }
+
+    public void testRejectsUnknownOpcode()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        try {
+            ch.writeInbound(Unpooled.wrappedBuffer(new byte[] {1, 100}));
+            fail();
+        } catch (CorruptedFrameException expected) {
+        }
+        assertFalse(ch.finish());
+    }
+
+    public void testRecycledCommandStartsEmpty()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new BinaryCommandDecoder(MAX_FRAME_LENGTH));
+        ch.writeInbound(frame(ChatOpcode.LOGIN, "alice", "secret"));
+        ChatCommand login = (ChatCommand) ch.readInbound();
+        login.recycle();
+        ch.writeInbound(frame(ChatOpcode.JOIN, "test"));
+        ChatCommand join = (ChatCommand) ch.readInbound();
+        // Pooled on this thread, so the recycled instance is handed out again
+        assertSame(login, join);
+        assertEquals(ChatOpcode.JOIN, join.opcode());
+        assertEquals(1, join.argCount());
+        assertEquals("test", join.argAsString(0));
+        try {
+            join.argAsString(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        join.recycle();
+        assertFalse(ch.finish());
+    }
+
+    private static ByteBuf frame(ChatOpcode opcode, String... args)
+    {
+        ByteBuf body = Unpooled.buffer();
+        body.writeByte(opcode.code());
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(CharsetUtil.UTF_8);
+            writeVarint(body, bytes.length);
+            body.writeBytes(bytes);
+        }
+        ByteBuf frame = Unpooled.buffer();
+        writeVarint(frame, body.readableBytes());
+        frame.writeBytes(body);
+        body.release();
+        return frame;
+    }
+
+    private static void writeVarint(ByteBuf out, int value)
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
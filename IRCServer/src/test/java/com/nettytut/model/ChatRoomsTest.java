@@ -0,0 +1,186 @@
+package com.nettytut.model;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests creation, limits and expiry of chat rooms.
+ */
+public class ChatRoomsTest
+    extends TestCase
+{
+    private static final long TTL = 100;
+
+    private EmbeddedChannel loop;
+    private SessionRegistry sessionRegistry;
+    private ChatHistory chatHistory;
+
+    public ChatRoomsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ChatRoomsTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        loop = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        sessionRegistry = new SessionRegistry();
+        chatHistory = new ChatHistory(10);
+    }
+
+    public void testWrongNamesAreRejected()
+    {
+        ChatRooms chatRooms = newChatRooms(10, 10);
+        StringBuilder tooLong = new StringBuilder();
+        while (tooLong.length() <= ChatRooms.MAX_NAME_LENGTH) tooLong.append('r');
+        for (String name : new String[] {"", SessionRegistry.EMPTY_CHAT_CHANNEL_NAME, "two words", "tab\t",
+                tooLong.toString()}) {
+            try {
+                chatRooms.create(name, "rooms-alice");
+                fail(name);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(0, chatRooms.size());
+        assertEquals(SymbolTable.NO_ID, SymbolTable.ROOMS.lookup(tooLong.toString()));
+    }
+
+    public void testDuplicateIsNotCreated()
+    {
+        ChatRooms chatRooms = newChatRooms(10, 10);
+        ChatRoom room = chatRooms.create("rooms-dup", "rooms-alice");
+        assertNotNull(room);
+        assertEquals("rooms-alice", room.getCreator());
+        assertNull(chatRooms.create("rooms-dup", "rooms-bob"));
+        assertNull(chatRooms.create("rooms-dup"));
+        assertSame(room, chatRooms.get("rooms-dup"));
+        assertSame(room, chatRooms.get(room.getId()));
+        assertEquals(1, chatRooms.size());
+        assertEquals(1, chatRooms.getAll().size());
+    }
+
+    public void testRoomsArePinnedToEventLoopsInTurn()
+    {
+        EventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            ChatRooms chatRooms = new ChatRooms(group, chatHistory);
+            EventLoop first = chatRooms.create("rooms-pin1").getEventLoop();
+            EventLoop second = chatRooms.create("rooms-pin2").getEventLoop();
+            assertNotSame(first, second);
+            assertSame(first, chatRooms.create("rooms-pin3").getEventLoop());
+            // A room keeps its loop
+            assertSame(first, chatRooms.get("rooms-pin1").getEventLoop());
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    public void testCreationIsLimitedPerUserAndInTotal()
+    {
+        ChatRooms chatRooms = newChatRooms(3, 2);
+        chatRooms.create("rooms-limit1", "rooms-alice");
+        chatRooms.create("rooms-limit2", "rooms-alice");
+        try {
+            chatRooms.create("rooms-limit3", "rooms-alice");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertNotNull(chatRooms.create("rooms-limit3", "rooms-bob"));
+        try {
+            chatRooms.create("rooms-limit4", "rooms-carol");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        // Rejected names aren't interned
+        assertEquals(SymbolTable.NO_ID, SymbolTable.ROOMS.lookup("rooms-limit4"));
+        assertEquals(3, chatRooms.size());
+        // Rooms of the server aren't limited
+        assertNotNull(chatRooms.create("rooms-limit-server"));
+        assertEquals(4, chatRooms.size());
+    }
+
+    public void testUnusedRoomsOfUsersExpire()
+    {
+        ChatRooms chatRooms = newChatRooms(10, 1);
+        RecordingJournal journal = new RecordingJournal();
+        chatRooms.setJournal(journal);
+        ChatRoom unused = chatRooms.create("rooms-expire-unused", "rooms-alice");
+        unused.getHistory().append("rooms-alice", "old", 0);
+        ChatRoom joined = chatRooms.create("rooms-expire-joined", "rooms-bob");
+        EmbeddedChannel member = new EmbeddedChannel();
+        assertTrue(joined.join(member, "rooms-bob"));
+        ChatRoom saved = chatRooms.create("rooms-expire-saved", "rooms-carol");
+        UserSession session = sessionRegistry.register(new User("rooms-carol"));
+        assertTrue(sessionRegistry.assign(session, saved.getId(), 10));
+        ChatRoom server = chatRooms.create("rooms-expire-server");
+
+        assertEquals(0, chatRooms.expireUnusedRooms(1000));
+        assertEquals(0, chatRooms.expireUnusedRooms(1000 + TTL - 1));
+        assertEquals(1, chatRooms.expireUnusedRooms(1000 + TTL));
+        assertNull(chatRooms.get("rooms-expire-unused"));
+        assertFalse(chatRooms.getAll().contains(unused));
+        assertSame(joined, chatRooms.get("rooms-expire-joined"));
+        assertSame(saved, chatRooms.get("rooms-expire-saved"));
+        assertSame(server, chatRooms.get("rooms-expire-server"));
+        assertEquals("rooms-expire-unused", journal.removed);
+        // A removed room can't be joined
+        assertFalse(unused.join(new EmbeddedChannel(), "rooms-dave"));
+
+        // The creator may create again, the new room starts without the old messages
+        ChatRoom recreated = chatRooms.create("rooms-expire-unused", "rooms-alice");
+        assertEquals(unused.getId(), recreated.getId());
+        assertEquals(0, recreated.getHistory().getLastSequence());
+
+        // Rooms which were used meanwhile start over
+        member.close();
+        sessionRegistry.release(session);
+        assertEquals(0, chatRooms.expireUnusedRooms(2000));
+        assertEquals(3, chatRooms.expireUnusedRooms(2000 + TTL));
+        assertEquals(1, chatRooms.size());
+    }
+
+    private ChatRooms newChatRooms(int maxRooms, int maxRoomsPerUser)
+    {
+        return new ChatRooms(loop.eventLoop(), chatHistory, sessionRegistry, maxRooms, maxRoomsPerUser,
+                TTL, TimeUnit.NANOSECONDS);
+    }
+
+    private static class RecordingJournal implements ChatJournal
+    {
+        String removed;
+
+        @Override
+        public void messageAppended(String chatChannelName, long timestamp, byte[] encoded)
+        {
+        }
+
+        @Override
+        public void userAssigned(String login, String chatChannelName)
+        {
+        }
+
+        @Override
+        public void roomCreated(String chatChannelName, String creator)
+        {
+        }
+
+        @Override
+        public void roomRemoved(String chatChannelName)
+        {
+            removed = chatChannelName;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.nettytut.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the ring buffer of MessageHistory, alone and with readers replaying
+ * while the writer appends.
+ */
+public class MessageHistoryTest
+    extends TestCase
+{
+    public MessageHistoryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MessageHistoryTest.class );
+    }
+
+    public void testOldestMessagesAreOverwrittenAtCapacity()
+    {
+        MessageHistory history = new MessageHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, history.append("a", "m" + i, 0));
+        }
+        assertEquals(5, history.getLastSequence());
+        assertEquals("3) [a]m3\r\n4) [a]m4\r\n5) [a]m5\r\n", replay(history, 0));
+    }
+
+    public void testReplaysNewerMessagesInOrder()
+    {
+        MessageHistory history = new MessageHistory(10);
+        assertEquals("", replay(history, 0));
+        for (int i = 1; i <= 4; i++) history.append("a", "m" + i, 0);
+        assertEquals("3) [a]m3\r\n4) [a]m4\r\n", replay(history, 2));
+        assertEquals("", replay(history, 4));
+        // A client may have missed nothing but be ahead after a restart
+        assertEquals("", replay(history, 100));
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n3) [a]m3\r\n4) [a]m4\r\n", replay(history, -5));
+    }
+
+    public void testReplaySinceMaxValueWritesNothing()
+    {
+        MessageHistory history = new MessageHistory(3);
+        history.append("a", "m1", 0);
+        assertEquals("", replay(history, Long.MAX_VALUE));
+        assertEquals("1) [a]m1\r\n", replay(history, Long.MIN_VALUE));
+    }
+
+    public void testReadersSeeOrderedMessagesWhileWriterAppends() throws Exception
+    {
+        final int messages = 20000;
+        final MessageHistory history = new MessageHistory(16);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    while (done.getCount() > 0 && failure.get() == null) {
+                        String error = check(replay(history, 0));
+                        if (error != null) failure.compareAndSet(null, error);
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        // The room's event loop is the only writer
+        for (int i = 1; i <= messages; i++) history.append("a", "m" + i, 0);
+        done.countDown();
+        for (Thread reader : readers) reader.join();
+        assertNull(failure.get(), failure.get());
+        assertEquals(messages, history.getLastSequence());
+        assertNull(check(replay(history, 0)));
+    }
+
+    /**
+     * @return what is wrong with the replayed lines or null if their sequences increase
+     * and each one has its own message
+     */
+    private static String check(String replayed)
+    {
+        long previous = 0;
+        for (String line : replayed.split("\r\n")) {
+            if (line.isEmpty()) continue;
+            int delimiter = line.indexOf(") [a]m");
+            if (delimiter < 0) return "Malformed line " + line;
+            long sequence = Long.parseLong(line.substring(0, delimiter));
+            if (sequence <= previous) return "Out of order " + replayed;
+            if (!line.substring(delimiter + 6).equals(Long.toString(sequence))) return "Wrong message " + line;
+            previous = sequence;
+        }
+        return null;
+    }
+
+    private static String replay(MessageHistory history, long since)
+    {
+        ByteBuf out = Unpooled.buffer();
+        history.replaySince(since, out);
+        String replayed = out.toString(CharsetUtil.UTF_8);
+        out.release();
+        return replayed;
+    }
+}
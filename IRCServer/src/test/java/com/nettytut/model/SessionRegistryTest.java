@@ -0,0 +1,154 @@
+package com.nettytut.model;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress tests for chat channel capacity in SessionRegistry.
+ */
+public class SessionRegistryTest
+    extends TestCase
+{
+    private static final int THREADS = 32;
+
+    public SessionRegistryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SessionRegistryTest.class );
+    }
+
+    public void testConcurrentJoinsNeverExceedCapacity() throws Exception
+    {
+        for (int capacity : new int[] {1, 2, 10}) {
+            final SessionRegistry registry = new SessionRegistry();
+            final AtomicInteger joined = new AtomicInteger();
+            runConcurrently(THREADS, new Task() {
+                public void run(int thread) {
+                    UserSession session = registry.register(new User("user" + thread));
+                    if (registry.assign(session, "zepto", capacity)) joined.incrementAndGet();
+                }
+            });
+            assertEquals(capacity, joined.get());
+            assertEquals(capacity, registry.getMemberCount("zepto"));
+        }
+    }
+
+    public void testJoinAndLeaveChurnNeverExceedsCapacity() throws Exception
+    {
+        final int capacity = 3;
+        final SessionRegistry registry = new SessionRegistry();
+        final AtomicInteger inChannel = new AtomicInteger();
+        final AtomicInteger maxInChannel = new AtomicInteger();
+        runConcurrently(THREADS, new Task() {
+            public void run(int thread) {
+                UserSession session = registry.register(new User("user" + thread));
+                for (int i = 0; i < 20000; i++) {
+                    if (!registry.assign(session, "zepto", capacity)) continue;
+                    int current = inChannel.incrementAndGet();
+                    int max;
+                    while (current > (max = maxInChannel.get())
+                            && !maxInChannel.compareAndSet(max, current)) { }
+                    inChannel.decrementAndGet();
+                    registry.release(session);
+                }
+            }
+        });
+        assertTrue("capacity exceeded: " + maxInChannel.get(), maxInChannel.get() <= capacity);
+        assertEquals(0, registry.getMemberCount("zepto"));
+    }
+
+    public void testMovingBetweenChannelsKeepsCountsConsistent() throws Exception
+    {
+        final int capacity = THREADS;
+        final SessionRegistry registry = new SessionRegistry();
+        runConcurrently(THREADS, new Task() {
+            public void run(int thread) {
+                UserSession session = registry.register(new User("user" + thread));
+                for (int i = 0; i < 10000; i++) {
+                    registry.assign(session, (i & 1) == 0 ? "zepto" : "test", capacity);
+                }
+                registry.assign(session, "zepto", capacity);
+            }
+        });
+        assertEquals(THREADS, registry.getMemberCount("zepto"));
+        assertEquals(0, registry.getMemberCount("test"));
+    }
+
+    public void testFullChannelDoesNotAffectOtherChannels()
+    {
+        SessionRegistry registry = new SessionRegistry();
+        UserSession first = registry.register(new User("first"));
+        UserSession second = registry.register(new User("second"));
+        assertTrue(registry.assign(first, "zepto", 1));
+        assertFalse(registry.assign(second, "zepto", 1));
+        assertTrue(registry.assign(second, "test", 1));
+        assertEquals("test", second.getChatChannelName());
+
+        registry.release(first);
+        assertEquals(0, registry.getMemberCount("zepto"));
+        assertFalse(first.isInChatChannel());
+    }
+
+    public void testSignInClaimsLoginOnce()
+    {
+        SessionRegistry registry = new SessionRegistry();
+        assertTrue(registry.signIn("user"));
+        assertFalse(registry.signIn("user"));
+        registry.signOut("user");
+        assertTrue(registry.signIn("user"));
+    }
+
+    public void testUnauthenticatedLoginIsNotInterned()
+    {
+        SessionRegistry registry = new SessionRegistry();
+        String login = "guessed-" + System.nanoTime();
+        assertTrue(registry.signIn(login));
+        assertTrue(registry.isOnline(login));
+        assertEquals(1, registry.getOnlineCount());
+        // The password was rejected
+        registry.signOut(login);
+        assertFalse(registry.isOnline(login));
+        assertEquals(0, registry.getOnlineCount());
+        assertEquals(SymbolTable.NO_ID, SymbolTable.LOGINS.lookup(login));
+    }
+
+    private interface Task {
+        void run(int thread);
+    }
+
+    private static void runConcurrently(int threads, final Task task) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run(thread);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        failures.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+    }
+}
@@ -0,0 +1,189 @@
+package com.nettytut.persistence;
+
+import com.nettytut.model.ChatHistory;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the chat log recovers the records before a torn or corrupted one
+ * and appends in its place, within a segment and across segments.
+ */
+public class MappedChatLogTest
+    extends TestCase
+{
+    private static final String ROOM = "zepto";
+    /* Frame header, body header, room name and "[a]mN" */
+    private static final int RECORD_LENGTH = 8 + 15 + 5 + 5;
+
+    private File directory;
+
+    public MappedChatLogTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MappedChatLogTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = File.createTempFile("chat-log", "");
+        assertTrue(directory.delete());
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testRecoversUpToCorruptedRecord() throws Exception
+    {
+        append(4096, "m1", "m2", "m3");
+        // Flip a byte of the last message, its checksum doesn't match anymore
+        corrupt(segment(0), 2 * RECORD_LENGTH + RECORD_LENGTH - 1);
+
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n", recover(4096));
+        // The next record takes the place of the corrupted one
+        append(4096, "m4");
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n3) [a]m4\r\n", recover(4096));
+    }
+
+    public void testRecoversAcrossSegments() throws Exception
+    {
+        // Three records fit a segment
+        int segmentSize = 3 * RECORD_LENGTH + 1;
+        append(segmentSize, "m1", "m2", "m3", "m4", "m5", "m6", "m7");
+        assertTrue(segment(2).isFile());
+        // The last record is torn: its length is written, its body isn't complete
+        tear(segment(2), 0);
+
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n3) [a]m3\r\n4) [a]m4\r\n5) [a]m5\r\n6) [a]m6\r\n",
+                recover(segmentSize));
+        // The torn segment is filled up again before the next one is started
+        append(segmentSize, "m8", "m9", "m10", "m11");
+        assertTrue(segment(3).isFile());
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n3) [a]m3\r\n4) [a]m4\r\n5) [a]m5\r\n6) [a]m6\r\n"
+                + "7) [a]m8\r\n8) [a]m9\r\n9) [a]m10\r\n10) [a]m11\r\n", recover(segmentSize));
+    }
+
+    public void testFullQueueDropsRecords() throws Exception
+    {
+        MappedChatLog log = new MappedChatLog(directory, 4096, 1, 2);
+        ChatHistory history = new ChatHistory(100);
+        log.recover(new ChatRooms(null, history), history, new SessionRegistry());
+        // The writer isn't started, as if the disk stalled
+        for (String message : new String[] {"m1", "m2", "m3", "m4"}) {
+            log.messageAppended(ROOM, 1L, ("[a]" + message).getBytes(CharsetUtil.UTF_8));
+        }
+        assertEquals(2, log.getDroppedRecords());
+        log.start();
+        log.close();
+        assertEquals("1) [a]m1\r\n2) [a]m2\r\n", recover(4096));
+    }
+
+    public void testReplaysCreatedAndRemovedRooms() throws Exception
+    {
+        MappedChatLog log = new MappedChatLog(directory, 4096, 1);
+        ChatHistory history = new ChatHistory(100);
+        log.recover(new ChatRooms(null, history), history, new SessionRegistry());
+        log.start();
+        log.roomCreated("log-server", null);
+        log.roomCreated("log-removed", "log-alice");
+        log.roomRemoved("log-removed");
+        log.roomCreated("log-kept", "log-alice");
+        log.close();
+
+        EmbeddedChannel loop = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        history = new ChatHistory(100);
+        ChatRooms chatRooms = new ChatRooms(loop.eventLoop(), history, null, 10, 1, 1, TimeUnit.MINUTES);
+        log = new MappedChatLog(directory, 4096, 1);
+        log.recover(chatRooms, history, new SessionRegistry());
+        log.close();
+        assertNull(chatRooms.get("log-server").getCreator());
+        assertNull(chatRooms.get("log-removed"));
+        assertEquals("log-alice", chatRooms.get("log-kept").getCreator());
+        assertEquals(2, chatRooms.size());
+        // The recovered room counts against the limit of its creator
+        try {
+            chatRooms.create("log-another", "log-alice");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    /**
+     * Recovers the log and appends the messages after its last valid record.
+     */
+    private void append(int segmentSize, String... messages) throws IOException
+    {
+        MappedChatLog log = new MappedChatLog(directory, segmentSize, 1);
+        ChatHistory history = new ChatHistory(100);
+        log.recover(new ChatRooms(null, history), history, new SessionRegistry());
+        log.start();
+        for (String message : messages) {
+            log.messageAppended(ROOM, 1L, ("[a]" + message).getBytes(CharsetUtil.UTF_8));
+        }
+        log.close();
+    }
+
+    /**
+     * @return the recovered messages of the room
+     */
+    private String recover(int segmentSize) throws IOException
+    {
+        MappedChatLog log = new MappedChatLog(directory, segmentSize, 1);
+        ChatHistory history = new ChatHistory(100);
+        log.recover(new ChatRooms(null, history), history, new SessionRegistry());
+        log.close();
+        ByteBuf out = Unpooled.buffer();
+        history.get(ROOM).replaySince(0, out);
+        String messages = out.toString(CharsetUtil.UTF_8);
+        out.release();
+        return messages;
+    }
+
+    private File segment(long index)
+    {
+        return new File(directory, String.format("segment-%020d.log", index));
+    }
+
+    private static void corrupt(File segment, long position) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0xFF);
+        }
+    }
+
+    private static void tear(File segment, long recordPosition) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            // Keep the length, lose the second half of the body
+            raf.seek(recordPosition + RECORD_LENGTH / 2);
+            raf.write(new byte[RECORD_LENGTH - RECORD_LENGTH / 2]);
+        }
+    }
+}
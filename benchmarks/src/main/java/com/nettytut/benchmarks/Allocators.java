@@ -0,0 +1,31 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.transport.BufferAllocators;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Allocators compared by the allocation benchmarks.
+ */
+final class Allocators {
+    /* Netty 4.0 default, a new heap buffer for every read and message */
+    static final String UNPOOLED_HEAP = "unpooled-heap";
+    static final String POOLED_HEAP = "pooled-heap";
+    static final String POOLED_DIRECT = "pooled-direct";
+
+    private Allocators() {
+    }
+
+    static ByteBufAllocator get(String name) {
+        switch (name) {
+            case UNPOOLED_HEAP:
+                return new UnpooledByteBufAllocator(false);
+            case POOLED_HEAP:
+                return BufferAllocators.POOLED_HEAP;
+            case POOLED_DIRECT:
+                return BufferAllocators.POOLED_DIRECT;
+            default:
+                throw new IllegalArgumentException("Unknown allocator " + name);
+        }
+    }
+}
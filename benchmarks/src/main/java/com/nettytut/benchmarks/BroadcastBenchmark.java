@@ -0,0 +1,61 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.model.ChatRoom;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A chat message read by the handler, appended to the history and delivered
+ * to every member, against the room size.
+ * <pre>java -jar benchmarks/target/benchmarks.jar BroadcastBenchmark</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    @Param({"2", "10", "100", "1000"})
+    public int roomSize;
+
+    private EmbeddedChannel sender;
+    private EmbeddedChannel[] listeners;
+
+    @Setup
+    public void setUp() {
+        ChatFixture fixture = new ChatFixture(10);
+        ChatRoom room = fixture.chatRooms.create("zepto");
+        sender = fixture.join("sender", "zepto");
+        // The handler lets two users in, the rest of the room is added directly
+        listeners = new EmbeddedChannel[roomSize - 1];
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i] = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+            room.getMembers().add(listeners[i]);
+        }
+        ChatFixture.drain(sender);
+    }
+
+    @Benchmark
+    public int broadcast() {
+        sender.writeInbound("Hello everybody, how are you doing today?");
+        int delivered = ChatFixture.drain(sender);
+        for (EmbeddedChannel listener : listeners) {
+            delivered += ChatFixture.drain(listener);
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,84 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.broadcast.ChatMessageBroadcaster;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat workload: a message is broadcast to every member of a chat channel
+ * and each member's write is released as the transport would after flushing it.
+ * Run with the GC profiler to compare allocation rates of the allocators:
+ * <pre>java -jar benchmarks/target/benchmarks.jar ChatAllocation -prof gc</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ChatAllocationBenchmark {
+    private static final String MESSAGE = "Hello everybody, how are you doing today?";
+
+    @Param({Allocators.UNPOOLED_HEAP, Allocators.POOLED_HEAP, Allocators.POOLED_DIRECT})
+    public String allocator;
+
+    @Param({"2", "100"})
+    public int members;
+
+    private ChannelGroup group;
+    private EmbeddedChannel[] channels;
+
+    @Setup
+    public void setUp() {
+        ByteBufAllocator alloc = Allocators.get(allocator);
+        group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        channels = new EmbeddedChannel[members];
+        for (int i = 0; i < members; i++) {
+            channels[i] = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+            channels[i].config().setAllocator(alloc);
+            group.add(channels[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EmbeddedChannel channel : channels) {
+            channel.finish();
+        }
+    }
+
+    @Benchmark
+    public int broadcast() {
+        Channel sender = channels[0];
+        ChatMessageBroadcaster.broadcast(group, sender, "sender", MESSAGE);
+        int written = 0;
+        for (EmbeddedChannel channel : channels) {
+            Object msg;
+            while ((msg = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(msg);
+                written++;
+            }
+        }
+        return written;
+    }
+}
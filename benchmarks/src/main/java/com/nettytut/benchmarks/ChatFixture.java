@@ -0,0 +1,77 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.auth.Authenticator;
+import com.nettytut.auth.CredentialStore;
+import com.nettytut.handlers.TelnetServerHandler;
+import com.nettytut.metrics.ChatMetrics;
+import com.nettytut.model.ChatHistory;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.ImmediateExecutor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat server state driven through embedded channels.
+ * Embedded event loops run tasks in the calling thread, so rooms pinned to one
+ * of them broadcast synchronously and every benchmark op includes the whole fan-out.
+ * <p>
+ * Passwords are hashed with a single PBKDF2 iteration, else every login would
+ * measure the key stretching and not the server. As in the server, all connections
+ * share the metrics and the authenticator.
+ */
+final class ChatFixture {
+    final SessionRegistry sessionRegistry = new SessionRegistry(new CredentialStore(1));
+    final ChatHistory chatHistory;
+    final ChatRooms chatRooms;
+    final ChatMetrics metrics;
+    final Authenticator authenticator;
+
+    ChatFixture(int historyDepth) {
+        chatHistory = new ChatHistory(historyDepth);
+        chatRooms = new ChatRooms(new EmbeddedChannel(new ChannelInboundHandlerAdapter()).eventLoop(), chatHistory);
+        metrics = new ChatMetrics(chatRooms, sessionRegistry);
+        authenticator = new Authenticator(sessionRegistry.getCredentialStore(), ImmediateExecutor.INSTANCE,
+                0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Opens a connection to the chat server.
+     */
+    EmbeddedChannel connect() {
+        EmbeddedChannel ch = new EmbeddedChannel(new TelnetServerHandler(chatRooms, sessionRegistry, metrics, authenticator));
+        drain(ch);
+        return ch;
+    }
+
+    EmbeddedChannel signIn(String login) {
+        EmbeddedChannel ch = connect();
+        ch.writeInbound("login " + login + " pwd");
+        drain(ch);
+        return ch;
+    }
+
+    EmbeddedChannel join(String login, String chatChannelName) {
+        EmbeddedChannel ch = signIn(login);
+        ch.writeInbound("join " + chatChannelName);
+        drain(ch);
+        return ch;
+    }
+
+    /**
+     * Releases everything written to the channel as the transport would.
+     * @return the number of messages written
+     */
+    static int drain(EmbeddedChannel ch) {
+        int messages = 0;
+        Object msg;
+        while ((msg = ch.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            messages++;
+        }
+        return messages;
+    }
+}
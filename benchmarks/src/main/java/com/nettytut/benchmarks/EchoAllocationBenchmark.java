@@ -0,0 +1,84 @@
+package com.nettytut.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Echo workload: every read is copied into a buffer of the channel allocator,
+ * echoed and released after the write. Run with the GC profiler to compare
+ * allocation rates of the allocators:
+ * <pre>java -jar benchmarks/target/benchmarks.jar EchoAllocation -prof gc</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EchoAllocationBenchmark {
+    @Param({Allocators.UNPOOLED_HEAP, Allocators.POOLED_HEAP, Allocators.POOLED_DIRECT})
+    public String allocator;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private EmbeddedChannel channel;
+    private byte[] payload;
+
+    @ChannelHandler.Sharable
+    private static final class EchoHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        channel = new EmbeddedChannel(new EchoHandler());
+        channel.config().setAllocator(Allocators.get(allocator));
+        payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+    }
+
+    @Benchmark
+    public int echo() {
+        // What the transport does on a read
+        ByteBuf read = channel.alloc().ioBuffer(payloadSize);
+        read.writeBytes(payload);
+        channel.writeInbound(read);
+        Object echoed = channel.readOutbound();
+        int size = ((ByteBuf) echoed).readableBytes();
+        ReferenceCountUtil.release(echoed);
+        return size;
+    }
+}
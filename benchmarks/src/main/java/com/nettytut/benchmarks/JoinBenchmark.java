@@ -0,0 +1,63 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.model.ChatRoom;
+import com.nettytut.model.UserSession;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins to a room with a free place and capacity checks rejecting joins to a full room.
+ * <pre>java -jar benchmarks/target/benchmarks.jar JoinBenchmark</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JoinBenchmark {
+    private ChatFixture fixture;
+    private ChatRoom freeRoom;
+    private EmbeddedChannel joining;
+    private UserSession joiningSession;
+    private EmbeddedChannel rejected;
+
+    @Setup
+    public void setUp() {
+        fixture = new ChatFixture(10);
+        fixture.chatRooms.create("full");
+        freeRoom = fixture.chatRooms.create("free");
+        // The handler's capacity is two members
+        fixture.join("first", "full");
+        fixture.join("second", "full");
+        rejected = fixture.signIn("rejected");
+        joining = fixture.signIn("joining");
+        joiningSession = fixture.sessionRegistry.getSession("joining");
+    }
+
+    @Benchmark
+    public int joinFullRoom() {
+        rejected.writeInbound("join full");
+        return ChatFixture.drain(rejected);
+    }
+
+    @Benchmark
+    public int joinFreeRoom() {
+        joining.writeInbound("join free");
+        // Leave again for the next op
+        fixture.sessionRegistry.release(joiningSession);
+        freeRoom.getMembers().remove(joining);
+        return ChatFixture.drain(joining);
+    }
+}
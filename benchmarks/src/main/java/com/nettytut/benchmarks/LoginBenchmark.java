@@ -0,0 +1,56 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.model.User;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connect, login of a registered user and disconnect, against the number
+ * of registered users. Lookups are expected to stay flat as users grow.
+ * <pre>java -jar benchmarks/target/benchmarks.jar LoginBenchmark</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoginBenchmark {
+    @Param({"100", "10000", "100000"})
+    public int users;
+
+    private ChatFixture fixture;
+    private String[] logins;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        fixture = new ChatFixture(10);
+        logins = new String[users];
+        for (int i = 0; i < users; i++) {
+            logins[i] = "login user" + i + " pwd";
+            fixture.sessionRegistry.register(new User("user" + i));
+        }
+    }
+
+    @Benchmark
+    public int login() {
+        EmbeddedChannel ch = fixture.connect();
+        ch.writeInbound(logins[next]);
+        next = next + 1 == users ? 0 : next + 1;
+        ch.close();
+        return ChatFixture.drain(ch);
+    }
+}
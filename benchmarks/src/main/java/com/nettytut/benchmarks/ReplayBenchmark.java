@@ -0,0 +1,51 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.model.ChatRoom;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay of the whole room history to a member, against the history depth.
+ * <pre>java -jar benchmarks/target/benchmarks.jar ReplayBenchmark</pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    @Param({"10", "100", "1000"})
+    public int historyDepth;
+
+    private EmbeddedChannel member;
+
+    @Setup
+    public void setUp() {
+        ChatFixture fixture = new ChatFixture(historyDepth);
+        ChatRoom room = fixture.chatRooms.create("zepto");
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < historyDepth; i++) {
+            room.getHistory().append("user" + (i % 10), "Message number " + i + " of the chat history", timestamp + i);
+        }
+        member = fixture.join("member", "zepto");
+    }
+
+    @Benchmark
+    public int replay() {
+        member.writeInbound("replay 0");
+        return ChatFixture.drain(member);
+    }
+}
@@ -0,0 +1,115 @@
+package com.nettytut.benchmarks;
+
+import com.nettytut.websocket.FrameBroadcaster;
+import com.nettytut.websocket.PerMessageDeflate;
+import com.nettytut.websocket.PerMessageDeflateCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JSON chat message broadcast to WebSocket members: uncompressed, deflated by
+ * every member with its own window, or deflated once and shared. The time is the
+ * CPU of a broadcast, encoding included; the bytes every member was sent are
+ * printed after the run.
+ * <pre>java -jar benchmarks/target/benchmarks.jar WebSocketDeflate</pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WebSocketDeflateBenchmark {
+    private static final String[] USERS = {"alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi"};
+    private static final String[] WORDS = ("hello everybody how are you doing today did anyone see the release notes "
+            + "for new version I am heading out lunch back in an hour build is green again thanks quick fix can someone "
+            + "review my pull request when have minute meeting moved to three same room as last week").split(" ");
+
+    @Param({"none", "per-connection", "shared"})
+    public String compression;
+
+    @Param({"10", "100"})
+    public int members;
+
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+    /* More than fit in the deflate window, so messages don't repeat within it */
+    private final String[] messages = new String[4096];
+    private EmbeddedChannel[] channels;
+    private ChannelGroup group;
+    private FrameBroadcaster broadcaster;
+    private int next;
+    private long broadcasts;
+    private long wireBytes;
+
+    @Setup
+    public void setUp() {
+        PerMessageDeflate deflate = compression.equals("none") ? PerMessageDeflate.DISABLED
+                : new PerMessageDeflate(true, compression.equals("shared"), 6, 64);
+        PerMessageDeflate.Parameters parameters = deflate.negotiate("permessage-deflate; client_max_window_bits");
+        group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        channels = new EmbeddedChannel[members];
+        for (int i = 0; i < members; i++) {
+            channels[i] = parameters == null
+                    ? new EmbeddedChannel(new WebSocket13FrameEncoder(false))
+                    : new EmbeddedChannel(new WebSocket13FrameEncoder(false),
+                            new PerMessageDeflateCodec(deflate, parameters, 65536));
+            channels[i].attr(PerMessageDeflate.PARAMETERS).set(parameters);
+            group.add(channels[i]);
+        }
+        broadcaster = new FrameBroadcaster(group, deflate);
+        Random random = new Random(42);
+        for (int i = 0; i < messages.length; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int words = 6 + random.nextInt(8); words > 0; words--) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(words > 1 ? " " : "");
+            }
+            messages[i] = "{\"type\":\"message\",\"room\":\"zepto\",\"user\":\"" + USERS[random.nextInt(USERS.length)]
+                    + "\",\"time\":" + (1700000000000L + i * 1371L) + ",\"text\":\"" + text + "\"}";
+        }
+    }
+
+    @Benchmark
+    public long broadcast() {
+        broadcaster.broadcast(new TextWebSocketFrame(messages[next++ & (messages.length - 1)]), alloc);
+        long bytes = 0;
+        for (EmbeddedChannel channel : channels) {
+            for (Object out; (out = channel.readOutbound()) != null; ) {
+                ByteBuf buf = (ByteBuf) out;
+                bytes += buf.readableBytes();
+                buf.release();
+            }
+        }
+        broadcasts++;
+        wireBytes += bytes;
+        return bytes;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%s, %d members: %.1f bytes on the wire per member and broadcast%n",
+                compression, members, wireBytes / (double) broadcasts / members);
+        group.close();
+    }
+}
@@ -0,0 +1,52 @@
+package com.nettytut.idle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When a connection counts as idle. Reader idle means the peer has sent nothing,
+ * which is taken as dead; writer idle means nothing was sent to the peer,
+ * which is when a keepalive is due. Zero disables a timeout.
+ * <p>
+ * Configured with system properties {@code <prefix>.readerSeconds} and
+ * {@code <prefix>.writerSeconds}, e.g. {@code chat.idle.readerSeconds}.
+ */
+public final class IdlePolicy {
+    public static final IdlePolicy NONE = new IdlePolicy(0, 0, TimeUnit.SECONDS);
+
+    private final long readerIdleNanos;
+    private final long writerIdleNanos;
+
+    public IdlePolicy(long readerIdle, long writerIdle, TimeUnit unit) {
+        if (readerIdle < 0) throw new IllegalArgumentException("readerIdle: " + readerIdle);
+        if (writerIdle < 0) throw new IllegalArgumentException("writerIdle: " + writerIdle);
+        this.readerIdleNanos = unit.toNanos(readerIdle);
+        this.writerIdleNanos = unit.toNanos(writerIdle);
+    }
+
+    public static IdlePolicy fromSystemProperties(String prefix, long readerSeconds, long writerSeconds) {
+        return new IdlePolicy(
+                Long.getLong(prefix + ".readerSeconds", readerSeconds),
+                Long.getLong(prefix + ".writerSeconds", writerSeconds),
+                TimeUnit.SECONDS);
+    }
+
+    public long getReaderIdleNanos() {
+        return readerIdleNanos;
+    }
+
+    public long getWriterIdleNanos() {
+        return writerIdleNanos;
+    }
+
+    public boolean isEnabled() {
+        return readerIdleNanos > 0 || writerIdleNanos > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "IdlePolicy{" +
+                "readerIdleSeconds=" + TimeUnit.NANOSECONDS.toSeconds(readerIdleNanos) +
+                ", writerIdleSeconds=" + TimeUnit.NANOSECONDS.toSeconds(writerIdleNanos) +
+                '}';
+    }
+}
@@ -0,0 +1,154 @@
+package com.nettytut.idle;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires {@link IdleStateEvent}s like Netty's IdleStateHandler, but its timeouts
+ * live on one shared {@link HashedWheelTimer} instead of the event loops' scheduled
+ * task queues: adding a timeout is O(1) and reads and writes only store a timestamp,
+ * so the cost stays flat with the number of connections.
+ * A connection has one timeout at a time, which is renewed when it expires.
+ * <p>
+ * Reader idle events are fired once per idle period, the next one only after
+ * the peer has been silent for another period; writer idle events likewise.
+ * <p>
+ * One instance per connection, it should be first in the pipeline to see socket reads and writes.
+ */
+public class WheelIdleStateHandler extends ChannelDuplexHandler {
+    /* The precision of idle timeouts doesn't need to be better than a tick */
+    private static final Timer SHARED_TIMER = new HashedWheelTimer(
+            new DefaultThreadFactory("idle-timer", true), 100, TimeUnit.MILLISECONDS, 1024);
+    private static final long MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final IdlePolicy policy;
+    private final Timer timer;
+    /* Written on the event loop only */
+    private long lastReadTime;
+    private long lastWriteTime;
+    private boolean firstReaderIdle = true;
+    private boolean firstWriterIdle = true;
+    private ChannelHandlerContext ctx;
+    private volatile Timeout timeout;
+    private volatile boolean stopped;
+
+    private final TimerTask expireTask = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+            // Idle state is owned by the event loop
+            if (!stopped) ctx.executor().execute(checkTask);
+        }
+    };
+    private final Runnable checkTask = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    public WheelIdleStateHandler(IdlePolicy policy) {
+        this(policy, SHARED_TIMER);
+    }
+
+    public WheelIdleStateHandler(IdlePolicy policy, Timer timer) {
+        this.policy = policy;
+        this.timer = timer;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        if (ctx.channel().isActive() && ctx.channel().isRegistered()) start();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        start();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        stop();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        stop();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        lastReadTime = System.nanoTime();
+        firstReaderIdle = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        lastWriteTime = System.nanoTime();
+        firstWriterIdle = true;
+        ctx.write(msg, promise);
+    }
+
+    private void start() {
+        if (timeout != null || stopped || !policy.isEnabled()) return;
+        lastReadTime = lastWriteTime = System.nanoTime();
+        schedule(nextDelay(lastReadTime));
+    }
+
+    private void stop() {
+        stopped = true;
+        Timeout current = timeout;
+        if (current != null) current.cancel();
+    }
+
+    private void check() {
+        if (stopped || !ctx.channel().isOpen()) return;
+        long now = System.nanoTime();
+        long readerIdle = policy.getReaderIdleNanos();
+        long writerIdle = policy.getWriterIdleNanos();
+        if (readerIdle > 0 && now - lastReadTime >= readerIdle) {
+            IdleStateEvent event = firstReaderIdle
+                    ? IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT : IdleStateEvent.READER_IDLE_STATE_EVENT;
+            firstReaderIdle = false;
+            lastReadTime = now;
+            ctx.fireUserEventTriggered(event);
+        }
+        if (writerIdle > 0 && now - lastWriteTime >= writerIdle) {
+            IdleStateEvent event = firstWriterIdle
+                    ? IdleStateEvent.FIRST_WRITER_IDLE_STATE_EVENT : IdleStateEvent.WRITER_IDLE_STATE_EVENT;
+            firstWriterIdle = false;
+            lastWriteTime = now;
+            ctx.fireUserEventTriggered(event);
+        }
+        schedule(nextDelay(now));
+    }
+
+    /**
+     * @return nanos until the earliest of the reader and writer deadlines
+     */
+    private long nextDelay(long now) {
+        long delay = Long.MAX_VALUE;
+        if (policy.getReaderIdleNanos() > 0)
+            delay = Math.min(delay, lastReadTime + policy.getReaderIdleNanos() - now);
+        if (policy.getWriterIdleNanos() > 0)
+            delay = Math.min(delay, lastWriteTime + policy.getWriterIdleNanos() - now);
+        return Math.max(delay, MIN_DELAY_NANOS);
+    }
+
+    private void schedule(long delayNanos) {
+        if (stopped) return;
+        timeout = timer.newTimeout(expireTask, delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
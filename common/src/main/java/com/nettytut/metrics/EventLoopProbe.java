@@ -0,0 +1,43 @@
+package com.nettytut.metrics;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long tasks wait in the event loops of a group. Every interval
+ * a probe task is scheduled on each event loop and the delay between its due
+ * time and its start is recorded. A busy or blocked loop shows up as a growing delay.
+ */
+public class EventLoopProbe {
+    private final LatencyHistogram delays = new LatencyHistogram();
+    private final long intervalNanos;
+
+    public EventLoopProbe(long interval, TimeUnit unit) {
+        this.intervalNanos = unit.toNanos(interval);
+    }
+
+    public void start(EventExecutorGroup group) {
+        for (EventExecutor executor : group) {
+            schedule(executor);
+        }
+    }
+
+    private void schedule(final EventExecutor executor) {
+        if (executor.isShuttingDown()) return;
+        final long due = System.nanoTime() + intervalNanos;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                delays.record(System.nanoTime() - due);
+                schedule(executor);
+            }
+        }, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Delays of probe tasks in nanoseconds */
+    public LatencyHistogram getDelays() {
+        return delays;
+    }
+}
@@ -0,0 +1,140 @@
+package com.nettytut.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values, e.g. latencies in nanoseconds.
+ * Like HdrHistogram, values are counted in buckets whose width grows with the value:
+ * every power of two is split into 64 buckets, so a percentile is reported with
+ * an error below 1.6% whatever its magnitude. Recording is one atomic increment
+ * and can be done from any number of threads.
+ */
+public class LatencyHistogram {
+    /* Values below 2^SUB_BUCKET_BITS have a bucket each */
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (Long.SIZE - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * @return the highest recorded value, as the upper bound of its bucket
+     */
+    public long getMax() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) return highestValueOf(i);
+        }
+        return 0;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the value which the percentile of recorded values doesn't exceed,
+     * as the upper bound of its bucket, or 0 if nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long count = 0;
+        for (long c : snapshot) count += c;
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return highestValueOf(i);
+        }
+        return getMax();
+    }
+
+    /**
+     * Counts the recorded values up to each bound, from one snapshot so the counts are consistent.
+     * A bucket which straddles a bound is counted above it, which moves the bound by at most 1.6%.
+     * @param upperBounds ascending
+     * @return at i the number of values at or below {@code upperBounds[i]},
+     * at {@code upperBounds.length} the number of all values
+     */
+    public long[] getCumulativeCounts(long[] upperBounds) {
+        long[] snapshot = snapshot();
+        long[] cumulative = new long[upperBounds.length + 1];
+        int bound = 0;
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            while (bound < upperBounds.length && highestValueOf(i) > upperBounds[bound]) {
+                cumulative[bound++] = seen;
+            }
+            seen += snapshot[i];
+        }
+        while (bound < upperBounds.length) cumulative[bound++] = seen;
+        cumulative[upperBounds.length] = seen;
+        return cumulative;
+    }
+
+    /**
+     * Adds the counts of the other histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        totalCount.add(other.getCount());
+        sum.add(other.getSum());
+    }
+
+    /**
+     * Clears the histogram. Values recorded concurrently may be lost or kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        totalCount.reset();
+        sum.reset();
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) snapshot[i] = counts.get(i);
+        return snapshot;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) return (int) value;
+        // value >>> shift is in [64, 128)
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) return bucket;
+        int shift = (bucket - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (bucket - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        long highest = ((subBucket + 1) << shift) - 1;
+        // The last bucket reaches past Long.MAX_VALUE
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
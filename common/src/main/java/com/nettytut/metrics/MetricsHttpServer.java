@@ -0,0 +1,103 @@
+package com.nettytut.metrics;
+
+import com.nettytut.transport.TransportFactory;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+
+import java.net.SocketAddress;
+
+/**
+ * Small HTTP endpoint which serves the metrics of a source on GET /metrics
+ * in the Prometheus text format.
+ */
+public class MetricsHttpServer {
+    public static final String PATH = "/metrics";
+
+    private final MetricsSource source;
+
+    public MetricsHttpServer(MetricsSource source) {
+        this.source = source;
+    }
+
+    public ChannelFuture start(EventLoopGroup group, TransportFactory transportFactory, SocketAddress address) {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        final MetricsHandler handler = new MetricsHandler();
+        transportFactory.configure(bootstrap.group(group))
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new HttpServerCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(8192));
+                        ch.pipeline().addLast(handler);
+                    }
+                });
+        return bootstrap.bind(address).syncUninterruptibly();
+    }
+
+    /**
+     * Renders the metrics of the source.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        source.writeMetrics(new PrometheusWriter(sb));
+        return sb.toString();
+    }
+
+    @ChannelHandler.Sharable
+    private final class MetricsHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            FullHttpResponse response;
+            String path = request.getUri();
+            int query = path.indexOf('?');
+            if (query >= 0) path = path.substring(0, query);
+            if (!PATH.equals(path)) {
+                response = response(HttpResponseStatus.NOT_FOUND, "Not found\n");
+            } else if (request.getMethod() != HttpMethod.GET) {
+                response = response(HttpResponseStatus.METHOD_NOT_ALLOWED, "Only GET is allowed\n");
+            } else {
+                response = response(HttpResponseStatus.OK, scrape());
+            }
+            boolean keepAlive = HttpHeaders.isKeepAlive(request);
+            if (keepAlive) {
+                response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        private FullHttpResponse response(HttpResponseStatus status, String body) {
+            ByteBuf content = Unpooled.copiedBuffer(body, CharsetUtil.UTF_8);
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, content);
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, PrometheusWriter.CONTENT_TYPE);
+            HttpHeaders.setContentLength(response, content.readableBytes());
+            return response;
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            cause.printStackTrace();
+            ctx.close();
+        }
+    }
+}
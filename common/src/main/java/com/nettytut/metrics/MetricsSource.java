@@ -0,0 +1,11 @@
+package com.nettytut.metrics;
+
+/**
+ * Something whose metrics are exposed on a scrape.
+ */
+public interface MetricsSource {
+    /**
+     * Writes the current values. Called on an event loop of the metrics endpoint.
+     */
+    void writeMetrics(PrometheusWriter out);
+}
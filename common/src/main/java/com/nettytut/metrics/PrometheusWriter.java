@@ -0,0 +1,87 @@
+package com.nettytut.metrics;
+
+import java.util.Locale;
+
+/**
+ * Writes metrics in the Prometheus text exposition format, version 0.0.4.
+ */
+public class PrometheusWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final StringBuilder out;
+
+    public PrometheusWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Starts a metric family; its samples follow.
+     */
+    public PrometheusWriter header(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter sample(String name, double value) {
+        return sample(name, null, null, value);
+    }
+
+    public PrometheusWriter sample(String name, String label, String labelValue, double value) {
+        out.append(name);
+        if (label != null) {
+            out.append('{').append(label).append("=\"");
+            escape(labelValue);
+            out.append("\"}");
+        }
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    public PrometheusWriter counter(String name, String help, long value) {
+        return header(name, "counter", help).sample(name, value);
+    }
+
+    public PrometheusWriter gauge(String name, String help, double value) {
+        return header(name, "gauge", help).sample(name, value);
+    }
+
+    /**
+     * Writes the histogram as cumulative buckets. Unlike quantiles computed here,
+     * which would cover everything since startup, Prometheus computes quantiles
+     * over any window from the rate of the buckets, e.g. with histogram_quantile.
+     * @param upperBounds bounds of the buckets in reported units, ascending
+     * @param scale multiplies recorded values, e.g. 1e-9 to report nanoseconds as seconds
+     */
+    public PrometheusWriter histogram(String name, String help, LatencyHistogram histogram,
+                                      double[] upperBounds, double scale) {
+        header(name, "histogram", help);
+        long[] recordedBounds = new long[upperBounds.length];
+        for (int i = 0; i < upperBounds.length; i++) {
+            recordedBounds[i] = (long) Math.floor(upperBounds[i] / scale + 1e-6);
+        }
+        long[] cumulative = histogram.getCumulativeCounts(recordedBounds);
+        for (int i = 0; i < upperBounds.length; i++) {
+            sample(name + "_bucket", "le", format(upperBounds[i]), cumulative[i]);
+        }
+        sample(name + "_bucket", "le", "+Inf", cumulative[upperBounds.length]);
+        sample(name + "_sum", histogram.getSum() * scale);
+        sample(name + "_count", cumulative[upperBounds.length]);
+        return this;
+    }
+
+    private void escape(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') out.append('\\').append(c);
+            else if (c == '\n') out.append("\\n");
+            else out.append(c);
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return String.format(Locale.ROOT, "%.9g", value);
+    }
+}
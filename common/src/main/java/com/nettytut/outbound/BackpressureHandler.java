@@ -0,0 +1,169 @@
+package com.nettytut.outbound;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.MessageSizeEstimator;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a slow connection from buffering outbound messages without limit.
+ * While the channel is writable messages pass through. Once the outbound buffer
+ * is above the high water mark, messages are deferred here and handled by the
+ * {@link SlowConsumerPolicy} of the room the connection is in; deferred messages
+ * are written when the channel turns writable again.
+ * <p>
+ * One instance per connection, only called on the channel's event loop
+ * except for {@link #setPolicy} and {@link #getDeferredBytes}, which metrics read from other threads.
+ */
+public class BackpressureHandler extends ChannelDuplexHandler {
+    /* Coalesced batches stop growing at this size */
+    static final int COALESCE_BATCH_BYTES = 8 * 1024;
+
+    private final ArrayDeque<Deferred> deferred = new ArrayDeque<>();
+    private volatile OutboundPolicy policy;
+    private volatile OutboundStats stats;
+    private MessageSizeEstimator.Handle sizeEstimator;
+    /* Only the event loop writes it, volatile for the metrics which read it */
+    private volatile long deferredBytes;
+    private boolean disconnected;
+
+    public BackpressureHandler(OutboundPolicy policy, OutboundStats stats) {
+        setPolicy(policy, stats);
+    }
+
+    /**
+     * Applies the policy of the room the connection moves to.
+     */
+    public void setPolicy(OutboundPolicy policy, OutboundStats stats) {
+        this.policy = policy;
+        this.stats = stats;
+    }
+
+    /**
+     * Applies the policy to the channel if its pipeline has a backpressure handler.
+     */
+    public static void setPolicy(Channel ch, OutboundPolicy policy, OutboundStats stats) {
+        BackpressureHandler handler = ch.pipeline().get(BackpressureHandler.class);
+        if (handler != null) handler.setPolicy(policy, stats);
+    }
+
+    /** Bytes waiting for the channel to become writable */
+    public long getDeferredBytes() {
+        return deferredBytes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        sizeEstimator = ctx.channel().config().getMessageSizeEstimator().newHandle();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (disconnected || (deferred.isEmpty() && ctx.channel().isWritable())) {
+            ctx.write(msg, promise);
+            return;
+        }
+        OutboundPolicy policy = this.policy;
+        OutboundStats stats = this.stats;
+        int size = sizeEstimator.size(msg);
+        stats.deferred();
+        if (policy.getSlowConsumerPolicy() == SlowConsumerPolicy.COALESCE
+                && msg instanceof ByteBuf && promise == ctx.voidPromise()) {
+            coalesce(ctx, (ByteBuf) msg, size, promise);
+        } else {
+            deferred.add(new Deferred(msg, promise, size, 1, false));
+        }
+        deferredBytes += size;
+        if (deferredBytes <= policy.getMaxLagBytes()) return;
+
+        if (policy.getSlowConsumerPolicy() == SlowConsumerPolicy.DISCONNECT) {
+            disconnected = true;
+            stats.disconnected();
+            releaseDeferred(ctx, new IllegalStateException("Connection lags behind, closed"));
+            ctx.close();
+        } else {
+            while (deferredBytes > policy.getMaxLagBytes() && !deferred.isEmpty()) {
+                Deferred oldest = deferred.poll();
+                deferredBytes -= oldest.size;
+                stats.dropped(oldest.messages);
+                oldest.release(ctx, new IllegalStateException("Message dropped, connection lags behind"));
+            }
+        }
+    }
+
+    private void coalesce(ChannelHandlerContext ctx, ByteBuf msg, int size, ChannelPromise promise) {
+        Deferred last = deferred.peekLast();
+        if (last == null || !last.batch || last.size + size > COALESCE_BATCH_BYTES) {
+            last = new Deferred(ctx.alloc().buffer(Math.min(size, COALESCE_BATCH_BYTES)), promise, 0, 0, true);
+            deferred.add(last);
+        }
+        ((ByteBuf) last.msg).writeBytes(msg, msg.readerIndex(), msg.readableBytes());
+        msg.release();
+        last.size += size;
+        last.messages++;
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) drain(ctx);
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    private void drain(ChannelHandlerContext ctx) {
+        boolean written = false;
+        Deferred next;
+        while (ctx.channel().isWritable() && (next = deferred.poll()) != null) {
+            deferredBytes -= next.size;
+            ctx.write(next.msg, next.promise);
+            written = true;
+        }
+        if (written) ctx.flush();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseDeferred(ctx, new IllegalStateException("Channel closed"));
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseDeferred(ctx, new IllegalStateException("Handler removed"));
+    }
+
+    private void releaseDeferred(ChannelHandlerContext ctx, Throwable cause) {
+        Deferred next;
+        while ((next = deferred.poll()) != null) {
+            next.release(ctx, cause);
+        }
+        deferredBytes = 0;
+    }
+
+    private static final class Deferred {
+        final Object msg;
+        final ChannelPromise promise;
+        /* A batch is a buffer owned by the handler which coalesces messages */
+        final boolean batch;
+        int size;
+        int messages;
+
+        Deferred(Object msg, ChannelPromise promise, int size, int messages, boolean batch) {
+            this.msg = msg;
+            this.promise = promise;
+            this.size = size;
+            this.messages = messages;
+            this.batch = batch;
+        }
+
+        void release(ChannelHandlerContext ctx, Throwable cause) {
+            ReferenceCountUtil.release(msg);
+            // The void promise would fire the failure through the pipeline
+            if (promise != ctx.voidPromise()) promise.tryFailure(cause);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.nettytut.outbound;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Merges consecutive small writes of a connection into one buffer and
+ * flushes at most once per event loop tick. A hot room broadcasts many short
+ * lines to every member; without this each of them is its own write and flush,
+ * i.e. its own syscall and packet.
+ * <p>
+ * Only buffers written with the void promise are merged, as their writers don't
+ * wait for the result. Anything else first writes out the pending batch, so the
+ * order of messages is kept. A batch is written as soon as it would outgrow
+ * {@code maxBatchBytes}, which bounds the memory held per connection.
+ * <p>
+ * One instance per connection.
+ */
+public class CoalescingWriteHandler extends ChannelOutboundHandlerAdapter {
+    public static final String MAX_BATCH_BYTES_PROPERTY = "outbound.maxBatchBytes";
+    public static final int DEFAULT_MAX_BATCH_BYTES = Integer.getInteger(MAX_BATCH_BYTES_PROPERTY, 16 * 1024);
+
+    private final int maxBatchBytes;
+    private ByteBuf batch;
+    /* Readable bytes of the batch, published for the metrics which read it from other threads */
+    private volatile int batchBytes;
+    private boolean flushScheduled;
+    private ChannelHandlerContext ctx;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = false;
+            if (!ctx.channel().isActive()) {
+                releaseBatch();
+                return;
+            }
+            writeBatch(ctx);
+            ctx.flush();
+        }
+    };
+
+    public CoalescingWriteHandler() {
+        this(DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    public CoalescingWriteHandler(int maxBatchBytes) {
+        if (maxBatchBytes <= 0) throw new IllegalArgumentException("maxBatchBytes: " + maxBatchBytes);
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /** Bytes merged but not written yet, read by other threads for metrics only */
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!(msg instanceof ByteBuf) || promise != ctx.voidPromise()) {
+            writeBatch(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        int length = buf.readableBytes();
+        if (batch != null && batch.readableBytes() + length > maxBatchBytes) {
+            writeBatch(ctx);
+        }
+        if (length >= maxBatchBytes) {
+            // Nothing to merge it with, copying would only cost
+            ctx.write(buf, promise);
+            return;
+        }
+        if (batch == null) {
+            batch = ctx.alloc().buffer(Math.min(maxBatchBytes, Math.max(256, length * 4)), maxBatchBytes);
+        }
+        batch.writeBytes(buf, buf.readerIndex(), length);
+        batchBytes = batch.readableBytes();
+        buf.release();
+    }
+
+    /**
+     * Defers the flush to a task, so every write of the current tick gets into it.
+     */
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (flushScheduled) return;
+        flushScheduled = true;
+        ctx.executor().execute(flushTask);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        // Whatever was sent before close is still delivered
+        writeBatch(ctx);
+        ctx.flush();
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseBatch();
+    }
+
+    private void releaseBatch() {
+        if (batch != null) {
+            batch.release();
+            batch = null;
+            batchBytes = 0;
+        }
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx) {
+        if (batch == null) return;
+        ByteBuf pending = batch;
+        batch = null;
+        batchBytes = 0;
+        ctx.write(pending, ctx.voidPromise());
+    }
+}
@@ -0,0 +1,56 @@
+package com.nettytut.outbound;
+
+import java.util.Locale;
+
+/**
+ * Outbound policy of a chat room: what to do with slow members
+ * and how many deferred bytes they may lag behind.
+ * <p>
+ * The default is configured with system properties {@code outbound.policy}
+ * (drop-oldest, coalesce or disconnect) and {@code outbound.maxLagBytes} (256KiB).
+ */
+public final class OutboundPolicy {
+    public static final String POLICY_PROPERTY = "outbound.policy";
+    public static final String MAX_LAG_BYTES_PROPERTY = "outbound.maxLagBytes";
+    public static final int DEFAULT_MAX_LAG_BYTES = 256 * 1024;
+    public static final OutboundPolicy DEFAULT = fromSystemProperties();
+
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final int maxLagBytes;
+
+    public OutboundPolicy(SlowConsumerPolicy slowConsumerPolicy, int maxLagBytes) {
+        if (slowConsumerPolicy == null) throw new NullPointerException("slowConsumerPolicy");
+        if (maxLagBytes < 0) throw new IllegalArgumentException("maxLagBytes: " + maxLagBytes);
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.maxLagBytes = maxLagBytes;
+    }
+
+    public static OutboundPolicy fromSystemProperties() {
+        return new OutboundPolicy(
+                parse(System.getProperty(POLICY_PROPERTY, "drop-oldest")),
+                Integer.getInteger(MAX_LAG_BYTES_PROPERTY, DEFAULT_MAX_LAG_BYTES));
+    }
+
+    /**
+     * Parses names like drop-oldest or DROP_OLDEST.
+     */
+    public static SlowConsumerPolicy parse(String name) {
+        return SlowConsumerPolicy.valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public int getMaxLagBytes() {
+        return maxLagBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundPolicy{" +
+                "slowConsumerPolicy=" + slowConsumerPolicy +
+                ", maxLagBytes=" + maxLagBytes +
+                '}';
+    }
+}
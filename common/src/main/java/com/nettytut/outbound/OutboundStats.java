@@ -0,0 +1,48 @@
+package com.nettytut.outbound;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of slow consumer handling, shared by the connections of a room.
+ */
+public final class OutboundStats {
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    void deferred() {
+        deferred.increment();
+    }
+
+    void dropped(int messages) {
+        dropped.add(messages);
+    }
+
+    void disconnected() {
+        disconnected.increment();
+    }
+
+    /** Messages which waited for the connection to become writable */
+    public long getDeferred() {
+        return deferred.sum();
+    }
+
+    /** Messages which were never sent because the connection lagged too much */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Connections closed because they lagged too much */
+    public long getDisconnected() {
+        return disconnected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "OutboundStats{" +
+                "deferred=" + getDeferred() +
+                ", dropped=" + getDropped() +
+                ", disconnected=" + getDisconnected() +
+                '}';
+    }
+}
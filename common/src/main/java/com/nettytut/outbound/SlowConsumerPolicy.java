@@ -0,0 +1,18 @@
+package com.nettytut.outbound;
+
+/**
+ * What happens to the messages of a connection which doesn't keep up
+ * with its outbound traffic, i.e. stays unwritable above the high water mark.
+ */
+public enum SlowConsumerPolicy {
+    /** Defers messages and drops the oldest ones when the lag threshold is exceeded. */
+    DROP_OLDEST,
+    /**
+     * Copies deferred messages into a few large buffers, so a lagging connection
+     * costs one buffer and one write per batch rather than per message.
+     * The oldest batches are dropped when the lag threshold is exceeded.
+     */
+    COALESCE,
+    /** Defers messages and closes the connection when the lag threshold is exceeded. */
+    DISCONNECT
+}
@@ -0,0 +1,72 @@
+package com.nettytut.transport;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pins every new thread to one of the given CPUs, round robin.
+ * The JVM can't set the affinity itself, so a started thread calls
+ * {@code taskset} on its own Linux thread id. Pinning is best effort:
+ * when it fails the thread keeps running unpinned.
+ */
+public class AffinityThreadFactory extends DefaultThreadFactory {
+    private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+    private static final File DEV_NULL = new File("/dev/null");
+    private static volatile boolean warned;
+
+    private final int[] cpus;
+    private final AtomicInteger nextCpu = new AtomicInteger();
+
+    public AffinityThreadFactory(String poolName, int[] cpus) {
+        super(poolName);
+        if (cpus.length == 0) throw new IllegalArgumentException("No CPUs to pin threads to");
+        this.cpus = cpus.clone();
+    }
+
+    @Override
+    protected Thread newThread(final Runnable r, String name) {
+        final int cpu = cpus[(nextCpu.getAndIncrement() & Integer.MAX_VALUE) % cpus.length];
+        return super.newThread(new Runnable() {
+            @Override
+            public void run() {
+                pin(cpu);
+                r.run();
+            }
+        }, name);
+    }
+
+    /**
+     * Pins the current thread to the CPU.
+     * @return false if the thread couldn't be pinned
+     */
+    public static boolean pin(int cpu) {
+        try {
+            // The link points to <pid>/task/<tid>
+            Path link = Files.readSymbolicLink(THREAD_SELF);
+            String tid = link.getFileName().toString();
+            Process process = new ProcessBuilder("taskset", "-p", "-c", String.valueOf(cpu), tid)
+                    .redirectErrorStream(true)
+                    .redirectOutput(DEV_NULL)
+                    .start();
+            if (process.waitFor() == 0) return true;
+            warn("taskset exited with " + process.exitValue());
+        } catch (IOException | UnsupportedOperationException e) {
+            warn(e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static void warn(String reason) {
+        if (warned) return;
+        warned = true;
+        System.err.println("Unable to pin threads to CPUs, running unpinned: " + reason);
+    }
+}
@@ -0,0 +1,21 @@
+package com.nettytut.transport;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+/**
+ * Pooled allocators shared by all bootstraps of the process,
+ * so every channel takes its buffers from the same arenas.
+ */
+public final class BufferAllocators {
+    /* Pools direct buffers even when Netty wouldn't prefer them by default */
+    public static final ByteBufAllocator POOLED_DIRECT = new PooledByteBufAllocator(true);
+    public static final ByteBufAllocator POOLED_HEAP = new PooledByteBufAllocator(false);
+
+    private BufferAllocators() {
+    }
+
+    public static ByteBufAllocator pooled(boolean preferDirect) {
+        return preferDirect ? POOLED_DIRECT : POOLED_HEAP;
+    }
+}
@@ -0,0 +1,58 @@
+package com.nettytut.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+
+/**
+ * Channel options of client connections.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code netty.allocator.direct} - pooled direct (default) or pooled heap buffers.</li>
+ *     <li>{@code client.tcpNoDelay} - disables Nagle's algorithm, default true.</li>
+ *     <li>{@code client.connectTimeoutMillis} - default 10000.</li>
+ * </ul>
+ */
+public class ClientOptions {
+    public static final String TCP_NO_DELAY_PROPERTY = "client.tcpNoDelay";
+    public static final String CONNECT_TIMEOUT_PROPERTY = "client.connectTimeoutMillis";
+
+    private final boolean preferDirect;
+    private final boolean tcpNoDelay;
+    private final int connectTimeoutMillis;
+
+    public ClientOptions(boolean preferDirect, boolean tcpNoDelay, int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0)
+            throw new IllegalArgumentException("connectTimeoutMillis: " + connectTimeoutMillis);
+        this.preferDirect = preferDirect;
+        this.tcpNoDelay = tcpNoDelay;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public static ClientOptions fromSystemProperties() {
+        return new ClientOptions(
+                Boolean.parseBoolean(System.getProperty(ServerOptions.DIRECT_PROPERTY, "true")),
+                Boolean.parseBoolean(System.getProperty(TCP_NO_DELAY_PROPERTY, "true")),
+                Integer.getInteger(CONNECT_TIMEOUT_PROPERTY, 10000));
+    }
+
+    public Bootstrap apply(Bootstrap bootstrap) {
+        return bootstrap.option(ChannelOption.ALLOCATOR, BufferAllocators.pooled(preferDirect))
+                .option(ChannelOption.RCVBUF_ALLOCATOR, ServerOptions.newRecvByteBufAllocator())
+                .option(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMillis);
+    }
+
+    public boolean isPreferDirect() {
+        return preferDirect;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientOptions{" +
+                "preferDirect=" + preferDirect +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", connectTimeoutMillis=" + connectTimeoutMillis +
+                '}';
+    }
+}
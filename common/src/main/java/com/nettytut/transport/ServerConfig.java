@@ -0,0 +1,130 @@
+package com.nettytut.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threading of a server: the boss group accepts connections, the worker group
+ * does channel I/O and the optional business group runs handlers which may block.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code server.bossThreads} - accepting event loops, default 1.
+ *     Every SO_REUSEPORT acceptor needs its own boss thread to accept in parallel.</li>
+ *     <li>{@code server.workerThreads} - I/O event loops, 0 (default) for twice the number of cores.</li>
+ *     <li>{@code server.workerAffinity} - CPUs to pin worker threads to, e.g. {@code 0-3} or {@code 1,3,5}.
+ *     Not pinned by default.</li>
+ *     <li>{@code server.ioRatio} - percentage of worker time spent on I/O rather than tasks, default 50.</li>
+ *     <li>{@code server.businessThreads} - threads of the business group, 0 (default) runs
+ *     handlers on the worker event loops.</li>
+ * </ul>
+ */
+public class ServerConfig {
+    public static final String BOSS_THREADS_PROPERTY = "server.bossThreads";
+    public static final String WORKER_THREADS_PROPERTY = "server.workerThreads";
+    public static final String WORKER_AFFINITY_PROPERTY = "server.workerAffinity";
+    public static final String IO_RATIO_PROPERTY = "server.ioRatio";
+    public static final String BUSINESS_THREADS_PROPERTY = "server.businessThreads";
+
+    private final int bossThreads;
+    private final int workerThreads;
+    private final int[] workerAffinity;
+    private final int ioRatio;
+    private final int businessThreads;
+
+    public ServerConfig(int bossThreads, int workerThreads, int[] workerAffinity,
+                        int ioRatio, int businessThreads) {
+        if (bossThreads < 1) throw new IllegalArgumentException("bossThreads: " + bossThreads);
+        if (workerThreads < 0) throw new IllegalArgumentException("workerThreads: " + workerThreads);
+        if (ioRatio <= 0 || ioRatio > 100) throw new IllegalArgumentException("ioRatio: " + ioRatio);
+        if (businessThreads < 0) throw new IllegalArgumentException("businessThreads: " + businessThreads);
+        this.bossThreads = bossThreads;
+        this.workerThreads = workerThreads;
+        this.workerAffinity = workerAffinity.clone();
+        this.ioRatio = ioRatio;
+        this.businessThreads = businessThreads;
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig(
+                Integer.getInteger(BOSS_THREADS_PROPERTY, 1),
+                Integer.getInteger(WORKER_THREADS_PROPERTY, 0),
+                parseCpus(System.getProperty(WORKER_AFFINITY_PROPERTY, "")),
+                Integer.getInteger(IO_RATIO_PROPERTY, 50),
+                Integer.getInteger(BUSINESS_THREADS_PROPERTY, 0));
+    }
+
+    /**
+     * Parses a CPU list like {@code 0-3,6}.
+     */
+    static int[] parseCpus(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String part : list.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int dash = part.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+            int last = dash < 0 ? first : Integer.parseInt(part.substring(dash + 1).trim());
+            for (int cpu = first; cpu <= last; cpu++) cpus.add(cpu);
+        }
+        int[] result = new int[cpus.size()];
+        for (int i = 0; i < result.length; i++) result[i] = cpus.get(i);
+        return result;
+    }
+
+    public EventLoopGroup newBossGroup(TransportFactory transportFactory) {
+        return transportFactory.newEventLoopGroup(bossThreads, new DefaultThreadFactory("boss"));
+    }
+
+    public EventLoopGroup newWorkerGroup(TransportFactory transportFactory) {
+        ThreadFactory threadFactory = workerAffinity.length > 0
+                ? new AffinityThreadFactory("worker", workerAffinity)
+                : new DefaultThreadFactory("worker");
+        EventLoopGroup group = transportFactory.newEventLoopGroup(workerThreads, threadFactory);
+        transportFactory.setIoRatio(group, ioRatio);
+        return group;
+    }
+
+    /**
+     * @return the group for blocking handlers or null if they run on the worker event loops
+     */
+    public EventExecutorGroup newBusinessGroup() {
+        return businessThreads > 0
+                ? new DefaultEventExecutorGroup(businessThreads, new DefaultThreadFactory("business"))
+                : null;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getIoRatio() {
+        return ioRatio;
+    }
+
+    public int getBusinessThreads() {
+        return businessThreads;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{" +
+                "bossThreads=" + bossThreads +
+                ", workerThreads=" + workerThreads +
+                ", workerAffinity=" + Arrays.toString(workerAffinity) +
+                ", ioRatio=" + ioRatio +
+                ", businessThreads=" + businessThreads +
+                '}';
+    }
+}
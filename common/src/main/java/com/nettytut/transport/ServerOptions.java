@@ -0,0 +1,110 @@
+package com.nettytut.transport;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+
+/**
+ * Channel options of the server and accepted channels.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code netty.allocator.direct} - pooled direct (default) or pooled heap buffers.</li>
+ *     <li>{@code server.backlog} - accept queue length, default 1024.</li>
+ *     <li>{@code server.tcpNoDelay} - disables Nagle's algorithm, default true.</li>
+ *     <li>{@code server.writeBufferLowWaterMark}, {@code server.writeBufferHighWaterMark} -
+ *     outbound bytes at which a channel turns writable and unwritable, default 32KiB and 64KiB.</li>
+ * </ul>
+ * Reads go to adaptive buffers between 64 bytes and 64KiB, so idle chat connections
+ * don't hold large read buffers and bulk echo traffic isn't read in small pieces.
+ */
+public class ServerOptions {
+    public static final String DIRECT_PROPERTY = "netty.allocator.direct";
+    public static final String BACKLOG_PROPERTY = "server.backlog";
+    public static final String TCP_NO_DELAY_PROPERTY = "server.tcpNoDelay";
+    public static final String LOW_WATER_MARK_PROPERTY = "server.writeBufferLowWaterMark";
+    public static final String HIGH_WATER_MARK_PROPERTY = "server.writeBufferHighWaterMark";
+
+    /* Netty's default low water mark which a new high water mark can't go below */
+    static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+    static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+
+    private final boolean preferDirect;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final int writeBufferLowWaterMark;
+    private final int writeBufferHighWaterMark;
+
+    public ServerOptions(boolean preferDirect, int backlog, boolean tcpNoDelay,
+                         int writeBufferLowWaterMark, int writeBufferHighWaterMark) {
+        if (backlog < 1) throw new IllegalArgumentException("backlog: " + backlog);
+        checkWaterMarks(writeBufferLowWaterMark, writeBufferHighWaterMark);
+        this.preferDirect = preferDirect;
+        this.backlog = backlog;
+        this.tcpNoDelay = tcpNoDelay;
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public static ServerOptions fromSystemProperties() {
+        return new ServerOptions(
+                Boolean.parseBoolean(System.getProperty(DIRECT_PROPERTY, "true")),
+                Integer.getInteger(BACKLOG_PROPERTY, 1024),
+                Boolean.parseBoolean(System.getProperty(TCP_NO_DELAY_PROPERTY, "true")),
+                Integer.getInteger(LOW_WATER_MARK_PROPERTY, DEFAULT_LOW_WATER_MARK),
+                Integer.getInteger(HIGH_WATER_MARK_PROPERTY, DEFAULT_HIGH_WATER_MARK));
+    }
+
+    static void checkWaterMarks(int low, int high) {
+        if (low < 0 || high < low)
+            throw new IllegalArgumentException("Wrong write buffer water marks " + low + ", " + high);
+    }
+
+    static AdaptiveRecvByteBufAllocator newRecvByteBufAllocator() {
+        return new AdaptiveRecvByteBufAllocator(64, 1024, 64 * 1024);
+    }
+
+    public ServerBootstrap apply(ServerBootstrap bootstrap) {
+        bootstrap.option(ChannelOption.SO_BACKLOG, backlog)
+                .option(ChannelOption.ALLOCATOR, BufferAllocators.pooled(preferDirect))
+                .childOption(ChannelOption.ALLOCATOR, BufferAllocators.pooled(preferDirect))
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, newRecvByteBufAllocator())
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        // Options are set in order and each water mark is checked against the other one
+        if (writeBufferHighWaterMark < DEFAULT_LOW_WATER_MARK) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark)
+                    .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark);
+        } else {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark)
+                    .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark);
+        }
+        return bootstrap;
+    }
+
+    public boolean isPreferDirect() {
+        return preferDirect;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerOptions{" +
+                "preferDirect=" + preferDirect +
+                ", backlog=" + backlog +
+                ", tcpNoDelay=" + tcpNoDelay +
+                ", writeBufferLowWaterMark=" + writeBufferLowWaterMark +
+                ", writeBufferHighWaterMark=" + writeBufferHighWaterMark +
+                '}';
+    }
+}
@@ -0,0 +1,113 @@
+package com.nettytut.transport;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Socket transports the servers and clients can run on.
+ */
+public enum Transport {
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(nThreads, threadFactory);
+        }
+
+        @Override
+        public void setIoRatio(EventLoopGroup group, int ioRatio) {
+            ((NioEventLoopGroup) group).setIoRatio(ioRatio);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return NioSocketChannel.class;
+        }
+    },
+    /**
+     * Native epoll transport of Linux. Fewer syscalls and less garbage than NIO,
+     * supports SO_REUSEPORT and edge-triggered mode.
+     */
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            // Native event arrays are allocated with sun.misc.Unsafe
+            return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(nThreads, threadFactory);
+        }
+
+        @Override
+        public void setIoRatio(EventLoopGroup group, int ioRatio) {
+            ((EpollEventLoopGroup) group).setIoRatio(ioRatio);
+        }
+
+        @Override
+        public Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends SocketChannel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+    };
+    public abstract boolean isAvailable();
+
+    /**
+     * @param nThreads number of event loops, 0 for the Netty default
+     */
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+        return newEventLoopGroup(nThreads, null);
+    }
+
+    /**
+     * @param nThreads number of event loops, 0 for the Netty default
+     * @param threadFactory factory of the event loop threads, null for the Netty default
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory);
+
+    /**
+     * Sets the percentage of event loop time spent on I/O, the rest is left to tasks.
+     */
+    public abstract void setIoRatio(EventLoopGroup group, int ioRatio);
+
+    public abstract Class<? extends ServerChannel> serverChannelClass();
+
+    public abstract Class<? extends SocketChannel> channelClass();
+
+    /**
+     * @return the transport to use instead of this one if it isn't available
+     */
+    public Transport fallback() {
+        switch (this) {
+            case EPOLL:
+                return NIO;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.nettytut.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.socket.SocketChannel;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the socket transport and applies its options to bootstraps.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code netty.transport} - auto (default), nio, epoll or io_uring.
+ *     Auto uses epoll when the native library loads and NIO otherwise;
+ *     an unavailable transport falls back the same way. Netty 4.0 has no io_uring
+ *     transport, so io_uring falls back to epoll.</li>
+ *     <li>{@code netty.acceptors} - number of server channels bound to the same address
+ *     with SO_REUSEPORT, so several threads accept connections. Epoll only, default 1.</li>
+ *     <li>{@code netty.epoll.edgeTriggered} - epoll mode, default true.</li>
+ * </ul>
+ */
+public class TransportFactory {
+    public static final String TRANSPORT_PROPERTY = "netty.transport";
+    public static final String ACCEPTORS_PROPERTY = "netty.acceptors";
+    public static final String EDGE_TRIGGERED_PROPERTY = "netty.epoll.edgeTriggered";
+    /* Accepted for the transport property, but not provided by Netty 4.0 */
+    private static final String IO_URING = "IO_URING";
+
+    private final Transport transport;
+    private final int acceptors;
+    private final boolean edgeTriggered;
+
+    public TransportFactory(Transport transport, int acceptors, boolean edgeTriggered) {
+        this.transport = resolve(transport);
+        this.acceptors = this.transport == Transport.EPOLL ? Math.max(1, acceptors) : 1;
+        this.edgeTriggered = edgeTriggered;
+        if (acceptors > this.acceptors)
+            System.err.println("SO_REUSEPORT needs epoll transport, binding one acceptor only.");
+    }
+
+    public static TransportFactory fromSystemProperties() {
+        String name = System.getProperty(TRANSPORT_PROPERTY, "auto").toUpperCase(Locale.ROOT);
+        Transport transport;
+        if ("AUTO".equals(name)) {
+            transport = Transport.EPOLL;
+        } else if (IO_URING.equals(name)) {
+            System.err.println("Transport " + IO_URING + " is not available, falling back to " + Transport.EPOLL + ".");
+            transport = Transport.EPOLL;
+        } else {
+            transport = Transport.valueOf(name);
+        }
+        return new TransportFactory(transport,
+                Integer.getInteger(ACCEPTORS_PROPERTY, 1),
+                Boolean.parseBoolean(System.getProperty(EDGE_TRIGGERED_PROPERTY, "true")));
+    }
+
+    private static Transport resolve(Transport transport) {
+        Transport selected = transport;
+        while (!selected.isAvailable()) {
+            Transport fallback = selected.fallback();
+            System.err.println("Transport " + selected + " is not available, falling back to " + fallback + ".");
+            selected = fallback;
+        }
+        return selected;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public EventLoopGroup newEventLoopGroup() {
+        return newEventLoopGroup(0);
+    }
+
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+        return transport.newEventLoopGroup(nThreads);
+    }
+
+    public EventLoopGroup newEventLoopGroup(int nThreads, ThreadFactory threadFactory) {
+        return transport.newEventLoopGroup(nThreads, threadFactory);
+    }
+
+    public void setIoRatio(EventLoopGroup group, int ioRatio) {
+        transport.setIoRatio(group, ioRatio);
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return transport.serverChannelClass();
+    }
+
+    public Class<? extends SocketChannel> channelClass() {
+        return transport.channelClass();
+    }
+
+    /**
+     * Sets the server channel class and the transport specific options.
+     */
+    public ServerBootstrap configure(ServerBootstrap bootstrap) {
+        bootstrap.channel(serverChannelClass());
+        if (transport == Transport.EPOLL) {
+            EpollMode mode = epollMode();
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, mode)
+                    .childOption(EpollChannelOption.EPOLL_MODE, mode);
+            if (acceptors > 1) bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Sets the channel class and the transport specific options.
+     */
+    public Bootstrap configure(Bootstrap bootstrap) {
+        bootstrap.channel(channelClass());
+        if (transport == Transport.EPOLL) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode());
+        }
+        return bootstrap;
+    }
+
+    /**
+     * Binds one server channel per acceptor to the address and waits until they are bound.
+     * @return bind futures, the first one belongs to the primary acceptor
+     */
+    public List<ChannelFuture> bind(ServerBootstrap bootstrap, SocketAddress address) {
+        List<ChannelFuture> futures = new ArrayList<>(acceptors);
+        for (int i = 0; i < acceptors; i++) {
+            futures.add(bootstrap.bind(address).syncUninterruptibly());
+        }
+        return futures;
+    }
+
+    private EpollMode epollMode() {
+        return edgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportFactory{" +
+                "transport=" + transport +
+                ", acceptors=" + acceptors +
+                ", edgeTriggered=" + edgeTriggered +
+                '}';
+    }
+}
@@ -0,0 +1,99 @@
+package com.nettytut.idle;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests idle events of WheelIdleStateHandler on the shared timer.
+ */
+public class WheelIdleStateHandlerTest
+    extends TestCase
+{
+    public WheelIdleStateHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WheelIdleStateHandlerTest.class );
+    }
+
+    public void testSilentPeerIsReaderIdle() throws Exception
+    {
+        EventRecorder recorder = new EventRecorder();
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WheelIdleStateHandler(new IdlePolicy(200, 0, TimeUnit.MILLISECONDS)), recorder);
+        awaitEvents(ch, recorder.events, 1, 2000);
+        assertEquals(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT, recorder.events.get(0));
+        awaitEvents(ch, recorder.events, 2, 2000);
+        assertEquals(IdleStateEvent.READER_IDLE_STATE_EVENT, recorder.events.get(1));
+        ch.finish();
+    }
+
+    public void testReadsPostponeReaderIdle() throws Exception
+    {
+        EventRecorder recorder = new EventRecorder();
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WheelIdleStateHandler(new IdlePolicy(400, 0, TimeUnit.MILLISECONDS)), recorder);
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(100);
+            ch.writeInbound("ping");
+            ch.runPendingTasks();
+        }
+        assertTrue(recorder.events.isEmpty());
+        ch.finish();
+    }
+
+    public void testQuietConnectionIsWriterIdle() throws Exception
+    {
+        EventRecorder recorder = new EventRecorder();
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WheelIdleStateHandler(new IdlePolicy(0, 200, TimeUnit.MILLISECONDS)), recorder);
+        awaitEvents(ch, recorder.events, 1, 2000);
+        assertEquals(IdleStateEvent.FIRST_WRITER_IDLE_STATE_EVENT, recorder.events.get(0));
+        ch.finish();
+    }
+
+    public void testClosedChannelStopsTimer() throws Exception
+    {
+        EventRecorder recorder = new EventRecorder();
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WheelIdleStateHandler(new IdlePolicy(200, 200, TimeUnit.MILLISECONDS)), recorder);
+        ch.close();
+        Thread.sleep(500);
+        ch.runPendingTasks();
+        assertTrue(recorder.events.isEmpty());
+    }
+
+    private static void awaitEvents(EmbeddedChannel ch, List<Object> events, int count, long timeoutMillis)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (events.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            ch.runPendingTasks();
+        }
+        assertEquals(count, events.size());
+    }
+
+    private static class EventRecorder extends ChannelInboundHandlerAdapter
+    {
+        final List<Object> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt)
+        {
+            events.add(evt);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.nettytut.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests bucketing and percentiles of LatencyHistogram.
+ */
+public class LatencyHistogramTest
+    extends TestCase
+{
+    public LatencyHistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LatencyHistogramTest.class );
+    }
+
+    public void testBucketsCoverEveryValue()
+    {
+        long[] values = {0, 1, 127, 128, 129, 255, 256, 1000, 123456789L, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue(value + " <= " + highest, value <= highest);
+            if (bucket > 0) {
+                assertTrue(value + " > " + LatencyHistogram.highestValueOf(bucket - 1),
+                        value > LatencyHistogram.highestValueOf(bucket - 1));
+            }
+            assertTrue("relative error of " + value, highest - value <= Math.max(1, value / 64));
+        }
+    }
+
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertWithinOnePercent(5000000, histogram.getValueAtPercentile(50));
+        assertWithinOnePercent(9900000, histogram.getValueAtPercentile(99));
+        assertWithinOnePercent(9990000, histogram.getValueAtPercentile(99.9));
+        assertWithinOnePercent(10000000, histogram.getMax());
+        assertEquals(5000500.0, histogram.getMean(), 0.001);
+    }
+
+    public void testEmptyHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean());
+    }
+
+    public void testCumulativeCounts()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        long[] cumulative = histogram.getCumulativeCounts(new long[] {0, 10, 100, 500, 5000});
+        assertEquals(6, cumulative.length);
+        assertEquals(0, cumulative[0]);
+        assertEquals(10, cumulative[1]);
+        assertEquals(100, cumulative[2]);
+        // 500 is in a bucket reaching past it, which counts above the bound
+        assertTrue(cumulative[3] + " is close to 500", cumulative[3] <= 500 && cumulative[3] >= 500 - 500 / 64);
+        assertEquals(1000, cumulative[4]);
+        assertEquals(1000, cumulative[5]);
+    }
+
+    public void testWrittenAsPrometheusHistogram()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.record(20000);
+        histogram.record(2000000000L);
+        StringBuilder sb = new StringBuilder();
+        new PrometheusWriter(sb).histogram("delay_seconds", "Delay.", histogram, new double[] {0.00001, 0.001}, 1e-9);
+        String text = sb.toString();
+        assertTrue(text, text.contains("# TYPE delay_seconds histogram\n"));
+        assertTrue(text, text.contains("delay_seconds_bucket{le=\"1.00000000e-05\"} 1\n"));
+        assertTrue(text, text.contains("delay_seconds_bucket{le=\"0.00100000000\"} 2\n"));
+        assertTrue(text, text.contains("delay_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("delay_seconds_count 3\n"));
+        assertFalse(text, text.contains("quantile"));
+    }
+
+    private static void assertWithinOnePercent(long expected, long actual)
+    {
+        assertTrue(actual + " is close to " + expected, Math.abs(actual - expected) <= expected / 64);
+    }
+}
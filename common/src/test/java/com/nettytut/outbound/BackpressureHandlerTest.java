@@ -0,0 +1,120 @@
+package com.nettytut.outbound;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+
+/**
+ * Tests slow consumer policies of BackpressureHandler on a channel
+ * which is made unwritable by an unflushed message.
+ */
+public class BackpressureHandlerTest
+    extends TestCase
+{
+    private static final int HIGH_WATER_MARK = 100;
+
+    public BackpressureHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BackpressureHandlerTest.class );
+    }
+
+    public void testWritableChannelPassesMessagesThrough()
+    {
+        OutboundStats stats = new OutboundStats();
+        EmbeddedChannel ch = newChannel(SlowConsumerPolicy.DROP_OLDEST, 30, stats);
+        ch.writeAndFlush(message('a', 20));
+        assertEquals(message('a', 20), ch.readOutbound());
+        assertEquals(0, stats.getDeferred());
+        ch.finish();
+    }
+
+    public void testDropOldestKeepsNewestMessagesWithinLag()
+    {
+        OutboundStats stats = new OutboundStats();
+        EmbeddedChannel ch = newChannel(SlowConsumerPolicy.DROP_OLDEST, 30, stats);
+        makeUnwritable(ch);
+        ch.write(message('a', 20), ch.voidPromise());
+        ch.write(message('b', 20), ch.voidPromise());
+        ch.write(message('c', 20), ch.voidPromise());
+        assertEquals(3, stats.getDeferred());
+        assertEquals(2, stats.getDropped());
+
+        ch.flush();
+        ch.runPendingTasks();
+        assertEquals(message('x', HIGH_WATER_MARK + 1), ch.readOutbound());
+        assertEquals(message('c', 20), ch.readOutbound());
+        assertNull(ch.readOutbound());
+        ch.finish();
+    }
+
+    public void testCoalesceMergesDeferredMessages()
+    {
+        OutboundStats stats = new OutboundStats();
+        EmbeddedChannel ch = newChannel(SlowConsumerPolicy.COALESCE, 1000, stats);
+        makeUnwritable(ch);
+        ch.write(message('a', 10), ch.voidPromise());
+        ch.write(message('b', 10), ch.voidPromise());
+        ch.write(message('c', 10), ch.voidPromise());
+
+        ch.flush();
+        ch.runPendingTasks();
+        assertEquals(message('x', HIGH_WATER_MARK + 1), ch.readOutbound());
+        ByteBuf batch = (ByteBuf) ch.readOutbound();
+        assertEquals("aaaaaaaaaabbbbbbbbbbcccccccccc", batch.toString(CharsetUtil.US_ASCII));
+        batch.release();
+        assertNull(ch.readOutbound());
+        assertEquals(3, stats.getDeferred());
+        assertEquals(0, stats.getDropped());
+        ch.finish();
+    }
+
+    public void testDisconnectClosesLaggingChannel()
+    {
+        OutboundStats stats = new OutboundStats();
+        EmbeddedChannel ch = newChannel(SlowConsumerPolicy.DISCONNECT, 30, stats);
+        makeUnwritable(ch);
+        ByteBuf first = message('a', 20);
+        ByteBuf second = message('b', 20);
+        ch.write(first, ch.voidPromise());
+        assertTrue(ch.isOpen());
+        ch.write(second, ch.voidPromise());
+        assertFalse(ch.isOpen());
+        assertEquals(1, stats.getDisconnected());
+        assertEquals(0, first.refCnt());
+        assertEquals(0, second.refCnt());
+        ch.finish();
+    }
+
+    private static EmbeddedChannel newChannel(SlowConsumerPolicy policy, int maxLagBytes, OutboundStats stats)
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new BackpressureHandler(new OutboundPolicy(policy, maxLagBytes), stats));
+        ch.config().setWriteBufferLowWaterMark(HIGH_WATER_MARK / 2);
+        ch.config().setWriteBufferHighWaterMark(HIGH_WATER_MARK);
+        return ch;
+    }
+
+    private static void makeUnwritable(EmbeddedChannel ch)
+    {
+        ch.write(message('x', HIGH_WATER_MARK + 1));
+        assertFalse(ch.isWritable());
+    }
+
+    private static ByteBuf message(char c, int length)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) c);
+        return Unpooled.wrappedBuffer(bytes);
+    }
+}
@@ -0,0 +1,101 @@
+package com.nettytut.outbound;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests merging of writes and deferred flushes of CoalescingWriteHandler.
+ */
+public class CoalescingWriteHandlerTest
+    extends TestCase
+{
+    public CoalescingWriteHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CoalescingWriteHandlerTest.class );
+    }
+
+    public void testLinesOfOneTickAreMergedAndFlushedOnce()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new CoalescingWriteHandler(64));
+        ch.writeAndFlush(line("one"), ch.voidPromise());
+        ch.writeAndFlush(line("two"), ch.voidPromise());
+        assertNull(ch.readOutbound());
+
+        ch.runPendingTasks();
+        assertEquals("one\r\ntwo\r\n", readString(ch));
+        assertNull(ch.readOutbound());
+        ch.finish();
+    }
+
+    public void testBatchBytesCountMergedLines()
+    {
+        CoalescingWriteHandler handler = new CoalescingWriteHandler(64);
+        EmbeddedChannel ch = new EmbeddedChannel(handler);
+        assertEquals(0, handler.getBatchBytes());
+        ch.write(line("one"), ch.voidPromise());
+        ch.write(line("two"), ch.voidPromise());
+        assertEquals(10, handler.getBatchBytes());
+        ch.flush();
+        ch.runPendingTasks();
+        assertEquals(0, handler.getBatchBytes());
+        assertEquals("one\r\ntwo\r\n", readString(ch));
+        ch.finish();
+    }
+
+    public void testBatchIsWrittenBeforeOutgrowingLimit()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new CoalescingWriteHandler(8));
+        ch.write(line("abc"), ch.voidPromise());
+        ch.write(line("def"), ch.voidPromise());
+        ch.flush();
+        ch.runPendingTasks();
+        assertEquals("abc\r\n", readString(ch));
+        assertEquals("def\r\n", readString(ch));
+        assertNull(ch.readOutbound());
+        ch.finish();
+    }
+
+    public void testWriteWithPromiseKeepsOrder()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new CoalescingWriteHandler(64));
+        ch.write(line("broadcast"), ch.voidPromise());
+        ch.writeAndFlush(line("reply"));
+        ch.runPendingTasks();
+        assertEquals("broadcast\r\n", readString(ch));
+        assertEquals("reply\r\n", readString(ch));
+        ch.finish();
+    }
+
+    public void testCloseDeliversPendingBatch()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(new CoalescingWriteHandler(64));
+        ch.write(line("bye"), ch.voidPromise());
+        ch.close();
+        assertEquals("bye\r\n", readString(ch));
+        ch.finish();
+    }
+
+    private static ByteBuf line(String text)
+    {
+        return Unpooled.copiedBuffer(text + "\r\n", CharsetUtil.US_ASCII);
+    }
+
+    private static String readString(EmbeddedChannel ch)
+    {
+        ByteBuf buf = (ByteBuf) ch.readOutbound();
+        assertNotNull(buf);
+        String text = buf.toString(CharsetUtil.US_ASCII);
+        buf.release();
+        return text;
+    }
+}
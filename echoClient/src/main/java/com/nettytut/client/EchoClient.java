@@ -1,12 +1,12 @@
 package com.nettytut.client;
 
+import com.nettytut.transport.ClientOptions;
+import com.nettytut.transport.TransportFactory;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import java.net.InetSocketAddress;
 
@@ -18,11 +18,12 @@ public class EchoClient {
         this.port = port;
     }
     public void start() throws Exception {
-        EventLoopGroup group = new NioEventLoopGroup();
+        TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+        EventLoopGroup group = transportFactory.newEventLoopGroup();
         try {
             Bootstrap b = new Bootstrap();
-            b.group(group)
-                    .channel(NioSocketChannel.class)
+            transportFactory.configure(b.group(group));
+            ClientOptions.fromSystemProperties().apply(b)
                     .remoteAddress(new InetSocketAddress(host, port))
                     .handler(new ChannelInitializer<SocketChannel>() {
                         @Override
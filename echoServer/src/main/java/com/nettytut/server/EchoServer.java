@@ -1,14 +1,17 @@
 package com.nettytut.server;
 
+import com.nettytut.transport.ServerConfig;
+import com.nettytut.transport.ServerOptions;
+import com.nettytut.transport.TransportFactory;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.EventExecutorGroup;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 
 public class EchoServer {
     private final int port;
@@ -31,23 +34,32 @@ public class EchoServer {
     public void start() throws Exception {
         final EchoServerHandler serverHandler
                 = new EchoServerHandler();
-        EventLoopGroup group = new NioEventLoopGroup();
+        TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+        ServerConfig config = ServerConfig.fromSystemProperties();
+        EventLoopGroup bossGroup = config.newBossGroup(transportFactory);
+        EventLoopGroup workerGroup = config.newWorkerGroup(transportFactory);
+        final EventExecutorGroup businessGroup = config.newBusinessGroup();
         try {
             ServerBootstrap b = new ServerBootstrap();
-            b.group(group)
-                    .channel(NioServerSocketChannel.class)
-                    .localAddress(new InetSocketAddress(port))
+            transportFactory.configure(b.group(bossGroup, workerGroup));
+            ServerOptions.fromSystemProperties().apply(b)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(SocketChannel ch)
                             throws Exception {
-                            ch.pipeline().addLast(serverHandler);
+                            ch.pipeline().addLast(businessGroup, serverHandler);
                         }
                     });
-            ChannelFuture f  = b.bind().sync();
-            f.channel().closeFuture().sync();
+            List<ChannelFuture> futures = transportFactory.bind(b, new InetSocketAddress(port));
+            for (ChannelFuture f : futures) {
+                f.channel().closeFuture().sync();
+            }
         } finally {
-            group.shutdownGracefully().sync();
+            bossGroup.shutdownGracefully().sync();
+            workerGroup.shutdownGracefully().sync();
+            if (businessGroup != null) {
+                businessGroup.shutdownGracefully().sync();
+            }
         }
     }
 }
@@ -1,12 +1,12 @@
 package com.nettytut.client;
 
 import com.nettytut.initializer.TelnetClientInitializer;
+import com.nettytut.transport.ClientOptions;
+import com.nettytut.transport.TransportFactory;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -19,13 +19,14 @@ public class TelnetClient {
     static final int PORT = 9977;
 
     public static void main(String[] args) throws Exception {
-        EventLoopGroup group = new NioEventLoopGroup();
+        TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+        EventLoopGroup group = transportFactory.newEventLoopGroup();
         try {
             for(int i = 0; i < 15; i++) {
 
                 Bootstrap b = new Bootstrap();
-                b.group(group)
-                        .channel(NioSocketChannel.class)
+                transportFactory.configure(b.group(group));
+                ClientOptions.fromSystemProperties().apply(b)
                         .handler(new TelnetClientInitializer());
 
                 Channel ch = b.connect(HOST, PORT).sync().channel();
@@ -0,0 +1,81 @@
+package com.nettytut.load;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * One simulated browser: keeps {@code pipeline} GET requests outstanding on its
+ * connection and sends the next one when a response comes in, for as long as the
+ * server keeps the connection alive. Responses come in request order, so the
+ * oldest send time is the one a response answers.
+ */
+public class HttpLoadClientHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+    private final LoadStats stats;
+    private final String host;
+    private final String path;
+    private final int pipeline;
+    private final boolean keepAlive;
+    /* System.nanoTime() of the outstanding requests */
+    private final Queue<Long> sendTimes = new ArrayDeque<Long>();
+    private boolean closing;
+
+    public HttpLoadClientHandler(LoadConfig config, LoadStats stats, String path, int pipeline, boolean keepAlive) {
+        this.stats = stats;
+        this.host = config.host + ":" + config.port;
+        this.path = path;
+        this.pipeline = keepAlive ? pipeline : 1;
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        stats.connected.increment();
+        for (int i = 0; i < pipeline; i++) send(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+        Long sentNanos = sendTimes.poll();
+        if (sentNanos == null) return;
+        if (!HttpResponseStatus.OK.equals(response.getStatus())) {
+            stats.failures.increment();
+        } else if (stats.isRecording()) {
+            stats.received.increment();
+            stats.latency.record(System.nanoTime() - sentNanos);
+        }
+        // The server closes after this response, later requests are lost
+        if (!HttpHeaders.isKeepAlive(response)) closing = true;
+        if (!closing) ctx.writeAndFlush(newRequest());
+    }
+
+    private void send(ChannelHandlerContext ctx) {
+        ctx.write(newRequest());
+    }
+
+    private FullHttpRequest newRequest() {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+        request.headers().set(HttpHeaders.Names.HOST, host);
+        HttpHeaders.setKeepAlive(request, keepAlive);
+        sendTimes.add(System.nanoTime());
+        if (stats.isRecording()) stats.sent.increment();
+        return request;
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        stats.failures.increment();
+        System.err.println(ctx.channel() + ": " + cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,139 @@
+package com.nettytut.load;
+
+import com.nettytut.transport.ClientOptions;
+import com.nettytut.transport.TransportFactory;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP load generator for the static files of the WebSocket chat server.
+ * Every connection sends GET requests back to back and is reopened when the server
+ * closes it, so the report shows how many TCP connections the requests took.
+ * Besides the host, port, connections, ramp-up, warmup and duration of {@link LoadConfig}
+ * it reads
+ * <ul>
+ *     <li>{@code load.http.path} - requested path, default /.</li>
+ *     <li>{@code load.http.pipeline} - requests outstanding on a connection, default 1.</li>
+ *     <li>{@code load.http.keepAlive} - false sends Connection: close, a connection per request.</li>
+ * </ul>
+ * e.g.
+ * <pre>java -Dload.port=8080 -Dload.connections=10 -Dload.http.pipeline=8 -cp ... com.nettytut.load.HttpLoadGenerator</pre>
+ */
+public class HttpLoadGenerator {
+    private final LoadConfig config;
+    private final String path;
+    private final int pipeline;
+    private final boolean keepAlive;
+    private final LoadStats stats = new LoadStats();
+    private final ChannelGroup channels = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+    private volatile boolean running;
+    private long connectionsRecorded;
+
+    public HttpLoadGenerator(LoadConfig config, String path, int pipeline, boolean keepAlive) {
+        if (pipeline < 1) throw new IllegalArgumentException("pipeline: " + pipeline);
+        this.config = config;
+        this.path = path;
+        this.pipeline = pipeline;
+        this.keepAlive = keepAlive;
+    }
+
+    public static HttpLoadGenerator fromSystemProperties() {
+        return new HttpLoadGenerator(LoadConfig.fromSystemProperties(),
+                System.getProperty("load.http.path", "/"),
+                Integer.getInteger("load.http.pipeline", 1),
+                Boolean.parseBoolean(System.getProperty("load.http.keepAlive", "true")));
+    }
+
+    public HttpLoadGenerator run() throws InterruptedException {
+        TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+        EventLoopGroup group = transportFactory.newEventLoopGroup();
+        running = true;
+        try {
+            Bootstrap b = new Bootstrap();
+            transportFactory.configure(b.group(group));
+            ClientOptions.fromSystemProperties().apply(b);
+            b.handler(new ChannelInitializer<Channel>() {
+                @Override
+                protected void initChannel(Channel ch) {
+                    ChannelPipeline p = ch.pipeline();
+                    p.addLast(new HttpClientCodec());
+                    p.addLast(new HttpObjectAggregator(1024 * 1024));
+                    p.addLast(new HttpLoadClientHandler(config, stats, path, pipeline, keepAlive));
+                }
+            });
+            long rampUpStep = config.rampUpMillis * 1000000L / config.connections;
+            long start = System.nanoTime();
+            for (int i = 0; i < config.connections; i++) {
+                long wait = start + i * rampUpStep - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                connect(b);
+            }
+            TimeUnit.SECONDS.sleep(config.warmupSeconds);
+            long connected = stats.connected.sum();
+            stats.startRecording();
+            TimeUnit.SECONDS.sleep(config.durationSeconds);
+            stats.stopRecording();
+            connectionsRecorded = stats.connected.sum() - connected;
+            running = false;
+            channels.close().awaitUninterruptibly();
+        } finally {
+            running = false;
+            group.shutdownGracefully();
+        }
+        return this;
+    }
+
+    /**
+     * Opens a connection which is opened again when it is closed, until the run is over.
+     */
+    private void connect(final Bootstrap b) {
+        b.connect(config.host, config.port).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (!future.isSuccess()) {
+                    stats.failures.increment();
+                    System.err.println(future.cause());
+                    return;
+                }
+                channels.add(future.channel());
+                future.channel().closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) {
+                        if (running) connect(b);
+                    }
+                });
+            }
+        });
+    }
+
+    public void print(PrintStream out) {
+        double seconds = stats.getRecordedSeconds();
+        long responses = stats.received.sum();
+        out.printf("Connections: %d opened while recording, %d failures%n",
+                connectionsRecorded, stats.failures.sum());
+        out.printf("Requests: %d sent, %d answered, %.1f req/s, %.1f requests per connection%n",
+                stats.sent.sum(), responses, responses / seconds,
+                responses / (double) Math.max(1, connectionsRecorded));
+        stats.printLatency(out);
+    }
+
+    public static void main(String[] args) throws Exception {
+        HttpLoadGenerator generator = HttpLoadGenerator.fromSystemProperties();
+        System.out.println(generator.config + ", path=" + generator.path
+                + ", pipeline=" + generator.pipeline + ", keepAlive=" + generator.keepAlive);
+        generator.run().print(System.out);
+    }
+}
@@ -0,0 +1,96 @@
+package com.nettytut.load;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated chat user: signs in, joins its room and then sends timestamped
+ * messages at a fixed rate. Every timestamped line it receives, its own echo
+ * included, is recorded as a send-to-receive latency.
+ */
+public class LoadClientHandler extends SimpleChannelInboundHandler<String> {
+    /* Marks load messages, followed by the System.nanoTime() of the send */
+    static final String MARKER = "@lg ";
+
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final String login;
+    private final String room;
+    private final String padding;
+    private ScheduledFuture<?> sendTask;
+
+    public LoadClientHandler(LoadConfig config, LoadStats stats, int connection) {
+        this.config = config;
+        this.stats = stats;
+        this.login = "load" + connection;
+        this.room = config.roomOf(connection);
+        StringBuilder sb = new StringBuilder(config.messageSize);
+        for (int i = 0; i < config.messageSize; i++) sb.append('x');
+        this.padding = sb.toString();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        stats.connected.increment();
+        ctx.write("login " + login + " load\r\n");
+        // Fails harmlessly when another user has created the room
+        ctx.write("create " + room + "\r\n");
+        ctx.writeAndFlush("join " + room + "\r\n");
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, String line) {
+        int marker = line.indexOf("] " + MARKER);
+        if (marker >= 0) {
+            received(line, marker + 2 + MARKER.length());
+        } else if (line.startsWith("User " + login + " joined")) {
+            stats.joined.increment();
+            startSending(ctx);
+        } else if (line.startsWith("There is no") || line.startsWith("Such user")) {
+            stats.failures.increment();
+            System.err.println(login + ": " + line);
+        }
+    }
+
+    private void received(String line, int start) {
+        int end = line.indexOf(' ', start);
+        long sentNanos = Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+        if (!stats.isRecording()) return;
+        stats.received.increment();
+        stats.latency.record(System.nanoTime() - sentNanos);
+    }
+
+    private void startSending(final ChannelHandlerContext ctx) {
+        long period = config.sendPeriodNanos();
+        // Random phase, so users don't send in lockstep
+        long delay = ThreadLocalRandom.current().nextLong(period);
+        sendTask = ctx.executor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!ctx.channel().isWritable()) {
+                    if (stats.isRecording()) stats.skipped.increment();
+                    return;
+                }
+                ctx.writeAndFlush(MARKER + System.nanoTime() + " " + padding + "\r\n");
+                if (stats.isRecording()) stats.sent.increment();
+            }
+        }, delay, period, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (sendTask != null) sendTask.cancel(false);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        stats.failures.increment();
+        System.err.println(login + ": " + cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.nettytut.load;
+
+import java.util.Locale;
+
+/**
+ * Settings of a load run, read from system properties:
+ * <ul>
+ *     <li>{@code load.host}, {@code load.port} - chat server, default 127.0.0.1:9977.</li>
+ *     <li>{@code load.protocol} - {@code telnet} (default) for the chat server or {@code websocket}
+ *     for the WebSocket chat server, which broadcasts to everyone and has no rooms, or
+ *     {@code websocket-binary} for binary messages to it.</li>
+ *     <li>{@code load.path} - path of the WebSocket endpoint, default /ws.</li>
+ *     <li>{@code load.connections} - simulated users, default 100.</li>
+ *     <li>{@code load.rampUpMillis} - connections are opened evenly over this time, default 1000.</li>
+ *     <li>{@code load.rooms} - users are spread round robin over this many rooms, default half
+ *     of the connections as the server lets two users into a room.</li>
+ *     <li>{@code load.messagesPerSecond} - messages sent by every user, default 10.</li>
+ *     <li>{@code load.messageSize} - padding of a message in bytes, default 32.</li>
+ *     <li>{@code load.warmupSeconds} - sent but not recorded, default 5.</li>
+ *     <li>{@code load.durationSeconds} - recorded, default 30.</li>
+ * </ul>
+ */
+public class LoadConfig {
+    final String host;
+    final int port;
+    final boolean webSocket;
+    final boolean binary;
+    final String path;
+    final int connections;
+    final long rampUpMillis;
+    final int rooms;
+    final double messagesPerSecond;
+    final int messageSize;
+    final int warmupSeconds;
+    final int durationSeconds;
+
+    public LoadConfig(String host, int port, boolean webSocket, boolean binary, String path, int connections,
+                      long rampUpMillis, int rooms, double messagesPerSecond, int messageSize, int warmupSeconds,
+                      int durationSeconds) {
+        if (connections < 1) throw new IllegalArgumentException("connections: " + connections);
+        if (rooms < 1) throw new IllegalArgumentException("rooms: " + rooms);
+        if (messagesPerSecond <= 0) throw new IllegalArgumentException("messagesPerSecond: " + messagesPerSecond);
+        this.host = host;
+        this.port = port;
+        this.webSocket = webSocket;
+        this.binary = binary;
+        this.path = path;
+        this.connections = connections;
+        this.rampUpMillis = rampUpMillis;
+        this.rooms = rooms;
+        this.messagesPerSecond = messagesPerSecond;
+        this.messageSize = messageSize;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+    }
+
+    public static LoadConfig fromSystemProperties() {
+        int connections = Integer.getInteger("load.connections", 100);
+        String protocol = System.getProperty("load.protocol", "telnet");
+        return new LoadConfig(
+                System.getProperty("load.host", "127.0.0.1"),
+                Integer.getInteger("load.port", 9977),
+                protocol.toLowerCase(Locale.ROOT).startsWith("websocket"),
+                "websocket-binary".equalsIgnoreCase(protocol),
+                System.getProperty("load.path", "/ws"),
+                connections,
+                Long.getLong("load.rampUpMillis", 1000),
+                Integer.getInteger("load.rooms", (connections + 1) / 2),
+                Double.parseDouble(System.getProperty("load.messagesPerSecond", "10")),
+                Integer.getInteger("load.messageSize", 32),
+                Integer.getInteger("load.warmupSeconds", 5),
+                Integer.getInteger("load.durationSeconds", 30));
+    }
+
+    String roomOf(int connection) {
+        return "load" + (connection % rooms);
+    }
+
+    long sendPeriodNanos() {
+        return (long) (1000000000L / messagesPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return "LoadConfig{" +
+                "host='" + host + '\'' +
+                ", port=" + port +
+                ", webSocket=" + webSocket +
+                ", binary=" + binary +
+                ", path='" + path + '\'' +
+                ", connections=" + connections +
+                ", rampUpMillis=" + rampUpMillis +
+                ", rooms=" + rooms +
+                ", messagesPerSecond=" + messagesPerSecond +
+                ", messageSize=" + messageSize +
+                ", warmupSeconds=" + warmupSeconds +
+                ", durationSeconds=" + durationSeconds +
+                '}';
+    }
+}
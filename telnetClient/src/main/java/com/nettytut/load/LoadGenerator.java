@@ -0,0 +1,118 @@
+package com.nettytut.load;
+
+import com.nettytut.transport.ClientOptions;
+import com.nettytut.transport.TransportFactory;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.Delimiters;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for the chat server. Opens the configured number of
+ * connections over the ramp-up time, lets them chat in their rooms and
+ * reports throughput and latency percentiles of the measured period.
+ * See {@link LoadConfig} for the settings, e.g.
+ * <pre>java -Dload.connections=1000 -Dload.messagesPerSecond=5 -cp ... com.nettytut.load.LoadGenerator</pre>
+ * or for the WebSocket chat server
+ * <pre>java -Dload.protocol=websocket -Dload.port=8080 -cp ... com.nettytut.load.LoadGenerator</pre>
+ */
+public class LoadGenerator {
+    private static final StringDecoder DECODER = new StringDecoder();
+    private static final StringEncoder ENCODER = new StringEncoder();
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final ChannelGroup channels = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+    }
+
+    public LoadStats run() throws InterruptedException {
+        TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+        EventLoopGroup group = transportFactory.newEventLoopGroup();
+        try {
+            Bootstrap b = new Bootstrap();
+            transportFactory.configure(b.group(group));
+            ClientOptions.fromSystemProperties().apply(b);
+            long rampUpStep = config.rampUpMillis * 1000000L / config.connections;
+            long start = System.nanoTime();
+            for (int i = 0; i < config.connections; i++) {
+                long wait = start + i * rampUpStep - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                connect(b, i);
+            }
+            TimeUnit.SECONDS.sleep(config.warmupSeconds);
+            stats.startRecording();
+            TimeUnit.SECONDS.sleep(config.durationSeconds);
+            stats.stopRecording();
+            channels.close().awaitUninterruptibly();
+        } finally {
+            group.shutdownGracefully();
+        }
+        return stats;
+    }
+
+    private void connect(Bootstrap b, final int connection) {
+        b.handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                if (config.webSocket) {
+                    pipeline.addLast(new HttpClientCodec());
+                    pipeline.addLast(new HttpObjectAggregator(8192));
+                    pipeline.addLast(new WebSocketClientProtocolHandler(webSocketUri(), WebSocketVersion.V13,
+                            null, false, new DefaultHttpHeaders(), 65536));
+                    // Big messages come in fragments
+                    pipeline.addLast(new WebSocketFrameAggregator(1024 * 1024));
+                    pipeline.addLast(new WebSocketLoadClientHandler(config, stats, connection));
+                    return;
+                }
+                pipeline.addLast(new DelimiterBasedFrameDecoder(8192, Delimiters.lineDelimiter()));
+                pipeline.addLast(DECODER);
+                pipeline.addLast(ENCODER);
+                pipeline.addLast(new LoadClientHandler(config, stats, connection));
+            }
+        });
+        b.connect(config.host, config.port).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (future.isSuccess()) {
+                    channels.add(future.channel());
+                } else {
+                    stats.failures.increment();
+                    System.err.println("load" + connection + ": " + future.cause());
+                }
+            }
+        });
+    }
+
+    private URI webSocketUri() {
+        return URI.create("ws://" + config.host + ":" + config.port + config.path);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.fromSystemProperties();
+        System.out.println(config);
+        new LoadGenerator(config).run().print(System.out);
+    }
+}
@@ -0,0 +1,68 @@
+package com.nettytut.load;
+
+import com.nettytut.metrics.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and the send-to-receive latency histogram of a load run,
+ * shared by all connections. Only recorded while recording is on,
+ * so warmup doesn't skew the results.
+ */
+public class LoadStats {
+    final LongAdder connected = new LongAdder();
+    final LongAdder joined = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    /* Sends skipped because the connection wasn't writable */
+    final LongAdder skipped = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LatencyHistogram latency = new LatencyHistogram();
+    private volatile boolean recording;
+    private long startNanos;
+    private long stopNanos;
+
+    void startRecording() {
+        startNanos = System.nanoTime();
+        recording = true;
+    }
+
+    void stopRecording() {
+        recording = false;
+        stopNanos = System.nanoTime();
+    }
+
+    boolean isRecording() {
+        return recording;
+    }
+
+    double getRecordedSeconds() {
+        return (stopNanos - startNanos) / 1e9;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = getRecordedSeconds();
+        out.printf("Connections: %d connected, %d joined, %d failures%n",
+                connected.sum(), joined.sum(), failures.sum());
+        out.printf("Sent:     %d messages, %.1f msg/s, %d skipped on unwritable connections%n",
+                sent.sum(), sent.sum() / seconds, skipped.sum());
+        out.printf("Received: %d messages, %.1f msg/s%n", received.sum(), received.sum() / seconds);
+        printLatency(out);
+    }
+
+    void printLatency(PrintStream out) {
+        out.printf("Latency (us): mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d%n",
+                latency.getMean() / 1000,
+                micros(latency.getValueAtPercentile(50)),
+                micros(latency.getValueAtPercentile(90)),
+                micros(latency.getValueAtPercentile(99)),
+                micros(latency.getValueAtPercentile(99.9)),
+                micros(latency.getMax()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,117 @@
+package com.nettytut.load;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One simulated browser of the WebSocket chat server: starts sending timestamped
+ * text frames at a fixed rate once the handshake is complete, or binary frames in
+ * the server's envelope: type 1, an empty sender and the text as payload. Every
+ * timestamped frame it receives, its own echo included, is recorded as a
+ * send-to-receive latency.
+ */
+public class WebSocketLoadClientHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+    /* Envelope type of a chat message */
+    private static final int MESSAGE = 1;
+
+    private final LoadConfig config;
+    private final LoadStats stats;
+    private final String name;
+    private final String padding;
+    private ScheduledFuture<?> sendTask;
+
+    public WebSocketLoadClientHandler(LoadConfig config, LoadStats stats, int connection) {
+        this.config = config;
+        this.stats = stats;
+        this.name = "load" + connection;
+        StringBuilder sb = new StringBuilder(config.messageSize);
+        for (int i = 0; i < config.messageSize; i++) sb.append('x');
+        this.padding = sb.toString();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        stats.connected.increment();
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+            stats.joined.increment();
+            startSending(ctx);
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        String text;
+        if (frame instanceof TextWebSocketFrame) {
+            text = ((TextWebSocketFrame) frame).text();
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            ByteBuf envelope = frame.content();
+            int offset = 2 + envelope.getUnsignedByte(envelope.readerIndex() + 1);
+            text = envelope.toString(envelope.readerIndex() + offset, envelope.readableBytes() - offset,
+                    CharsetUtil.UTF_8);
+        } else {
+            return;
+        }
+        if (!text.startsWith(LoadClientHandler.MARKER)) return;
+        int start = LoadClientHandler.MARKER.length();
+        int end = text.indexOf(' ', start);
+        long sentNanos = Long.parseLong(end < 0 ? text.substring(start) : text.substring(start, end));
+        if (!stats.isRecording()) return;
+        stats.received.increment();
+        stats.latency.record(System.nanoTime() - sentNanos);
+    }
+
+    private void startSending(final ChannelHandlerContext ctx) {
+        long period = config.sendPeriodNanos();
+        // Random phase, so users don't send in lockstep
+        long delay = ThreadLocalRandom.current().nextLong(period);
+        sendTask = ctx.executor().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (!ctx.channel().isWritable()) {
+                    if (stats.isRecording()) stats.skipped.increment();
+                    return;
+                }
+                String text = LoadClientHandler.MARKER + System.nanoTime() + " " + padding;
+                ctx.writeAndFlush(config.binary ? binary(ctx, text) : new TextWebSocketFrame(text));
+                if (stats.isRecording()) stats.sent.increment();
+            }
+        }, delay, period, TimeUnit.NANOSECONDS);
+    }
+
+    private static BinaryWebSocketFrame binary(ChannelHandlerContext ctx, String text) {
+        ByteBuf envelope = ctx.alloc().buffer(2 + text.length());
+        envelope.writeByte(MESSAGE).writeByte(0);
+        envelope.writeBytes(text.getBytes(CharsetUtil.UTF_8));
+        return new BinaryWebSocketFrame(envelope);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (sendTask != null) sendTask.cancel(false);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        stats.failures.increment();
+        System.err.println(name + ": " + cause);
+        ctx.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.nettytut.handlers;
+
+import com.nettytut.websocket.BinaryEnvelope;
+import com.nettytut.websocket.FrameBroadcaster;
+import com.nettytut.websocket.PerMessageDeflate;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.util.CharsetUtil;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcasts binary messages in a {@link BinaryEnvelope} stamped with the sender.
+ * The payload of the received frame is shared by all members, every one of them
+ * is written a duplicate by the group.
+ */
+public class BinaryWebSocketFrameHandler
+        extends SimpleChannelInboundHandler<BinaryWebSocketFrame> {
+    private static final int POLICY_VIOLATION = 1008;
+    /* Netty 4.0 channels have no id, so connections are numbered by the server */
+    private static final AtomicLong NEXT_SENDER = new AtomicLong();
+
+    private final FrameBroadcaster broadcaster;
+    private byte[] sender;
+
+    public BinaryWebSocketFrameHandler(ChannelGroup group) {
+        this(group, PerMessageDeflate.DISABLED);
+    }
+
+    public BinaryWebSocketFrameHandler(ChannelGroup group, PerMessageDeflate deflate) {
+        this.broadcaster = new FrameBroadcaster(group, deflate);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, BinaryWebSocketFrame msg) throws Exception {
+        if (!BinaryEnvelope.isValidFromClient(msg.content())) {
+            ctx.writeAndFlush(new CloseWebSocketFrame(POLICY_VIOLATION, "Invalid envelope"))
+                    .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        // Unique among the connections of the server, unlike a hash code
+        if (sender == null) sender = Long.toHexString(NEXT_SENDER.incrementAndGet()).getBytes(CharsetUtil.US_ASCII);
+        broadcaster.broadcast(new BinaryWebSocketFrame(
+                BinaryEnvelope.stamp(ctx.alloc(), msg.content(), sender)), ctx.alloc());
+    }
+}
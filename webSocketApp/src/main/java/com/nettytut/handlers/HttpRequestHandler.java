@@ -1,85 +1,316 @@
 package com.nettytut.handlers;
 
+import com.nettytut.http.StaticFile;
+import com.nettytut.http.StaticFiles;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.ssl.SslHandler;
-import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 
-import java.io.File;
-import java.io.RandomAccessFile;
-import java.net.URISyntaxException;
-import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Queue;
 
+/**
+ * Passes requests of the WebSocket path on and serves static files for everything else.
+ * Files come from a shared {@link StaticFiles} cache; responses carry ETag and
+ * Last-Modified, so revalidating browsers get 304, and a gzip variant if the
+ * browser accepts it.
+ * <p>
+ * Connections are persistent as in HTTP/1.1. Pipelined requests are answered in
+ * order, as each one is answered before the next is read, and the responses of a
+ * read are flushed together. A connection is closed after the response to a request
+ * which doesn't keep it alive, after {@code maxRequests} requests, or when it is idle,
+ * see {@link IdleStateEvent}.
+ * <p>
+ * A file which isn't cached yet is loaded off the event loop. Meanwhile reading stops
+ * and requests which were already read wait in a queue, so the order is kept.
+ */
 public class HttpRequestHandler
         extends SimpleChannelInboundHandler<FullHttpRequest> {
     private final String wsUri;
-    private static final File INDEX;
+    private final StaticFiles staticFiles;
+    private final int maxRequests;
+    private int requests;
+    /* Set once a response closes the connection, later pipelined requests are dropped */
+    private boolean closing;
+    /* Completes when the last response is written */
+    private ChannelFuture lastResponse;
+    /* Requests read while a file is loaded, retained */
+    private final Queue<FullHttpRequest> waiting = new ArrayDeque<>();
+    private boolean loading;
 
-    static {
-        URL location = HttpRequestHandler.class
-                .getProtectionDomain()
-                .getCodeSource().getLocation();
-        try {
-            String path = location.toURI() + "index.html";
-            path = !path.contains("file:") ? path : path.substring(5);
-            INDEX = new File(path);
-        } catch(URISyntaxException e) {
-            throw new IllegalStateException(
-                    "Unable to locate index.html", e
-            );
-        }
-    }
-
-    public HttpRequestHandler(String wsUri) {
+    public HttpRequestHandler(String wsUri, StaticFiles staticFiles, int maxRequests) {
+        if(maxRequests < 1) throw new IllegalArgumentException("maxRequests: " + maxRequests);
         this.wsUri = wsUri;
+        this.staticFiles = staticFiles;
+        this.maxRequests = maxRequests;
     }
 
     @Override
     public void channelRead0(ChannelHandlerContext ctx,
                              FullHttpRequest request)
             throws Exception {
+        if(loading) {
+            waiting.add(request.retain());
+            return;
+        }
+        handle(ctx, request);
+    }
+
+    private void handle(final ChannelHandlerContext ctx, final FullHttpRequest request) throws Exception {
+        if(closing) return;
         if(wsUri.equalsIgnoreCase(request.getUri())) {
             ctx.fireChannelRead(request.retain());
-        } else {
-            if(HttpHeaders.is100ContinueExpected(request)) {
-                send100Continue(ctx);
+            return;
+        }
+        // 100 Continue was sent by the aggregator when the headers came in
+        if(++requests >= maxRequests || !HttpHeaders.isKeepAlive(request)) {
+            closing = true;
+        }
+        HttpMethod method = request.getMethod();
+        if(!HttpMethod.GET.equals(method) && !HttpMethod.HEAD.equals(method)) {
+            sendError(ctx, request, HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+        String path = new QueryStringDecoder(request.getUri()).path();
+        Future<StaticFile> future = staticFiles.get(path, ctx.executor());
+        if(future.isDone()) {
+            respond(ctx, request, future);
+            return;
+        }
+        loading = true;
+        updateAutoRead(ctx);
+        request.retain();
+        future.addListener(new FutureListener<StaticFile>() {
+            @Override
+            public void operationComplete(Future<StaticFile> future) {
+                loading = false;
+                try {
+                    try {
+                        if(ctx.channel().isActive()) {
+                            respond(ctx, request, future);
+                        } else if(future.isSuccess() && future.getNow() != null) {
+                            future.getNow().release();
+                        }
+                    } finally {
+                        request.release();
+                    }
+                    handleWaiting(ctx);
+                } catch(Exception e) {
+                    ctx.fireExceptionCaught(e);
+                }
+                ctx.flush();
+                updateAutoRead(ctx);
             }
-            RandomAccessFile file = new RandomAccessFile(INDEX, "r");
-            HttpResponse response = new DefaultHttpResponse(
-                    request.getProtocolVersion(), HttpResponseStatus.OK
-            );
-            response.headers().set(
-                    HttpHeaders.Names.CONTENT_TYPE,
-                    "text/plain; charset=UTF-8"
-            );
-            boolean keepAlive = HttpHeaders.isKeepAlive(request);
-            if(keepAlive) {
-                response.headers().set(
-                        HttpHeaders.Names.CONTENT_LENGTH,
-                        file.length()
-                );
-                response.headers().set(
-                        HttpHeaders.Names.CONNECTION,
-                        HttpHeaders.Values.KEEP_ALIVE);
+        });
+    }
+
+    private void respond(ChannelHandlerContext ctx, FullHttpRequest request, Future<StaticFile> future)
+            throws Exception {
+        if(!future.isSuccess()) {
+            ctx.fireExceptionCaught(future.cause());
+            return;
+        }
+        StaticFile file = future.getNow();
+        if(file == null) {
+            sendError(ctx, request, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        try {
+            sendFile(ctx, request, file);
+        } finally {
+            file.release();
+        }
+        if(!ctx.channel().isWritable()) {
+            // Stop reading pipelined requests until the client catches up
+            ctx.flush();
+            updateAutoRead(ctx);
+        }
+    }
+
+    private void handleWaiting(ChannelHandlerContext ctx) throws Exception {
+        FullHttpRequest request;
+        while(!loading && (request = waiting.poll()) != null) {
+            try {
+                handle(ctx, request);
+            } finally {
+                request.release();
             }
-            ctx.write(response);
+        }
+    }
+
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        ctx.channel().config().setAutoRead(!loading && ctx.channel().isWritable());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for(FullHttpRequest request; (request = waiting.poll()) != null; ) {
+            request.release();
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        ctx.flush();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        updateAutoRead(ctx);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if(evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+            // No request for the keep-alive timeout, unless a response is still being sent
+            if(lastResponse == null || lastResponse.isDone()) ctx.close();
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    private void sendFile(ChannelHandlerContext ctx, FullHttpRequest request, StaticFile file)
+            throws Exception {
+        if(isNotModified(request, file)) {
+            FullHttpResponse response = new DefaultFullHttpResponse(
+                    request.getProtocolVersion(), HttpResponseStatus.NOT_MODIFIED);
+            setValidators(response, file);
+            send(ctx, request, response);
+            return;
+        }
+        boolean gzip = file.hasGzip() && acceptsGzip(request);
+        boolean head = HttpMethod.HEAD.equals(request.getMethod());
+        HttpResponse response;
+        if(file.isInMemory() && !head) {
+            response = new DefaultFullHttpResponse(request.getProtocolVersion(),
+                    HttpResponseStatus.OK, file.content(gzip));
+        } else {
+            response = new DefaultHttpResponse(request.getProtocolVersion(), HttpResponseStatus.OK);
+        }
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, file.getContentType());
+        HttpHeaders.setContentLength(response, file.getLength(gzip));
+        setValidators(response, file);
+        if(file.hasGzip()) {
+            response.headers().set(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+        }
+        if(gzip) {
+            response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+        }
+        if(response instanceof FullHttpResponse) {
+            send(ctx, request, response);
+            return;
+        }
+        ctx.write(response);
+        if(!head) {
             if(ctx.pipeline().get(SslHandler.class) == null) {
-                ctx.write(new DefaultFileRegion(
-                        file.getChannel(), 0, file.length()));
+                ctx.write(file.region(gzip));
             } else {
-                ctx.write(new ChunkedNioFile(file.getChannel()));
+                ctx.write(file.chunked(gzip));
             }
-            ChannelFuture future = ctx.writeAndFlush(
-                    LastHttpContent.EMPTY_LAST_CONTENT);
-            if(!keepAlive) {
-                future.addListener(ChannelFutureListener.CLOSE);
+        }
+        send(ctx, request, LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    /**
+     * Writes the last part of a response, it is flushed with the other responses of the read.
+     * Closes the connection after it unless it is kept alive.
+     */
+    private void send(ChannelHandlerContext ctx, FullHttpRequest request, HttpObject last) {
+        if(last instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) last;
+            // A 304 has no body, a Content-Length would claim the length of the file
+            if(!response.headers().contains(HttpHeaders.Names.CONTENT_LENGTH)
+                    && !HttpResponseStatus.NOT_MODIFIED.equals(response.getStatus())) {
+                HttpHeaders.setContentLength(response,
+                        last instanceof FullHttpResponse ? ((FullHttpResponse) last).content().readableBytes() : 0);
             }
+            // Sets close, or keep-alive for HTTP/1.0 which closes by default
+            HttpHeaders.setKeepAlive(response, !closing);
+        }
+        lastResponse = ctx.write(last);
+        if(closing) {
+            lastResponse.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static void setValidators(HttpResponse response, StaticFile file) {
+        response.headers().set(HttpHeaders.Names.ETAG, file.getEtag());
+        HttpHeaders.setDateHeader(response, HttpHeaders.Names.LAST_MODIFIED, new Date(file.getLastModified()));
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as in RFC 7232.
+     */
+    private static boolean isNotModified(FullHttpRequest request, StaticFile file) {
+        String ifNoneMatch = request.headers().get(HttpHeaders.Names.IF_NONE_MATCH);
+        if(ifNoneMatch != null) {
+            if(ifNoneMatch.trim().equals("*")) return true;
+            for(String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // Weak comparison, a gzip variant is the same file
+                if(tag.startsWith("W/")) tag = tag.substring(2);
+                if(tag.equals(file.getEtag())) return true;
+            }
+            return false;
+        }
+        Date ifModifiedSince = HttpHeaders.getDateHeader(request, HttpHeaders.Names.IF_MODIFIED_SINCE, null);
+        return ifModifiedSince != null && file.getLastModified() <= ifModifiedSince.getTime();
+    }
+
+    private static boolean acceptsGzip(FullHttpRequest request) {
+        return acceptsGzip(request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING));
+    }
+
+    /**
+     * Whether gzip is an acceptable content coding, see RFC 7231 section 5.3.4:
+     * gzip or x-gzip, else the * wildcard, with a q-value above zero.
+     * A q-value which can't be parsed refuses the coding.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if(acceptEncoding == null) return false;
+        double gzip = -1;
+        double any = -1;
+        for(String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            double q = 1;
+            for(int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if(param.regionMatches(true, 0, "q=", 0, 2)) q = qValue(param.substring(2));
+            }
+            if(name.equalsIgnoreCase(HttpHeaders.Values.GZIP) || name.equalsIgnoreCase("x-gzip")) {
+                gzip = Math.max(gzip, q);
+            } else if(name.equals("*")) {
+                any = Math.max(any, q);
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    private static double qValue(String value) {
+        try {
+            double q = Double.parseDouble(value);
+            return q >= 0 && q <= 1 ? q : 0;
+        } catch(NumberFormatException e) {
+            return 0;
         }
     }
 
-    private static void send100Continue(ChannelHandlerContext ctx) {
-        FullHttpResponse response = new DefaultFullHttpResponse(
-                HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE);
+    private void sendError(ChannelHandlerContext ctx, FullHttpRequest request, HttpResponseStatus status) {
+        FullHttpResponse response = new DefaultFullHttpResponse(request.getProtocolVersion(), status,
+                Unpooled.copiedBuffer(status + "\r\n", CharsetUtil.UTF_8));
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        send(ctx, request, response);
     }
 
     @Override
@@ -1,17 +1,48 @@
 package com.nettytut.handlers;
 
+import com.nettytut.idle.IdlePolicy;
+import com.nettytut.idle.WheelIdleStateHandler;
+import com.nettytut.outbound.BackpressureHandler;
+import com.nettytut.outbound.OutboundPolicy;
+import com.nettytut.outbound.OutboundStats;
+import com.nettytut.websocket.FrameBroadcaster;
+import com.nettytut.websocket.PerMessageDeflate;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.group.ChannelGroup;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
 
 public class TextWebSocketFrameHandler
         extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+    /**
+     * Browsers answer pings with pongs, so a peer which is silent for a few ping intervals is dead:
+     * pinged after -Dws.idle.writerSeconds (30), closed after -Dws.idle.readerSeconds (90).
+     */
+    public static final IdlePolicy IDLE_POLICY = IdlePolicy.fromSystemProperties("ws.idle", 90, 30);
+    private static final int GOING_AWAY = 1001;
+
     private final ChannelGroup group;
+    private final OutboundStats outboundStats;
+    private final FrameBroadcaster broadcaster;
 
     public TextWebSocketFrameHandler(ChannelGroup group) {
+        this(group, new OutboundStats());
+    }
+
+    public TextWebSocketFrameHandler(ChannelGroup group, OutboundStats outboundStats) {
+        this(group, outboundStats, PerMessageDeflate.DISABLED);
+    }
+
+    public TextWebSocketFrameHandler(ChannelGroup group, OutboundStats outboundStats, PerMessageDeflate deflate) {
         this.group = group;
+        this.outboundStats = outboundStats;
+        this.broadcaster = new FrameBroadcaster(group, deflate);
     }
 
     @Override
@@ -20,17 +51,37 @@ public class TextWebSocketFrameHandler
         if(evt == WebSocketServerProtocolHandler
                 .ServerHandshakeStateEvent.HANDSHAKE_COMPLETE) {
             ctx.pipeline().remove(HttpRequestHandler.class);
-            group.writeAndFlush(new TextWebSocketFrame(
-                    "Client " + ctx.channel() + " joined"));
+            // Sees frames before they are encoded, so a dropped message is always a whole frame
+            ctx.pipeline().addBefore(ctx.name(), "backpressure",
+                    new BackpressureHandler(OutboundPolicy.DEFAULT, outboundStats));
+            // Idle time is measured at the socket, pongs count as reads.
+            // Replaces the keep-alive timeout of the HTTP requests
+            if (ctx.pipeline().get("idle") != null) ctx.pipeline().remove("idle");
+            if (IDLE_POLICY.isEnabled())
+                ctx.pipeline().addFirst("idle", new WheelIdleStateHandler(IDLE_POLICY));
+            broadcaster.broadcast(new TextWebSocketFrame(
+                    "Client " + ctx.channel() + " joined"), ctx.alloc());
             group.add(ctx.channel());
+        } else if (evt instanceof IdleStateEvent) {
+            handleIdle(ctx, ((IdleStateEvent) evt).state());
         } else {
             super.userEventTriggered(ctx, evt);
         }
     }
 
+    private void handleIdle(ChannelHandlerContext ctx, IdleState state) {
+        if (state == IdleState.READER_IDLE) {
+            // Leaving the group happens on close
+            ctx.writeAndFlush(new CloseWebSocketFrame(GOING_AWAY, "idle"))
+                    .addListener(ChannelFutureListener.CLOSE);
+        } else if (state == IdleState.WRITER_IDLE) {
+            ctx.writeAndFlush(new PingWebSocketFrame());
+        }
+    }
+
     @Override
     public void channelRead0(ChannelHandlerContext ctx,
                              TextWebSocketFrame msg) throws Exception {
-        group.writeAndFlush(msg.retain());
+        broadcaster.broadcast(msg.retain(), ctx.alloc());
     }
 }
@@ -0,0 +1,129 @@
+package com.nettytut.handlers;
+
+import com.nettytut.broadcast.ChatTransport;
+import com.nettytut.idle.WheelIdleStateHandler;
+import com.nettytut.outbound.BackpressureHandler;
+import com.nettytut.outbound.OutboundPolicy;
+import com.nettytut.outbound.OutboundStats;
+import com.nettytut.websocket.FrameBroadcaster;
+import com.nettytut.websocket.WebSocketChatTransport;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.CharBuffer;
+
+/**
+ * Plugs a WebSocket connection into the chat rooms of the telnet server:
+ * the session handler after it, see {@link TelnetServerHandler}, reads the lines
+ * of text frames as commands and its replies are sent as text frames,
+ * an empty line, its keepalive, as a ping.
+ * <p>
+ * The session starts when the handshake is complete,
+ * until then the connection is served by the HTTP handlers.
+ * One instance per connection.
+ */
+public class WebSocketChatAdapter extends ChannelDuplexHandler {
+    private static final int UNSUPPORTED_DATA = 1003;
+
+    private final ChatTransport transport;
+    /* For members whose deflated frames can be shared */
+    private final ChatTransport sharedDeflateTransport;
+    /* Until the member joins a room */
+    private final OutboundStats lobbyOutboundStats;
+    private boolean started;
+
+    public WebSocketChatAdapter(ChatTransport transport, ChatTransport sharedDeflateTransport,
+                                OutboundStats lobbyOutboundStats) {
+        this.transport = transport;
+        this.sharedDeflateTransport = sharedDeflateTransport;
+        this.lobbyOutboundStats = lobbyOutboundStats;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        // The session sees the connection become active at the handshake
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        if (started) super.channelInactive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt == WebSocketServerProtocolHandler.ServerHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+            start(ctx);
+        } else if (started) {
+            // Idle events of the HTTP connection are handled before
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    private void start(ChannelHandlerContext ctx) {
+        started = true;
+        if (ctx.pipeline().get(HttpRequestHandler.class) != null) {
+            ctx.pipeline().remove(HttpRequestHandler.class);
+        }
+        // Sees frames before they are encoded, the rooms set their own policy on it
+        ctx.pipeline().addBefore(ctx.name(), "backpressure",
+                new BackpressureHandler(OutboundPolicy.DEFAULT, lobbyOutboundStats));
+        // Pongs count as reads, the session pings and reaps on idle events
+        if (ctx.pipeline().get("idle") != null) ctx.pipeline().remove("idle");
+        if (TextWebSocketFrameHandler.IDLE_POLICY.isEnabled())
+            ctx.pipeline().addFirst("idle", new WheelIdleStateHandler(TextWebSocketFrameHandler.IDLE_POLICY));
+        ctx.channel().attr(ChatTransport.KEY).set(FrameBroadcaster.SHARED_DEFLATE.matches(ctx.channel())
+                ? sharedDeflateTransport : transport);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof TextWebSocketFrame) {
+            String text;
+            try {
+                text = ((TextWebSocketFrame) msg).text();
+            } finally {
+                ((TextWebSocketFrame) msg).release();
+            }
+            // Like the telnet codec, every line is a command
+            for (String line : text.split("\r?\n")) {
+                ctx.fireChannelRead(line);
+            }
+        } else if (msg instanceof WebSocketFrame) {
+            ((WebSocketFrame) msg).release();
+            ctx.writeAndFlush(new CloseWebSocketFrame(UNSUPPORTED_DATA, "text frames only"))
+                    .addListener(ChannelFutureListener.CLOSE);
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof CharSequence) {
+            msg = ByteBufUtil.encodeString(ctx.alloc(), CharBuffer.wrap((CharSequence) msg), CharsetUtil.UTF_8);
+        }
+        if (!(msg instanceof ByteBuf)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        TextWebSocketFrame frame = WebSocketChatTransport.textFrame((ByteBuf) msg);
+        if (frame.content().isReadable()) {
+            ctx.write(frame, promise);
+        } else {
+            ReferenceCountUtil.release(frame);
+            ctx.write(new PingWebSocketFrame(), promise);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.nettytut.http;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content types of static files by file extension.
+ */
+public final class MimeTypes {
+    public static final String DEFAULT = "application/octet-stream";
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        TYPES.put("html", "text/html; charset=UTF-8");
+        TYPES.put("htm", "text/html; charset=UTF-8");
+        TYPES.put("css", "text/css; charset=UTF-8");
+        TYPES.put("js", "application/javascript; charset=UTF-8");
+        TYPES.put("json", "application/json; charset=UTF-8");
+        TYPES.put("txt", "text/plain; charset=UTF-8");
+        TYPES.put("xml", "application/xml; charset=UTF-8");
+        TYPES.put("svg", "image/svg+xml");
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("wasm", "application/wasm");
+        TYPES.put("gz", "application/gzip");
+    }
+
+    private MimeTypes() {
+    }
+
+    public static String of(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0) return DEFAULT;
+        String type = TYPES.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : DEFAULT;
+    }
+
+    /**
+     * @return true if content of the type gets smaller with gzip,
+     * images and fonts are compressed already
+     */
+    public static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.startsWith("application/javascript")
+                || contentType.startsWith("application/json")
+                || contentType.startsWith("application/xml")
+                || contentType.startsWith("image/svg+xml")
+                || contentType.startsWith("application/wasm");
+    }
+}
@@ -0,0 +1,55 @@
+package com.nettytut.http;
+
+import io.netty.channel.DefaultFileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file channel shared by the cache and the responses which are sending it.
+ * It is closed when the last of them releases it, so a file evicted from the
+ * cache while it is sent stays readable.
+ */
+final class OpenFile extends AbstractReferenceCounted {
+    private final FileChannel channel;
+    private final long length;
+
+    private OpenFile(FileChannel channel, long length) {
+        this.channel = channel;
+        this.length = length;
+    }
+
+    static OpenFile open(Path path, long length) throws IOException {
+        return new OpenFile(FileChannel.open(path, StandardOpenOption.READ), length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return a region of the whole file for sendfile which holds a reference to this file
+     */
+    DefaultFileRegion newRegion() {
+        retain();
+        return new DefaultFileRegion(channel, 0, length) {
+            @Override
+            protected void deallocate() {
+                // Instead of closing the shared channel
+                OpenFile.this.release();
+            }
+        };
+    }
+
+    @Override
+    protected void deallocate() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing was written, so nothing is lost
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.nettytut.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.stream.ChunkedFile;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+/**
+ * A cached static file: its validators and either its content in memory (small files)
+ * or an open channel to send it from (large files), each with an optional gzip variant.
+ * The cache holds one reference, every response being written holds another.
+ */
+public final class StaticFile extends AbstractReferenceCounted {
+    private final Path path;
+    private final Path gzipPath;
+    private final String contentType;
+    private final long length;
+    /* Seconds precision, as in Last-Modified */
+    private final long lastModified;
+    private final String etag;
+    private final ByteBuf content;
+    private final ByteBuf gzipContent;
+    private final OpenFile file;
+    private final OpenFile gzipFile;
+    /* System.nanoTime() of the last check against the file system */
+    volatile long checkedAt;
+
+    StaticFile(Path path, Path gzipPath, String contentType, long length, long lastModified,
+               ByteBuf content, ByteBuf gzipContent, OpenFile file, OpenFile gzipFile) {
+        this.path = path;
+        this.gzipPath = gzipPath;
+        this.contentType = contentType;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.etag = '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+        this.content = content;
+        this.gzipContent = gzipContent;
+        this.file = file;
+        this.gzipFile = gzipFile;
+        this.checkedAt = System.nanoTime();
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    public boolean hasGzip() {
+        return gzipContent != null || gzipFile != null;
+    }
+
+    public long getLength(boolean gzip) {
+        if (!gzip) return length;
+        return gzipContent != null ? gzipContent.readableBytes() : gzipFile.length();
+    }
+
+    /**
+     * @return a retained duplicate of the content, for files in memory
+     */
+    public ByteBuf content(boolean gzip) {
+        return (gzip ? gzipContent : content).duplicate().retain();
+    }
+
+    /**
+     * @return a region to send the file with sendfile, for files not in memory
+     */
+    public Object region(boolean gzip) {
+        return (gzip ? gzipFile : file).newRegion();
+    }
+
+    /**
+     * @return the file in chunks for connections which can't use sendfile, e.g. with TLS
+     */
+    public ChunkedFile chunked(boolean gzip) throws IOException {
+        return new ChunkedFile(new RandomAccessFile((gzip ? gzipPath : path).toFile(), "r"));
+    }
+
+    /**
+     * @return bytes held in memory
+     */
+    long memorySize() {
+        return (content != null ? content.capacity() : 0) + (gzipContent != null ? gzipContent.capacity() : 0);
+    }
+
+    @Override
+    protected void deallocate() {
+        if (content != null) content.release();
+        if (gzipContent != null) gzipContent.release();
+        if (file != null) file.release();
+        if (gzipFile != null) gzipFile.release();
+    }
+}
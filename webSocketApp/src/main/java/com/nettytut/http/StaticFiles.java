@@ -0,0 +1,319 @@
+package com.nettytut.http;
+
+import com.nettytut.transport.BufferAllocators;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Static files under a root directory, kept in an LRU cache.
+ * Small files are read once into pooled direct buffers together with a gzip
+ * variant; large files are kept open and sent with sendfile, using a
+ * precompressed {@code .gz} sibling if there is one. Cached files are checked
+ * against the file system at most every {@code checkMillis}, so edits show up.
+ * <p>
+ * Only a fresh cache hit is answered in the calling thread. Misses and checks touch
+ * the file system and compress, so they run on a loader pool and the result is
+ * delivered on the executor of the caller, usually the event loop of the connection.
+ * Symbolic links are followed only as long as the file really is under the root.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code http.root} - directory of the files, default the directory of the classes.</li>
+ *     <li>{@code http.cache.maxFileBytes} - larger files aren't held in memory, default 64KiB.</li>
+ *     <li>{@code http.cache.maxBytes} - memory for cached content, default 32MiB.</li>
+ *     <li>{@code http.cache.maxEntries} - cached files, which bounds open file descriptors, default 1024.</li>
+ *     <li>{@code http.cache.checkMillis} - how often a cached file is checked for changes, default 1000.</li>
+ *     <li>{@code http.loaderThreads} - threads loading and checking files, default half of the cores, at least 1.</li>
+ * </ul>
+ */
+public class StaticFiles {
+    public static final String INDEX = "index.html";
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final Path root;
+    private final Executor loader;
+    private final int maxFileBytes;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long checkNanos;
+    /* Access ordered, so the eldest entry is the least recently used */
+    private final LinkedHashMap<Path, StaticFile> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long memorySize;
+
+    /**
+     * Loads on the loader, e.g. {@link io.netty.util.concurrent.ImmediateExecutor} to load in the calling thread.
+     */
+    public StaticFiles(Path root, Executor loader, int maxFileBytes, long maxBytes, int maxEntries, long checkMillis) {
+        this.root = root.toAbsolutePath().normalize();
+        this.loader = loader;
+        this.maxFileBytes = maxFileBytes;
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.checkNanos = TimeUnit.MILLISECONDS.toNanos(checkMillis);
+    }
+
+    public static StaticFiles fromSystemProperties() {
+        String root = System.getProperty("http.root");
+        int threads = Integer.getInteger("http.loaderThreads",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        ThreadPoolExecutor loader = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("http-files", true));
+        loader.allowCoreThreadTimeOut(true);
+        return new StaticFiles(
+                root != null ? Paths.get(root) : classesDirectory(), loader,
+                Integer.getInteger("http.cache.maxFileBytes", 64 * 1024),
+                Long.getLong("http.cache.maxBytes", 32 * 1024 * 1024),
+                Integer.getInteger("http.cache.maxEntries", 1024),
+                Long.getLong("http.cache.checkMillis", 1000));
+    }
+
+    private static Path classesDirectory() {
+        try {
+            return Paths.get(StaticFiles.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Unable to locate the classes directory", e);
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Looks up the file of a decoded request path, {@code /} and directories mean their index.
+     * @return the future file, retained for the caller, or null if there is no such file under the root;
+     * it notifies its listeners on the executor
+     */
+    public Future<StaticFile> get(String requestPath, EventExecutor executor) {
+        final Path key = key(requestPath);
+        if (key == null) return executor.newSucceededFuture(null);
+        StaticFile cached = retainFresh(key);
+        if (cached != null) return executor.newSucceededFuture(cached);
+        final Promise<StaticFile> promise = executor.newPromise();
+        try {
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        StaticFile file = lookup(key);
+                        if (!promise.trySuccess(file) && file != null) file.release();
+                    } catch (IOException | RuntimeException e) {
+                        promise.tryFailure(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Looks up the file in the calling thread, see {@link #get(String, EventExecutor)}.
+     */
+    public StaticFile get(String requestPath) throws IOException {
+        Path key = key(requestPath);
+        if (key == null) return null;
+        StaticFile cached = retainFresh(key);
+        return cached != null ? cached : lookup(key);
+    }
+
+    /**
+     * @return the absolute path or null if it is outside of the root
+     */
+    Path resolve(String requestPath) throws IOException {
+        Path key = key(requestPath);
+        return key != null ? resolve(key) : null;
+    }
+
+    /**
+     * Checks the cached file against the file system or loads it.
+     */
+    private StaticFile lookup(Path key) throws IOException {
+        Path path = resolve(key);
+        StaticFile cached = retainCached(key);
+        if (cached != null) {
+            BasicFileAttributes attributes = path != null ? attributes(path) : null;
+            if (attributes != null && attributes.size() == cached.getLength(false)
+                    && lastModified(attributes) == cached.getLastModified()) {
+                cached.checkedAt = System.nanoTime();
+                return cached;
+            }
+            cached.release();
+            remove(key, cached);
+        }
+        if (path == null) return null;
+        BasicFileAttributes attributes = attributes(path);
+        if (attributes == null || !attributes.isRegularFile()) return null;
+        return put(key, load(path, attributes));
+    }
+
+    /**
+     * Maps the request path to a cache key without touching the file system.
+     * @return the absolute path or null if it is outside of the root
+     */
+    private Path key(String requestPath) {
+        if (requestPath.indexOf('\0') >= 0) return null;
+        String relative = requestPath;
+        while (relative.startsWith("/")) relative = relative.substring(1);
+        if (relative.isEmpty() || relative.endsWith("/")) relative += INDEX;
+        Path path = root.resolve(relative).normalize();
+        return path.startsWith(root) ? path : null;
+    }
+
+    /**
+     * @return the file of the key, or null if it doesn't exist or links to outside of the root
+     */
+    private Path resolve(Path key) throws IOException {
+        Path path = Files.isDirectory(key) ? key.resolve(INDEX) : key;
+        try {
+            // The key is under the root by its name, a link on the way may lead elsewhere
+            return path.toRealPath().startsWith(root.toRealPath()) ? path : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the cached file if it has been checked recently, retained for the caller
+     */
+    private synchronized StaticFile retainFresh(Path key) {
+        StaticFile cached = entries.get(key);
+        if (cached == null || System.nanoTime() - cached.checkedAt >= checkNanos) return null;
+        return (StaticFile) cached.retain();
+    }
+
+    private synchronized StaticFile retainCached(Path key) {
+        StaticFile cached = entries.get(key);
+        return cached != null ? (StaticFile) cached.retain() : null;
+    }
+
+    private synchronized void remove(Path path, StaticFile file) {
+        if (entries.get(path) != file) return;
+        entries.remove(path);
+        memorySize -= file.memorySize();
+        file.release();
+    }
+
+    /**
+     * Caches the loaded file unless another thread was first.
+     * @return the cached file retained for the caller
+     */
+    private synchronized StaticFile put(Path path, StaticFile loaded) {
+        StaticFile existing = entries.get(path);
+        if (existing != null) {
+            loaded.release();
+            return (StaticFile) existing.retain();
+        }
+        entries.put(path, loaded);
+        memorySize += loaded.memorySize();
+        Iterator<Map.Entry<Path, StaticFile>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || memorySize > maxBytes) && eldest.hasNext()) {
+            StaticFile evicted = eldest.next().getValue();
+            if (evicted == loaded) break;
+            eldest.remove();
+            memorySize -= evicted.memorySize();
+            evicted.release();
+        }
+        return (StaticFile) loaded.retain();
+    }
+
+    private StaticFile load(Path path, BasicFileAttributes attributes) throws IOException {
+        String contentType = MimeTypes.of(path.getFileName().toString());
+        long length = attributes.size();
+        if (length <= maxFileBytes) {
+            ByteBuf content = read(path, (int) length);
+            ByteBuf gzipContent = null;
+            if (MimeTypes.isCompressible(contentType)) {
+                gzipContent = gzip(content);
+                if (gzipContent.readableBytes() >= length) {
+                    gzipContent.release();
+                    gzipContent = null;
+                }
+            }
+            return new StaticFile(path, null, contentType, length, lastModified(attributes),
+                    content, gzipContent, null, null);
+        }
+        Path gzipPath = path.resolveSibling(path.getFileName() + GZIP_SUFFIX);
+        BasicFileAttributes gzipAttributes = attributes(gzipPath);
+        // A stale variant is worse than none
+        boolean hasGzip = gzipAttributes != null && gzipAttributes.isRegularFile()
+                && lastModified(gzipAttributes) >= lastModified(attributes);
+        OpenFile file = OpenFile.open(path, length);
+        OpenFile gzipFile = null;
+        try {
+            if (hasGzip) gzipFile = OpenFile.open(gzipPath, gzipAttributes.size());
+        } catch (IOException e) {
+            file.release();
+            throw e;
+        }
+        return new StaticFile(path, hasGzip ? gzipPath : null, contentType, length, lastModified(attributes),
+                null, null, file, gzipFile);
+    }
+
+    private static ByteBuf read(Path path, int length) throws IOException {
+        ByteBuf content = BufferAllocators.POOLED_DIRECT.directBuffer(length, length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.isWritable()) {
+                if (content.writeBytes(channel, content.writableBytes()) < 0) break;
+            }
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        }
+        return content;
+    }
+
+    private static ByteBuf gzip(ByteBuf content) throws IOException {
+        ByteBuf compressed = BufferAllocators.POOLED_DIRECT.directBuffer(content.readableBytes() / 2 + 64);
+        // Compressed once per load, so it may as well be the best compression
+        try (OutputStream out = new GZIPOutputStream(new ByteBufOutputStream(compressed)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            content.getBytes(content.readerIndex(), out, content.readableBytes());
+        } catch (IOException e) {
+            compressed.release();
+            throw e;
+        }
+        return compressed;
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static long lastModified(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() / 1000 * 1000;
+    }
+}
@@ -0,0 +1,66 @@
+package com.nettytut.initializer;
+
+import com.nettytut.auth.Authenticator;
+import com.nettytut.broadcast.ChatTransport;
+import com.nettytut.handlers.TelnetServerHandler;
+import com.nettytut.handlers.WebSocketChatAdapter;
+import com.nettytut.http.StaticFiles;
+import com.nettytut.metrics.ChatMetrics;
+import com.nettytut.model.ChatRooms;
+import com.nettytut.model.SessionRegistry;
+import com.nettytut.server.ChatServer;
+import com.nettytut.websocket.PerMessageDeflate;
+import com.nettytut.websocket.WebSocketChatTransport;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.concurrent.EventExecutorGroup;
+
+/**
+ * Serves the chat page over HTTP like {@link WebSocketServerInitializer}, but the
+ * WebSocket connections are sessions of the telnet chat: they sign in, join and
+ * talk in the same rooms as the telnet clients, see {@link WebSocketChatAdapter}.
+ */
+public class WebChatServerInitializer
+        extends WebSocketUpgradeInitializer {
+    private final ChatRooms chatRooms;
+    private final SessionRegistry sessionRegistry;
+    /* Runs the sessions if set, so they don't block the I/O event loops */
+    private final EventExecutorGroup businessGroup;
+    private final ChatMetrics metrics;
+    private final Authenticator authenticator;
+    /* Shared by all connections, the rooms encode a line once per transport */
+    private final ChatTransport transport = new WebSocketChatTransport();
+    private final ChatTransport sharedDeflateTransport;
+
+    public WebChatServerInitializer(ChatServer server, String wsUri) {
+        this(server.getChatRooms(), server.getSessionRegistry(), server.getBusinessGroup(), server.getMetrics(),
+                server.getAuthenticator(), wsUri, StaticFiles.fromSystemProperties(),
+                PerMessageDeflate.fromSystemProperties());
+    }
+
+    public WebChatServerInitializer(ChatRooms chatRooms,
+                                    SessionRegistry sessionRegistry,
+                                    EventExecutorGroup businessGroup,
+                                    ChatMetrics metrics,
+                                    Authenticator authenticator,
+                                    String wsUri,
+                                    StaticFiles staticFiles,
+                                    PerMessageDeflate deflate) {
+        // Chat lines are short, longer messages are refused like by the telnet line decoder
+        super(wsUri, staticFiles, deflate, ChatServerInitializer.MAX_FRAME_LENGTH);
+        this.chatRooms = chatRooms;
+        this.sessionRegistry = sessionRegistry;
+        this.businessGroup = businessGroup;
+        this.metrics = metrics;
+        this.authenticator = authenticator;
+        this.sharedDeflateTransport = deflate.isShared() ? new WebSocketChatTransport(deflate) : transport;
+    }
+
+    @Override
+    protected void addMessageHandlers(ChannelPipeline pipeline) {
+        // Frames are turned into chat lines and back
+        pipeline.addLast(new WebSocketChatAdapter(transport, sharedDeflateTransport,
+                chatRooms.getLobbyOutboundStats()));
+        // and then the same business logic as for telnet clients.
+        pipeline.addLast(businessGroup, new TelnetServerHandler(chatRooms, sessionRegistry, metrics, authenticator));
+    }
+}
@@ -0,0 +1,50 @@
+package com.nettytut.initializer;
+
+import com.nettytut.handlers.BinaryWebSocketFrameHandler;
+import com.nettytut.handlers.TextWebSocketFrameHandler;
+import com.nettytut.http.StaticFiles;
+import com.nettytut.outbound.OutboundStats;
+import com.nettytut.websocket.PerMessageDeflate;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.group.ChannelGroup;
+
+/**
+ * Serves static files, among them the chat page, over HTTP and upgrades
+ * requests of the WebSocket path, whose messages are broadcast to the group.
+ * After the handshake the HTTP handlers are replaced by the WebSocket codec,
+ * see {@link TextWebSocketFrameHandler}.
+ */
+public class WebSocketServerInitializer
+        extends WebSocketUpgradeInitializer {
+    /* Fragmented messages are aggregated up to this size */
+    public static final int MAX_MESSAGE_LENGTH = Integer.getInteger("ws.maxMessageLength", 1024 * 1024);
+    private final ChannelGroup group;
+    private final OutboundStats outboundStats;
+
+    public WebSocketServerInitializer(ChannelGroup group, String wsUri) {
+        this(group, wsUri, new OutboundStats());
+    }
+
+    public WebSocketServerInitializer(ChannelGroup group, String wsUri, OutboundStats outboundStats) {
+        this(group, wsUri, outboundStats, StaticFiles.fromSystemProperties());
+    }
+
+    public WebSocketServerInitializer(ChannelGroup group, String wsUri, OutboundStats outboundStats,
+                                      StaticFiles staticFiles) {
+        this(group, wsUri, outboundStats, staticFiles, PerMessageDeflate.fromSystemProperties());
+    }
+
+    public WebSocketServerInitializer(ChannelGroup group, String wsUri, OutboundStats outboundStats,
+                                      StaticFiles staticFiles, PerMessageDeflate deflate) {
+        super(wsUri, staticFiles, deflate, MAX_MESSAGE_LENGTH);
+        this.group = group;
+        this.outboundStats = outboundStats;
+    }
+
+    @Override
+    protected void addMessageHandlers(ChannelPipeline pipeline) {
+        // Text and binary frames are broadcast to the group
+        pipeline.addLast(new TextWebSocketFrameHandler(group, outboundStats, getDeflate()));
+        pipeline.addLast(new BinaryWebSocketFrameHandler(group, getDeflate()));
+    }
+}
@@ -0,0 +1,94 @@
+package com.nettytut.initializer;
+
+import com.nettytut.handlers.HttpRequestHandler;
+import com.nettytut.http.StaticFiles;
+import com.nettytut.idle.IdlePolicy;
+import com.nettytut.idle.WheelIdleStateHandler;
+import com.nettytut.websocket.FrameFragmenter;
+import com.nettytut.websocket.PerMessageDeflate;
+import com.nettytut.websocket.PerMessageDeflateHandshakeHandler;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * Serves static files over HTTP and upgrades requests of the WebSocket path.
+ * Subclasses add the handlers of the WebSocket messages, which get whole messages
+ * of at most the maximum length given to the constructor.
+ */
+public abstract class WebSocketUpgradeInitializer
+        extends ChannelInitializer<Channel> {
+    /* Requests are aggregated in memory, so their size is bounded */
+    public static final int MAX_CONTENT_LENGTH = Integer.getInteger("ws.maxContentLength", 64 * 1024);
+    public static final int MAX_FRAME_PAYLOAD_LENGTH = Integer.getInteger("ws.maxFramePayloadLength", 64 * 1024);
+    /* Bigger messages are sent in fragments, zero sends them whole */
+    public static final int FRAGMENT_BYTES = Integer.getInteger("ws.fragmentBytes", 16 * 1024);
+    /* Requests a persistent connection serves before it is closed, so clients spread over servers */
+    public static final int MAX_REQUESTS_PER_CONNECTION = Integer.getInteger("http.maxRequestsPerConnection", 1000);
+    /**
+     * A persistent connection without a request for -Dhttp.idle.readerSeconds (30) is closed,
+     * until the WebSocket handshake sets the idle policy of the WebSocket connection.
+     */
+    public static final IdlePolicy KEEP_ALIVE_POLICY = IdlePolicy.fromSystemProperties("http.idle", 30, 0);
+    private final String wsUri;
+    /* Shared by all connections, so a file is cached once */
+    private final StaticFiles staticFiles;
+    private final PerMessageDeflate deflate;
+    private final int maxMessageLength;
+
+    /**
+     * @param maxMessageLength fragmented messages are aggregated up to this size
+     */
+    protected WebSocketUpgradeInitializer(String wsUri, StaticFiles staticFiles, PerMessageDeflate deflate,
+                                          int maxMessageLength) {
+        this.wsUri = wsUri;
+        this.staticFiles = staticFiles;
+        this.deflate = deflate;
+        this.maxMessageLength = maxMessageLength;
+    }
+
+    protected PerMessageDeflate getDeflate() {
+        return deflate;
+    }
+
+    @Override
+    protected void initChannel(Channel ch) throws Exception {
+        ChannelPipeline pipeline = ch.pipeline();
+        // Idle persistent connections are closed,
+        if(KEEP_ALIVE_POLICY.isEnabled()) {
+            pipeline.addLast("idle", new WheelIdleStateHandler(KEEP_ALIVE_POLICY));
+        }
+        // HTTP requests and responses,
+        pipeline.addLast(new HttpServerCodec());
+        // WebSocket messages are fragmented next to the frame encoder, which replaces the codec,
+        if(FRAGMENT_BYTES > 0) {
+            pipeline.addLast(new FrameFragmenter(FRAGMENT_BYTES));
+        }
+        // files are written in chunks when sendfile isn't possible,
+        pipeline.addLast(new ChunkedWriteHandler());
+        // requests are handled whole,
+        pipeline.addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+        // everything but the WebSocket path is a static file,
+        pipeline.addLast(new HttpRequestHandler(wsUri, staticFiles, MAX_REQUESTS_PER_CONNECTION));
+        // the WebSocket path is upgraded, compressed if the client offers permessage-deflate,
+        if(deflate.isEnabled()) {
+            pipeline.addLast(new PerMessageDeflateHandshakeHandler(deflate, MAX_FRAME_PAYLOAD_LENGTH));
+        }
+        pipeline.addLast(new WebSocketServerProtocolHandler(wsUri, null, deflate.isEnabled(),
+                MAX_FRAME_PAYLOAD_LENGTH));
+        // fragmented messages are put together
+        pipeline.addLast(new WebSocketFrameAggregator(maxMessageLength));
+        // and handled by the subclass.
+        addMessageHandlers(pipeline);
+    }
+
+    /**
+     * Adds the handlers of the WebSocket messages after the upgrade handlers.
+     */
+    protected abstract void addMessageHandlers(ChannelPipeline pipeline);
+}
@@ -1,7 +0,0 @@
-package com.nettytut.server;
-
-public class ServerTest {
-    public static void main(String[] args) {
-        System.out.println("Running");
-    }
-}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.nettytut.server;
+
+import com.nettytut.initializer.WebChatServerInitializer;
+import io.netty.channel.ChannelFuture;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The telnet chat server which browsers can join too: telnet clients connect to one port,
+ * the chat page and its WebSocket connections are served on another one.
+ * Both share the rooms, the users and the event loops, so a message is routed once
+ * and encoded once per kind of client.
+ */
+public class UnifiedChatServer {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 2) {
+            System.err.println("Please give telnet port and WebSocket port as arguments");
+            System.exit(1);
+        }
+        final ChatServer endpoint = new ChatServer();
+        ChannelFuture future;
+        try {
+            future = endpoint.start(new InetSocketAddress(Integer.parseInt(args[0])));
+            endpoint.bind(new InetSocketAddress(Integer.parseInt(args[1])),
+                    new WebChatServerInitializer(endpoint, WebSocketChatServer.WEBSOCKET_PATH))
+                    .syncUninterruptibly();
+        } catch (Throwable t) {
+            // Startup fails as a whole, the event loops of a half started server would keep it running
+            endpoint.destroy();
+            throw t;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                endpoint.destroy();
+            }
+        });
+        future.syncUninterruptibly();
+        future.channel().closeFuture().syncUninterruptibly();
+    }
+}
@@ -0,0 +1,79 @@
+package com.nettytut.server;
+
+import com.nettytut.initializer.WebSocketServerInitializer;
+import com.nettytut.transport.ServerConfig;
+import com.nettytut.transport.ServerOptions;
+import com.nettytut.transport.TransportFactory;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Chat server for browsers: serves the chat page and broadcasts the text frames
+ * of every WebSocket connection on {@value #WEBSOCKET_PATH} to all of them.
+ * Transport, threads and socket options are configured like the telnet chat server's,
+ * see {@link TransportFactory}, {@link ServerConfig} and {@link ServerOptions}.
+ */
+public class WebSocketChatServer {
+    public static final String WEBSOCKET_PATH = "/ws";
+
+    /* Connections which completed the WebSocket handshake */
+    private final ChannelGroup chatGroup =
+            new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+    private final ChannelGroup serverChannels =
+            new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+    private final TransportFactory transportFactory = TransportFactory.fromSystemProperties();
+    private final ServerConfig config = ServerConfig.fromSystemProperties();
+    private final EventLoopGroup bossGroup = config.newBossGroup(transportFactory);
+    private final EventLoopGroup workerGroup = config.newWorkerGroup(transportFactory);
+
+    public ChannelFuture start(InetSocketAddress address) {
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        transportFactory.configure(bootstrap.group(bossGroup, workerGroup));
+        ServerOptions.fromSystemProperties().apply(bootstrap)
+                .childHandler(createInitializer(chatGroup));
+        List<ChannelFuture> futures = transportFactory.bind(bootstrap, address);
+        // Server channels are kept in the group to be closed together
+        for(ChannelFuture bound : futures) {
+            serverChannels.add(bound.channel());
+        }
+        return futures.get(0);
+    }
+
+    protected ChannelInitializer<Channel> createInitializer(ChannelGroup group) {
+        return new WebSocketServerInitializer(group, WEBSOCKET_PATH);
+    }
+
+    public void destroy() {
+        serverChannels.close();
+        chatGroup.close();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length != 1) {
+            System.err.println("Please give port as argument");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        final WebSocketChatServer endpoint = new WebSocketChatServer();
+        ChannelFuture future = endpoint.start(new InetSocketAddress(port));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                endpoint.destroy();
+            }
+        });
+        future.syncUninterruptibly();
+        future.channel().closeFuture().syncUninterruptibly();
+    }
+}
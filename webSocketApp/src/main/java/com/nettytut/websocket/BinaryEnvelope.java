@@ -0,0 +1,67 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Compact envelope of binary messages:
+ * <pre>
+ * type (1 byte) | sender length (1 byte) | sender (UTF-8) | payload
+ * </pre>
+ * Clients send an empty sender, the server stamps in the sending connection.
+ * The payload is opaque to the server and never copied.
+ */
+public final class BinaryEnvelope {
+    public static final int HEADER_BYTES = 2;
+    public static final int MAX_SENDER_BYTES = 255;
+    /* A chat message, the only type clients send for now */
+    public static final byte MESSAGE = 1;
+
+    private BinaryEnvelope() {
+    }
+
+    /**
+     * Whether the envelope is one a client may send: a known type and no sender.
+     */
+    public static boolean isValidFromClient(ByteBuf envelope) {
+        return envelope.readableBytes() >= HEADER_BYTES
+                && envelope.getByte(envelope.readerIndex()) == MESSAGE
+                && envelope.getByte(envelope.readerIndex() + 1) == 0;
+    }
+
+    public static byte getType(ByteBuf envelope) {
+        return envelope.getByte(envelope.readerIndex());
+    }
+
+    public static String getSender(ByteBuf envelope) {
+        int length = envelope.getUnsignedByte(envelope.readerIndex() + 1);
+        return envelope.toString(envelope.readerIndex() + HEADER_BYTES, length, CharsetUtil.UTF_8);
+    }
+
+    /**
+     * The payload as a slice of the envelope.
+     */
+    public static ByteBuf getPayload(ByteBuf envelope) {
+        int offset = HEADER_BYTES + envelope.getUnsignedByte(envelope.readerIndex() + 1);
+        return envelope.slice(envelope.readerIndex() + offset, envelope.readableBytes() - offset);
+    }
+
+    /**
+     * Replaces the header of a client envelope by one with the sender.
+     * The result is a composite of the new header and a retained slice of the payload,
+     * the envelope itself isn't released.
+     */
+    public static ByteBuf stamp(ByteBufAllocator alloc, ByteBuf envelope, byte[] sender) {
+        if (sender.length > MAX_SENDER_BYTES) throw new IllegalArgumentException("sender: " + sender.length);
+        ByteBuf header = alloc.buffer(HEADER_BYTES + sender.length);
+        header.writeByte(getType(envelope));
+        header.writeByte(sender.length);
+        header.writeBytes(sender);
+        CompositeByteBuf stamped = alloc.compositeBuffer(2);
+        stamped.addComponent(header);
+        stamped.addComponent(getPayload(envelope).retain());
+        return stamped.writerIndex(stamped.capacity());
+    }
+}
@@ -0,0 +1,69 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Netty 4.0's frame decoder checks the payload of every text frame for UTF-8,
+ * extensions or not, so it closes the connection on a deflated one. This handler
+ * goes before the decoder and turns the header of a deflated text frame into one of
+ * a binary frame with {@link #TEXT_MARKER} set, which {@link PerMessageDeflateCodec}
+ * turns back into a text frame once inflated. Frame headers are rewritten in place,
+ * payloads are skipped.
+ */
+class DeflatedTextFrameRewriter extends ChannelInboundHandlerAdapter {
+    /* RSV3, a text message when set with RSV1 on a binary frame */
+    static final int TEXT_MARKER = 0x1;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int RSV1_BIT = PerMessageDeflate.RSV1 << 4;
+    private static final int TEXT_MARKER_BIT = TEXT_MARKER << 4;
+
+    /* Header bytes read of the current frame, and its length once known */
+    private int headerRead;
+    private int headerLength;
+    private int extendedLengthBytes;
+    private long payloadLength;
+    private long payloadRemaining;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) rewrite((ByteBuf) msg);
+        super.channelRead(ctx, msg);
+    }
+
+    private void rewrite(ByteBuf buf) {
+        int i = buf.readerIndex();
+        int end = buf.writerIndex();
+        while (i < end) {
+            if (payloadRemaining > 0) {
+                int skip = (int) Math.min(payloadRemaining, end - i);
+                payloadRemaining -= skip;
+                i += skip;
+                continue;
+            }
+            int b = buf.getUnsignedByte(i);
+            if (headerRead == 0) {
+                if ((b & RSV1_BIT) != 0 && (b & 0x0f) == OPCODE_TEXT) {
+                    buf.setByte(i, (b & 0xf0) | TEXT_MARKER_BIT | OPCODE_BINARY);
+                }
+                headerLength = 2;
+                payloadLength = 0;
+            } else if (headerRead == 1) {
+                int length = b & 0x7f;
+                extendedLengthBytes = length == 126 ? 2 : length == 127 ? 8 : 0;
+                if (extendedLengthBytes == 0) payloadLength = length;
+                // Client frames are masked
+                headerLength = 2 + extendedLengthBytes + ((b & 0x80) != 0 ? 4 : 0);
+            } else if (headerRead < 2 + extendedLengthBytes) {
+                payloadLength = payloadLength << 8 | b;
+            }
+            i++;
+            if (++headerRead == headerLength) {
+                payloadRemaining = payloadLength;
+                headerRead = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelMatcher;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Writes a frame to every channel of a group. If permessage-deflate is shared,
+ * the frame is deflated once and the compressed bytes go to all members which
+ * negotiated server_no_context_takeover, the others get the frame as it is
+ * and deflate it themselves if they negotiated the extension.
+ */
+public class FrameBroadcaster {
+    /* Members a deflated broadcast is valid for */
+    public static final ChannelMatcher SHARED_DEFLATE = new ChannelMatcher() {
+        @Override
+        public boolean matches(Channel channel) {
+            PerMessageDeflate.Parameters parameters = channel.attr(PerMessageDeflate.PARAMETERS).get();
+            return parameters != null && parameters.isServerNoContextTakeover();
+        }
+    };
+
+    private final ChannelGroup group;
+    private final PerMessageDeflate deflate;
+
+    public FrameBroadcaster(ChannelGroup group, PerMessageDeflate deflate) {
+        this.group = group;
+        this.deflate = deflate;
+    }
+
+    /**
+     * Writes and flushes the frame, which is released. The members are visited once and
+     * the frame is deflated when the first one which can share it is met, so groups
+     * without such members don't pay for it.
+     */
+    public void broadcast(WebSocketFrame frame, ByteBufAllocator alloc) {
+        boolean compressible = deflate.isShared() && deflate.isCompressible(frame);
+        WebSocketFrame compressed = null;
+        try {
+            for (Channel channel : group) {
+                WebSocketFrame out = frame;
+                if (compressible && SHARED_DEFLATE.matches(channel)) {
+                    if (compressed == null) compressed = deflate.compressShared(frame, alloc);
+                    out = compressed;
+                }
+                channel.writeAndFlush(out.duplicate().retain());
+            }
+        } finally {
+            frame.release();
+            if (compressed != null) compressed.release();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.List;
+
+/**
+ * Sends messages bigger than {@code fragmentBytes} as a first frame and continuation frames,
+ * so control frames, pings among them, aren't stuck behind a big message. Fragments are
+ * retained slices of the message. Goes next to the frame encoder, below backpressure and
+ * compression, which handle whole messages only.
+ */
+public class FrameFragmenter extends MessageToMessageEncoder<WebSocketFrame> {
+    private final int fragmentBytes;
+
+    public FrameFragmenter(int fragmentBytes) {
+        if (fragmentBytes < 1) throw new IllegalArgumentException("fragmentBytes: " + fragmentBytes);
+        this.fragmentBytes = fragmentBytes;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        ByteBuf content = frame.content();
+        if (!frame.isFinalFragment() || content.readableBytes() <= fragmentBytes
+                || !(frame instanceof BinaryWebSocketFrame || frame instanceof TextWebSocketFrame)) {
+            out.add(frame.retain());
+            return;
+        }
+        int index = content.readerIndex();
+        int end = content.writerIndex();
+        ByteBuf first = content.slice(index, fragmentBytes).retain();
+        out.add(frame instanceof TextWebSocketFrame
+                ? new TextWebSocketFrame(false, frame.rsv(), first)
+                : new BinaryWebSocketFrame(false, frame.rsv(), first));
+        for (index += fragmentBytes; index < end; index += fragmentBytes) {
+            int length = Math.min(fragmentBytes, end - index);
+            out.add(new ContinuationWebSocketFrame(index + length == end, 0, content.slice(index, length).retain()));
+        }
+    }
+}
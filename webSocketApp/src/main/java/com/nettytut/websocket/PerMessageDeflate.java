@@ -0,0 +1,276 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate WebSocket extension of RFC 7692: a message is deflated
+ * as a whole, flagged with RSV1 and sent without the trailing empty block.
+ * <p>
+ * With server_no_context_takeover every message is deflated on its own, so
+ * a broadcast deflated once is valid for every member which negotiated it,
+ * see {@link FrameBroadcaster}. Otherwise every connection keeps its deflate
+ * window, which compresses better at the cost of deflating per member.
+ * <p>
+ * Configured with system properties {@code ws.deflate.enabled} (true),
+ * {@code ws.deflate.shared} (true, sets server_no_context_takeover),
+ * {@code ws.deflate.level} (6) and {@code ws.deflate.minBytes} (64,
+ * smaller messages are sent as they are).
+ */
+public final class PerMessageDeflate {
+    public static final String EXTENSION = "permessage-deflate";
+    public static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    /* Flags a compressed message in its first frame */
+    public static final int RSV1 = 0x4;
+    public static final PerMessageDeflate DISABLED = new PerMessageDeflate(false, false, Deflater.DEFAULT_COMPRESSION, 0);
+    /* Parameters a connection negotiated, unset without the extension */
+    public static final AttributeKey<Parameters> PARAMETERS = AttributeKey.valueOf("permessage-deflate");
+    /* Deflate ends a flushed block with it, the extension leaves it out */
+    private static final byte[] EMPTY_BLOCK = {0, 0, (byte) 0xff, (byte) 0xff};
+    /* Java deflates with a 32KiB window only */
+    private static final String MAX_WINDOW_BITS = "15";
+
+    private final boolean enabled;
+    private final boolean shared;
+    private final int level;
+    private final int minBytes;
+    /* Deflates shared broadcasts on the thread which sends them */
+    private final FastThreadLocal<Deflater> sharedDeflaters = new FastThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return newDeflater();
+        }
+    };
+
+    public PerMessageDeflate(boolean enabled, boolean shared, int level, int minBytes) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("level: " + level);
+        if (minBytes < 0) throw new IllegalArgumentException("minBytes: " + minBytes);
+        this.enabled = enabled;
+        this.shared = shared;
+        this.level = level;
+        this.minBytes = minBytes;
+    }
+
+    public static PerMessageDeflate fromSystemProperties() {
+        return new PerMessageDeflate(
+                Boolean.parseBoolean(System.getProperty("ws.deflate.enabled", "true")),
+                Boolean.parseBoolean(System.getProperty("ws.deflate.shared", "true")),
+                Integer.getInteger("ws.deflate.level", 6),
+                Integer.getInteger("ws.deflate.minBytes", 64));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * Accepts the first permessage-deflate offer of a Sec-WebSocket-Extensions
+     * request header which this server supports.
+     *
+     * @return null if there is none or the extension is disabled
+     */
+    public Parameters negotiate(String offers) {
+        if (!enabled || offers == null) return null;
+        for (String offer : offers.split(",")) {
+            String[] params = offer.split(";");
+            if (!EXTENSION.equalsIgnoreCase(params[0].trim())) continue;
+            Parameters accepted = accept(params);
+            if (accepted != null) return accepted;
+        }
+        return null;
+    }
+
+    private Parameters accept(String[] params) {
+        boolean serverNoContextTakeover = shared;
+        boolean clientNoContextTakeover = false;
+        boolean serverMaxWindowBits = false;
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            int eq = param.indexOf('=');
+            String name = (eq < 0 ? param : param.substring(0, eq)).trim().toLowerCase(Locale.ROOT);
+            String value = eq < 0 ? null : param.substring(eq + 1).trim().replace("\"", "");
+            if (name.equals("server_no_context_takeover")) {
+                serverNoContextTakeover = true;
+            } else if (name.equals("client_no_context_takeover")) {
+                clientNoContextTakeover = true;
+            } else if (name.equals("server_max_window_bits")) {
+                if (!MAX_WINDOW_BITS.equals(value)) return null;
+                serverMaxWindowBits = true;
+            } else if (!name.equals("client_max_window_bits")) {
+                // Inflating works with any window, anything else is unknown
+                return null;
+            }
+        }
+        StringBuilder response = new StringBuilder(EXTENSION);
+        if (serverNoContextTakeover) response.append("; server_no_context_takeover");
+        if (clientNoContextTakeover) response.append("; client_no_context_takeover");
+        if (serverMaxWindowBits) response.append("; server_max_window_bits=").append(MAX_WINDOW_BITS);
+        return new Parameters(serverNoContextTakeover, response.toString());
+    }
+
+    Deflater newDeflater() {
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Whether a frame is a whole data message big enough to be deflated.
+     */
+    boolean isCompressible(WebSocketFrame frame) {
+        return frame.isFinalFragment() && (frame.rsv() & RSV1) == 0
+                && (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)
+                && frame.content().readableBytes() >= minBytes;
+    }
+
+    /**
+     * Deflates a message once for all members which negotiated server_no_context_takeover.
+     *
+     * @return the compressed frame, or null if it isn't worth compressing
+     */
+    public WebSocketFrame compressShared(WebSocketFrame frame, ByteBufAllocator alloc) {
+        if (!isCompressible(frame)) return null;
+        Deflater deflater = sharedDeflaters.get();
+        deflater.reset();
+        return compressedFrame(frame, compress(deflater, frame.content(), alloc));
+    }
+
+    static WebSocketFrame compressedFrame(WebSocketFrame frame, ByteBuf compressed) {
+        int rsv = frame.rsv() | RSV1;
+        return frame instanceof TextWebSocketFrame
+                ? new TextWebSocketFrame(true, rsv, compressed)
+                : new BinaryWebSocketFrame(true, rsv, compressed);
+    }
+
+    static WebSocketFrame decompressedFrame(WebSocketFrame frame, ByteBuf content) {
+        int rsv = frame.rsv() & ~(RSV1 | DeflatedTextFrameRewriter.TEXT_MARKER);
+        if (frame instanceof TextWebSocketFrame
+                || frame instanceof BinaryWebSocketFrame && (frame.rsv() & DeflatedTextFrameRewriter.TEXT_MARKER) != 0) {
+            return new TextWebSocketFrame(frame.isFinalFragment(), rsv, content);
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            return new BinaryWebSocketFrame(frame.isFinalFragment(), rsv, content);
+        }
+        return new ContinuationWebSocketFrame(frame.isFinalFragment(), rsv, content);
+    }
+
+    /**
+     * Deflates the readable bytes of {@code in} up to a flush, without the empty block.
+     */
+    static ByteBuf compress(Deflater deflater, ByteBuf in, ByteBufAllocator alloc) {
+        int length = in.readableBytes();
+        if (in.hasArray()) {
+            deflater.setInput(in.array(), in.arrayOffset() + in.readerIndex(), length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.getBytes(in.readerIndex(), bytes);
+            deflater.setInput(bytes);
+        }
+        ByteBuf out = alloc.heapBuffer(length / 2 + 64);
+        try {
+            int n;
+            do {
+                out.ensureWritable(64);
+                n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes(),
+                        Deflater.SYNC_FLUSH);
+                out.writerIndex(out.writerIndex() + n);
+            } while (n > 0 && !out.isWritable());
+            out.writerIndex(out.writerIndex() - EMPTY_BLOCK.length);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Inflates a frame of a compressed message, appending the empty block
+     * to the last one.
+     *
+     * @throws DataFormatException if the frame is corrupt
+     * @throws TooLongFrameException if the message inflates to more than {@code maxBytes}
+     */
+    static ByteBuf decompress(Inflater inflater, ByteBuf in, boolean last, int maxBytes, ByteBufAllocator alloc)
+            throws DataFormatException {
+        int length = in.readableBytes();
+        byte[] bytes = new byte[length + (last ? EMPTY_BLOCK.length : 0)];
+        in.getBytes(in.readerIndex(), bytes, 0, length);
+        if (last) System.arraycopy(EMPTY_BLOCK, 0, bytes, length, EMPTY_BLOCK.length);
+        if (inflater.finished()) {
+            // The previous message ended the deflate stream
+            inflater.reset();
+        }
+        inflater.setInput(bytes);
+        ByteBuf out = alloc.heapBuffer(length * 2 + 64);
+        try {
+            for (;;) {
+                if (out.readableBytes() > maxBytes) throw new TooLongFrameException("Message is bigger than " + maxBytes);
+                out.ensureWritable(Math.min(length * 2 + 64, maxBytes - out.readableBytes() + 1));
+                int n = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+                out.writerIndex(out.writerIndex() + n);
+                if (n > 0) continue;
+                if (inflater.needsDictionary()) throw new DataFormatException("Preset dictionary");
+                if (inflater.needsInput() || inflater.finished()) return out;
+            }
+        } catch (DataFormatException | TooLongFrameException e) {
+            out.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PerMessageDeflate{" +
+                "enabled=" + enabled +
+                ", shared=" + shared +
+                ", level=" + level +
+                ", minBytes=" + minBytes +
+                '}';
+    }
+
+    /**
+     * What a connection agreed on.
+     */
+    public static final class Parameters {
+        private final boolean serverNoContextTakeover;
+        private final String response;
+
+        Parameters(boolean serverNoContextTakeover, String response) {
+            this.serverNoContextTakeover = serverNoContextTakeover;
+            this.response = response;
+        }
+
+        /**
+         * Whether the server deflates every message on its own, so it can be shared.
+         */
+        public boolean isServerNoContextTakeover() {
+            return serverNoContextTakeover;
+        }
+
+        /**
+         * Value of the Sec-WebSocket-Extensions response header.
+         */
+        public String getResponse() {
+            return response;
+        }
+
+        @Override
+        public String toString() {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.nettytut.websocket;
+
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates the compressed messages of a connection which negotiated permessage-deflate
+ * and deflates the messages written to it. Messages deflated already, flagged
+ * with RSV1, and fragmented ones are written as they are.
+ */
+public class PerMessageDeflateCodec extends MessageToMessageCodec<WebSocketFrame, WebSocketFrame> {
+    private static final int INVALID_PAYLOAD = 1007;
+    private static final int MESSAGE_TOO_BIG = 1009;
+
+    private final PerMessageDeflate deflate;
+    private final PerMessageDeflate.Parameters parameters;
+    private final int maxPayloadLength;
+    private Deflater deflater;
+    private Inflater inflater;
+    /* Continuation frames of a compressed message are inflated too */
+    private boolean inflatingMessage;
+
+    public PerMessageDeflateCodec(PerMessageDeflate deflate, PerMessageDeflate.Parameters parameters,
+                                  int maxPayloadLength) {
+        this.deflate = deflate;
+        this.parameters = parameters;
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        if (!deflate.isCompressible(frame)) {
+            out.add(frame.retain());
+            return;
+        }
+        if (deflater == null) {
+            deflater = deflate.newDeflater();
+        } else if (parameters.isServerNoContextTakeover()) {
+            deflater.reset();
+        }
+        out.add(PerMessageDeflate.compressedFrame(frame,
+                PerMessageDeflate.compress(deflater, frame.content(), ctx.alloc())));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        boolean data = frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame;
+        boolean compressed = data ? (frame.rsv() & PerMessageDeflate.RSV1) != 0
+                : frame instanceof ContinuationWebSocketFrame && inflatingMessage;
+        if (!compressed) {
+            out.add(frame.retain());
+            return;
+        }
+        inflatingMessage = !frame.isFinalFragment();
+        if (inflater == null) inflater = new Inflater(true);
+        try {
+            out.add(PerMessageDeflate.decompressedFrame(frame, PerMessageDeflate.decompress(
+                    inflater, frame.content(), frame.isFinalFragment(), maxPayloadLength, ctx.alloc())));
+        } catch (DataFormatException e) {
+            close(ctx, INVALID_PAYLOAD, "Corrupt compressed message");
+        } catch (TooLongFrameException e) {
+            close(ctx, MESSAGE_TOO_BIG, e.getMessage());
+        }
+    }
+
+    private static void close(ChannelHandlerContext ctx, int statusCode, String reason) {
+        ctx.writeAndFlush(new CloseWebSocketFrame(statusCode, reason)).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // Frees the native zlib streams
+        if (deflater != null) deflater.end();
+        if (inflater != null) inflater.end();
+        super.handlerRemoved(ctx);
+    }
+}
@@ -0,0 +1,54 @@
+package com.nettytut.websocket;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Negotiates permessage-deflate during the WebSocket handshake. Netty's handshaker
+ * knows no extensions, so the offer is read from the upgrade request and the
+ * agreement is added to the 101 response on its way out. With the response this
+ * handler is replaced by a {@link PerMessageDeflateCodec}, or removed if nothing
+ * was agreed on, see {@link DeflatedTextFrameRewriter} too. Goes between the HTTP handlers and the WebSocket protocol handler.
+ */
+public class PerMessageDeflateHandshakeHandler extends ChannelDuplexHandler {
+    private final PerMessageDeflate deflate;
+    private final int maxPayloadLength;
+    private PerMessageDeflate.Parameters parameters;
+
+    public PerMessageDeflateHandshakeHandler(PerMessageDeflate deflate, int maxPayloadLength) {
+        this.deflate = deflate;
+        this.maxPayloadLength = maxPayloadLength;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            parameters = deflate.negotiate(((HttpRequest) msg).headers().get(PerMessageDeflate.EXTENSIONS_HEADER));
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof HttpResponse)
+                || !HttpResponseStatus.SWITCHING_PROTOCOLS.equals(((HttpResponse) msg).getStatus())) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        if (parameters == null) {
+            super.write(ctx, msg, promise);
+            ctx.pipeline().remove(this);
+            return;
+        }
+        ((HttpResponse) msg).headers().set(PerMessageDeflate.EXTENSIONS_HEADER, parameters.getResponse());
+        ctx.channel().attr(PerMessageDeflate.PARAMETERS).set(parameters);
+        super.write(ctx, msg, promise);
+        // The handshaker has added the frame decoder by now
+        ctx.pipeline().addBefore("wsdecoder", "deflate-text", new DeflatedTextFrameRewriter());
+        ctx.pipeline().replace(this, "deflate", new PerMessageDeflateCodec(deflate, parameters, maxPayloadLength));
+    }
+}
@@ -0,0 +1,52 @@
+package com.nettytut.websocket;
+
+import com.nettytut.broadcast.ChatTransport;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * Sends the lines of the chat rooms to WebSocket connections as text frames.
+ * If permessage-deflate is shared, a line is deflated once for all members
+ * which negotiated server_no_context_takeover, see {@link FrameBroadcaster#SHARED_DEFLATE}.
+ * One instance per kind of member and server, as the rooms wrap a line once per instance.
+ */
+public final class WebSocketChatTransport implements ChatTransport {
+    /* Null if frames are written as they are */
+    private final PerMessageDeflate deflate;
+
+    public WebSocketChatTransport() {
+        this(null);
+    }
+
+    public WebSocketChatTransport(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+    }
+
+    @Override
+    public Object wrap(ByteBuf line) {
+        TextWebSocketFrame frame = textFrame(line);
+        WebSocketFrame compressed = deflate != null ? deflate.compressShared(frame, line.alloc()) : null;
+        if (compressed == null) return frame;
+        frame.release();
+        return compressed;
+    }
+
+    /**
+     * Wraps the text without its trailing line delimiters, the frame owns the reference of the text.
+     */
+    public static TextWebSocketFrame textFrame(ByteBuf text) {
+        int end = text.writerIndex();
+        while (end > text.readerIndex() && isLineDelimiter(text.getByte(end - 1))) end--;
+        return new TextWebSocketFrame(text.slice(text.readerIndex(), end - text.readerIndex()));
+    }
+
+    private static boolean isLineDelimiter(byte b) {
+        return b == '\r' || b == '\n';
+    }
+
+    @Override
+    public String toString() {
+        return deflate != null ? "WEBSOCKET_SHARED_DEFLATE" : "WEBSOCKET";
+    }
+}
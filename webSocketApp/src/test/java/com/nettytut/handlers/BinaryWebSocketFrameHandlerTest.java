@@ -0,0 +1,110 @@
+package com.nettytut.handlers;
+
+import com.nettytut.websocket.BinaryEnvelope;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests that binary messages are stamped with the sender and fanned out without copies.
+ */
+public class BinaryWebSocketFrameHandlerTest
+    extends TestCase
+{
+    public BinaryWebSocketFrameHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BinaryWebSocketFrameHandlerTest.class );
+    }
+
+    public void testPayloadIsSharedByAllMembers()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel[] members = new EmbeddedChannel[3];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new EmbeddedChannel();
+            group.add(members[i]);
+        }
+        EmbeddedChannel sender = new EmbeddedChannel(new BinaryWebSocketFrameHandler(group));
+        ByteBuf envelope = Unpooled.buffer();
+        envelope.writeByte(BinaryEnvelope.MESSAGE).writeByte(0).writeBytes("payload".getBytes(CharsetUtil.UTF_8));
+        sender.writeInbound(new BinaryWebSocketFrame(envelope));
+        // Only the stamped message holds on to the received buffer
+        assertEquals(1, envelope.refCnt());
+        String senderId = null;
+        for (EmbeddedChannel member : members) {
+            BinaryWebSocketFrame frame = (BinaryWebSocketFrame) member.readOutbound();
+            ByteBuf content = frame.content();
+            assertEquals(BinaryEnvelope.MESSAGE, BinaryEnvelope.getType(content));
+            if (senderId == null) senderId = BinaryEnvelope.getSender(content);
+            assertEquals(senderId, BinaryEnvelope.getSender(content));
+            assertEquals("payload", BinaryEnvelope.getPayload(content).toString(CharsetUtil.UTF_8));
+            CompositeByteBuf stamped = (CompositeByteBuf) content.unwrap();
+            assertSame(envelope.array(), stamped.component(1).array());
+            frame.release();
+        }
+        assertEquals(0, envelope.refCnt());
+        group.close();
+        sender.finish();
+    }
+
+    public void testSendersHaveDistinctIds()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel member = new EmbeddedChannel();
+        group.add(member);
+        EmbeddedChannel first = new EmbeddedChannel(new BinaryWebSocketFrameHandler(group));
+        EmbeddedChannel second = new EmbeddedChannel(new BinaryWebSocketFrameHandler(group));
+        String firstId = send(first, member);
+        assertFalse(firstId.isEmpty());
+        assertFalse(firstId.equals(send(second, member)));
+        // A connection keeps its id
+        assertEquals(firstId, send(first, member));
+        group.close();
+        first.finish();
+        second.finish();
+    }
+
+    public void testInvalidEnvelopeClosesConnection()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel sender = new EmbeddedChannel(new BinaryWebSocketFrameHandler(group));
+        ByteBuf envelope = Unpooled.buffer();
+        // Clients may not pick the sender
+        envelope.writeByte(BinaryEnvelope.MESSAGE).writeByte(1).writeByte('x');
+        sender.writeInbound(new BinaryWebSocketFrame(envelope));
+        CloseWebSocketFrame close = (CloseWebSocketFrame) sender.readOutbound();
+        assertEquals(1008, close.statusCode());
+        close.release();
+        assertFalse(sender.isOpen());
+        assertEquals(0, envelope.refCnt());
+    }
+
+    /**
+     * @return the sender the member was sent a message of the connection with
+     */
+    private static String send(EmbeddedChannel sender, EmbeddedChannel member)
+    {
+        ByteBuf envelope = Unpooled.buffer();
+        envelope.writeByte(BinaryEnvelope.MESSAGE).writeByte(0).writeByte('x');
+        sender.writeInbound(new BinaryWebSocketFrame(envelope));
+        BinaryWebSocketFrame frame = (BinaryWebSocketFrame) member.readOutbound();
+        String id = BinaryEnvelope.getSender(frame.content());
+        frame.release();
+        return id;
+    }
+}
@@ -0,0 +1,193 @@
+package com.nettytut.handlers;
+
+import com.nettytut.http.StaticFiles;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests persistent connections of HttpRequestHandler with requests pipelined in one read.
+ */
+public class HttpRequestHandlerTest
+    extends TestCase
+{
+    private Path root;
+    private StaticFiles staticFiles;
+
+    public HttpRequestHandlerTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HttpRequestHandlerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory("static");
+        Files.write(root.resolve("a.txt"), "first".getBytes(CharsetUtil.UTF_8));
+        Files.write(root.resolve("b.txt"), "second".getBytes(CharsetUtil.UTF_8));
+        staticFiles = new StaticFiles(root, ImmediateExecutor.INSTANCE, 1024, 64 * 1024, 16, 1000);
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        Files.delete(root.resolve("a.txt"));
+        Files.delete(root.resolve("b.txt"));
+        Files.delete(root);
+    }
+
+    public void testPipelinedResponsesKeepRequestOrder()
+    {
+        EmbeddedChannel channel = newChannel(100);
+        String responses = exchange(channel, get("/b.txt") + get("/missing.txt") + get("/a.txt"));
+        int second = responses.indexOf("second");
+        int notFound = responses.indexOf("404 Not Found");
+        int first = responses.indexOf("first");
+        assertTrue(responses, second > 0 && notFound > second && first > notFound);
+        assertEquals(responses, 3, count(responses, "HTTP/1.1 "));
+        assertEquals(responses, 0, count(responses, "close"));
+        assertTrue(channel.isOpen());
+        channel.finish();
+    }
+
+    public void testRequestsWaitForLoadingFile()
+    {
+        final List<Runnable> loads = new ArrayList<>();
+        staticFiles = new StaticFiles(root, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                loads.add(command);
+            }
+        }, 1024, 64 * 1024, 16, 1000);
+        EmbeddedChannel channel = newChannel(100);
+        assertEquals("", exchange(channel, get("/b.txt") + get("/a.txt")));
+        assertFalse(channel.config().isAutoRead());
+        // The second request is only looked up once the first one is answered
+        assertEquals(1, loads.size());
+        loads.remove(0).run();
+        assertEquals(1, loads.size());
+        loads.remove(0).run();
+        String responses = exchange(channel, "");
+        int second = responses.indexOf("second");
+        int first = responses.indexOf("first");
+        assertTrue(responses, second > 0 && first > second);
+        assertTrue(channel.config().isAutoRead());
+        channel.finish();
+    }
+
+    public void testNotModifiedHasNoContentLength()
+    {
+        EmbeddedChannel channel = newChannel(100);
+        String response = exchange(channel, get("/a.txt"));
+        int start = response.toLowerCase().indexOf("etag: ") + 6;
+        String etag = response.substring(start, response.indexOf("\r\n", start));
+        String notModified = exchange(channel,
+                "GET /a.txt HTTP/1.1\r\nHost: localhost\r\nIf-None-Match: " + etag + "\r\n\r\n");
+        assertTrue(notModified, notModified.startsWith("HTTP/1.1 304 Not Modified"));
+        assertEquals(notModified, 0, count(notModified, "content-length"));
+        assertTrue(channel.isOpen());
+        channel.finish();
+    }
+
+    public void testAcceptEncodingIsParsed()
+    {
+        assertTrue(HttpRequestHandler.acceptsGzip("gzip"));
+        assertTrue(HttpRequestHandler.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(HttpRequestHandler.acceptsGzip("br; q=1, x-gzip"));
+        assertTrue(HttpRequestHandler.acceptsGzip("identity, *"));
+        assertFalse(HttpRequestHandler.acceptsGzip(null));
+        assertFalse(HttpRequestHandler.acceptsGzip(""));
+        assertFalse(HttpRequestHandler.acceptsGzip("gzip;q=0"));
+        assertFalse(HttpRequestHandler.acceptsGzip("gzip;q=0.000, deflate"));
+        assertFalse(HttpRequestHandler.acceptsGzip("x-gzip-foo, deflate"));
+        // A refused gzip isn't accepted by the wildcard
+        assertFalse(HttpRequestHandler.acceptsGzip("*, gzip;q=0"));
+        assertFalse(HttpRequestHandler.acceptsGzip("*;q=0"));
+        assertFalse(HttpRequestHandler.acceptsGzip("gzip;q=high"));
+    }
+
+    public void testConnectionIsClosedAfterMaxRequests()
+    {
+        EmbeddedChannel channel = newChannel(2);
+        String responses = exchange(channel, get("/a.txt") + get("/b.txt") + get("/a.txt"));
+        assertEquals(responses, 2, count(responses, "HTTP/1.1 200 OK"));
+        assertTrue(responses, responses.endsWith("second"));
+        assertEquals(responses, 1, count(responses, "connection: close"));
+        assertFalse(channel.isOpen());
+    }
+
+    public void testConnectionCloseIsHonoured()
+    {
+        EmbeddedChannel channel = newChannel(100);
+        String responses = exchange(channel, "GET /a.txt HTTP/1.1\r\nConnection: close\r\n\r\n" + get("/b.txt"));
+        assertEquals(responses, 1, count(responses, "HTTP/1.1 200 OK"));
+        assertFalse(channel.isOpen());
+    }
+
+    public void testHttp10IsKeptAliveOnRequest()
+    {
+        EmbeddedChannel channel = newChannel(100);
+        String responses = exchange(channel, "GET /a.txt HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+        assertTrue(responses, responses.toLowerCase().contains("connection: keep-alive"));
+        assertTrue(channel.isOpen());
+        responses = exchange(channel, "GET /b.txt HTTP/1.0\r\n\r\n");
+        assertTrue(responses, responses.endsWith("second"));
+        assertFalse(channel.isOpen());
+    }
+
+    private EmbeddedChannel newChannel(int maxRequests)
+    {
+        return new EmbeddedChannel(new HttpServerCodec(), new HttpObjectAggregator(1024),
+                new HttpRequestHandler("/ws", staticFiles, maxRequests));
+    }
+
+    private static String get(String uri)
+    {
+        return "GET " + uri + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+    /**
+     * Writes the requests in one read and returns what was flushed in response.
+     */
+    private static String exchange(EmbeddedChannel channel, String requests)
+    {
+        channel.writeInbound(Unpooled.copiedBuffer(requests, CharsetUtil.US_ASCII));
+        channel.pipeline().fireChannelReadComplete();
+        StringBuilder sb = new StringBuilder();
+        for (Object out; (out = channel.readOutbound()) != null; ) {
+            ByteBuf buf = (ByteBuf) out;
+            sb.append(buf.toString(CharsetUtil.US_ASCII));
+            buf.release();
+        }
+        return sb.toString();
+    }
+
+    private static int count(String s, String part)
+    {
+        int n = 0;
+        for (int i = s.toLowerCase().indexOf(part.toLowerCase()); i >= 0;
+             i = s.toLowerCase().indexOf(part.toLowerCase(), i + 1)) {
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,116 @@
+package com.nettytut.handlers;
+
+import com.nettytut.broadcast.ChatMessageBroadcaster;
+import com.nettytut.broadcast.ChatTransport;
+import com.nettytut.outbound.OutboundStats;
+import com.nettytut.websocket.WebSocketChatTransport;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that WebSocket connections take part in the chat rooms of telnet clients.
+ */
+public class WebSocketChatAdapterTest
+    extends TestCase
+{
+    public WebSocketChatAdapterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WebSocketChatAdapterTest.class );
+    }
+
+    public void testLineIsEncodedOnceForAllTransports()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        ChatTransport webSocket = new WebSocketChatTransport();
+        EmbeddedChannel telnet = member(group, null);
+        EmbeddedChannel sender = member(group, webSocket);
+        EmbeddedChannel browser = member(group, webSocket);
+        ChatMessageBroadcaster.broadcast(group, sender, "alice", "hi");
+
+        ByteBuf line = (ByteBuf) telnet.readOutbound();
+        assertEquals("[alice] hi\r\n", line.toString(CharsetUtil.UTF_8));
+        TextWebSocketFrame frame = (TextWebSocketFrame) browser.readOutbound();
+        assertEquals("[alice] hi", frame.text());
+        // The frame is a slice of the telnet line, not a copy
+        assertSame(line.array(), frame.content().array());
+        TextWebSocketFrame own = (TextWebSocketFrame) sender.readOutbound();
+        assertEquals("[you] hi", own.text());
+
+        line.release();
+        frame.release();
+        own.release();
+        assertEquals(0, line.refCnt());
+        group.close();
+    }
+
+    public void testSessionStartsAtHandshake()
+    {
+        final List<Object> events = new ArrayList<>();
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WebSocketChatAdapter(new WebSocketChatTransport(), new WebSocketChatTransport(), new OutboundStats()),
+                new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelActive(ChannelHandlerContext ctx) {
+                        events.add("active");
+                    }
+
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        events.add(msg);
+                    }
+                });
+        assertTrue(events.isEmpty());
+        ch.pipeline().fireUserEventTriggered(
+                WebSocketServerProtocolHandler.ServerHandshakeStateEvent.HANDSHAKE_COMPLETE);
+        assertEquals("active", events.get(0));
+        assertTrue(ch.attr(ChatTransport.KEY).get() instanceof WebSocketChatTransport);
+
+        ch.writeInbound(new TextWebSocketFrame("login alice secret\r\njoin zepto"));
+        assertEquals("login alice secret", events.get(1));
+        assertEquals("join zepto", events.get(2));
+        assertFalse(ch.finish());
+    }
+
+    public void testRepliesAreTextFrames()
+    {
+        EmbeddedChannel ch = new EmbeddedChannel(
+                new WebSocketChatAdapter(new WebSocketChatTransport(), new WebSocketChatTransport(), new OutboundStats()));
+        ch.writeOutbound("You're successfully signed in.\r\n");
+        TextWebSocketFrame reply = (TextWebSocketFrame) ch.readOutbound();
+        assertEquals("You're successfully signed in.", reply.text());
+        reply.release();
+        // The keepalive line of the session
+        ch.writeOutbound("\r\n");
+        PingWebSocketFrame ping = (PingWebSocketFrame) ch.readOutbound();
+        ping.release();
+        assertFalse(ch.finish());
+    }
+
+    private static EmbeddedChannel member(ChannelGroup group, ChatTransport transport)
+    {
+        EmbeddedChannel ch = new EmbeddedChannel();
+        if (transport != null) ch.attr(ChatTransport.KEY).set(transport);
+        group.add(ch);
+        return ch;
+    }
+}
@@ -0,0 +1,130 @@
+package com.nettytut.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Tests lookup, caching and gzip variants of StaticFiles in a temporary root.
+ */
+public class StaticFilesTest
+    extends TestCase
+{
+    private Path root;
+
+    public StaticFilesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StaticFilesTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        root = Files.createTempDirectory("static");
+        Files.write(root.resolve("index.html"), repeat("<p>chat</p>", 100).getBytes(CharsetUtil.UTF_8));
+        Files.write(root.resolve("big.js"), repeat("var x;", 1000).getBytes(CharsetUtil.UTF_8));
+        Files.write(root.resolve("big.js.gz"), new byte[] {1, 2, 3});
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        for (String name : new String[] {"index.html", "big.js", "big.js.gz"}) {
+            Files.deleteIfExists(root.resolve(name));
+        }
+        Files.delete(root);
+    }
+
+    public void testPathsOutsideOfRootAreNotFound() throws IOException
+    {
+        StaticFiles files = newStaticFiles(1000);
+        assertNull(files.get("/../etc/passwd"));
+        assertNull(files.get("/missing.html"));
+        assertEquals(root.resolve("index.html"), files.resolve("/"));
+    }
+
+    public void testLinkOutOfRootIsNotFound() throws IOException
+    {
+        Path outside = Files.createTempFile("secret", ".txt");
+        Path link = root.resolve("link.txt");
+        try {
+            Files.createSymbolicLink(link, outside);
+            StaticFiles files = newStaticFiles(1000);
+            assertNull(files.get("/link.txt"));
+        } finally {
+            Files.deleteIfExists(link);
+            Files.delete(outside);
+        }
+    }
+
+    public void testSmallFileIsCachedWithGzipVariant() throws IOException
+    {
+        StaticFiles files = newStaticFiles(1000);
+        StaticFile index = files.get("/");
+        assertTrue(index.isInMemory());
+        assertEquals("text/html; charset=UTF-8", index.getContentType());
+        assertTrue(index.hasGzip());
+        assertTrue(index.getLength(true) < index.getLength(false));
+        ByteBuf content = index.content(false);
+        assertEquals(repeat("<p>chat</p>", 100), content.toString(CharsetUtil.UTF_8));
+        content.release();
+
+        StaticFile again = files.get("/index.html");
+        assertSame(index, again);
+        again.release();
+        index.release();
+        assertEquals(1, index.refCnt());
+    }
+
+    public void testLargeFileUsesPrecompressedSibling() throws IOException
+    {
+        StaticFiles files = newStaticFiles(1000);
+        StaticFile big = files.get("/big.js");
+        assertFalse(big.isInMemory());
+        assertTrue(big.hasGzip());
+        assertEquals(3, big.getLength(true));
+        assertEquals(6000, big.getLength(false));
+        big.release();
+    }
+
+    public void testChangedFileIsReloaded() throws Exception
+    {
+        StaticFiles files = newStaticFiles(0);
+        StaticFile before = files.get("/index.html");
+        String etag = before.getEtag();
+        before.release();
+        Path index = root.resolve("index.html");
+        Files.write(index, "changed".getBytes(CharsetUtil.UTF_8));
+        Files.setLastModifiedTime(index, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        StaticFile after = files.get("/index.html");
+        assertFalse(etag.equals(after.getEtag()));
+        assertEquals(7, after.getLength(false));
+        after.release();
+        assertEquals(0, before.refCnt());
+    }
+
+    private StaticFiles newStaticFiles(long checkMillis)
+    {
+        return new StaticFiles(root, ImmediateExecutor.INSTANCE, 4096, 1024 * 1024, 16, checkMillis);
+    }
+
+    private static String repeat(String s, int times)
+    {
+        StringBuilder sb = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,86 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests fragmenting of big messages into slices and putting them together again.
+ */
+public class FrameFragmenterTest
+    extends TestCase
+{
+    public FrameFragmenterTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FrameFragmenterTest.class );
+    }
+
+    public void testBigMessageIsSentInSlices()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameFragmenter(4));
+        ByteBuf payload = Unpooled.wrappedBuffer(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        channel.writeOutbound(new BinaryWebSocketFrame(true, PerMessageDeflate.RSV1, payload));
+        WebSocketFrame first = (WebSocketFrame) channel.readOutbound();
+        assertTrue(first instanceof BinaryWebSocketFrame);
+        assertFalse(first.isFinalFragment());
+        assertEquals(PerMessageDeflate.RSV1, first.rsv());
+        assertEquals(4, first.content().readableBytes());
+        WebSocketFrame second = (WebSocketFrame) channel.readOutbound();
+        WebSocketFrame last = (WebSocketFrame) channel.readOutbound();
+        assertTrue(second instanceof ContinuationWebSocketFrame);
+        assertFalse(second.isFinalFragment());
+        assertTrue(last.isFinalFragment());
+        assertEquals(0, last.rsv());
+        assertEquals(8, last.content().getByte(0));
+        assertEquals(2, last.content().readableBytes());
+        // The fragments are slices of the message
+        assertEquals(3, payload.refCnt());
+        first.release();
+        second.release();
+        last.release();
+        assertEquals(0, payload.refCnt());
+        assertFalse(channel.finish());
+    }
+
+    public void testSmallMessageIsSentWhole()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameFragmenter(4));
+        channel.writeOutbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[4])));
+        WebSocketFrame frame = (WebSocketFrame) channel.readOutbound();
+        assertTrue(frame.isFinalFragment());
+        frame.release();
+        assertFalse(channel.finish());
+    }
+
+    public void testFragmentsArePutTogether()
+    {
+        EmbeddedChannel server = new EmbeddedChannel(new WebSocket13FrameEncoder(false), new FrameFragmenter(1000));
+        byte[] bytes = new byte[10000];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        server.writeOutbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(bytes)));
+        EmbeddedChannel client = new EmbeddedChannel(new WebSocket13FrameDecoder(false, false, 1000),
+                new WebSocketFrameAggregator(65536));
+        for (Object out; (out = server.readOutbound()) != null; ) {
+            client.writeInbound(out);
+        }
+        BinaryWebSocketFrame frame = (BinaryWebSocketFrame) client.readInbound();
+        assertTrue(frame.isFinalFragment());
+        assertEquals(Unpooled.wrappedBuffer(bytes), frame.content());
+        frame.release();
+        assertNull(client.readInbound());
+    }
+}
@@ -0,0 +1,269 @@
+package com.nettytut.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Tests negotiation of permessage-deflate and messages compressed by a client
+ * and by the server, one by one and shared by a broadcast.
+ */
+public class PerMessageDeflateTest
+    extends TestCase
+{
+    private static final String MESSAGE =
+            "{\"type\":\"message\",\"room\":\"zepto\",\"user\":\"alice\",\"text\":\"Hello everybody, hello!\"}";
+
+    private final PerMessageDeflate shared = new PerMessageDeflate(true, true, 6, 16);
+    private final PerMessageDeflate perConnection = new PerMessageDeflate(true, false, 6, 16);
+
+    public PerMessageDeflateTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PerMessageDeflateTest.class );
+    }
+
+    public void testNegotiation()
+    {
+        assertEquals("permessage-deflate; server_no_context_takeover",
+                shared.negotiate("permessage-deflate; client_max_window_bits").getResponse());
+        assertEquals("permessage-deflate",
+                perConnection.negotiate("permessage-deflate; client_max_window_bits=12").getResponse());
+        assertTrue(perConnection.negotiate("permessage-deflate; server_no_context_takeover")
+                .isServerNoContextTakeover());
+        // Smaller server windows are declined, the next offer is taken
+        assertEquals("permessage-deflate; server_max_window_bits=15", perConnection.negotiate(
+                "permessage-deflate; server_max_window_bits=10, permessage-deflate; server_max_window_bits=15")
+                .getResponse());
+        assertNull(shared.negotiate("permessage-deflate; unknown"));
+        assertNull(shared.negotiate("x-webkit-deflate-frame"));
+        assertNull(shared.negotiate(null));
+        assertNull(PerMessageDeflate.DISABLED.negotiate("permessage-deflate"));
+    }
+
+    public void testServerMessagesInflateWithContextTakeover()
+    {
+        EmbeddedChannel channel = newChannel(perConnection, "permessage-deflate");
+        Inflater client = new Inflater(true);
+        int previous = Integer.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            channel.writeOutbound(text(MESSAGE));
+            WebSocketFrame frame = (WebSocketFrame) channel.readOutbound();
+            assertEquals(PerMessageDeflate.RSV1, frame.rsv());
+            assertEquals(MESSAGE, inflate(client, frame.content()));
+            // The same message compresses better once it is in the window
+            assertTrue(frame.content().readableBytes() < previous);
+            previous = frame.content().readableBytes();
+            frame.release();
+        }
+        channel.finish();
+    }
+
+    public void testShortMessagesAreNotCompressed()
+    {
+        EmbeddedChannel channel = newChannel(shared, "permessage-deflate");
+        channel.writeOutbound(text("hi"));
+        WebSocketFrame frame = (WebSocketFrame) channel.readOutbound();
+        assertEquals(0, frame.rsv());
+        assertEquals("hi", frame.content().toString(CharsetUtil.UTF_8));
+        frame.release();
+        channel.finish();
+    }
+
+    public void testClientMessagesAreInflated()
+    {
+        EmbeddedChannel channel = newChannel(shared, "permessage-deflate");
+        Deflater client = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        for (int i = 0; i < 2; i++) {
+            ByteBuf compressed = PerMessageDeflate.compress(client, Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8),
+                    channel.alloc());
+            channel.writeInbound(new TextWebSocketFrame(true, PerMessageDeflate.RSV1, compressed));
+            TextWebSocketFrame frame = (TextWebSocketFrame) channel.readInbound();
+            assertEquals(0, frame.rsv());
+            assertEquals(MESSAGE, frame.text());
+            frame.release();
+        }
+        // A fragmented message is inflated frame by frame
+        ByteBuf compressed = PerMessageDeflate.compress(client, Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8),
+                channel.alloc());
+        int half = compressed.readableBytes() / 2;
+        channel.writeInbound(new TextWebSocketFrame(false, PerMessageDeflate.RSV1, compressed.copy(0, half)));
+        channel.writeInbound(new ContinuationWebSocketFrame(true, 0, compressed.copy(half, compressed.readableBytes() - half)));
+        compressed.release();
+        StringBuilder message = new StringBuilder();
+        for (WebSocketFrame frame; (frame = (WebSocketFrame) channel.readInbound()) != null; ) {
+            message.append(frame.content().toString(CharsetUtil.UTF_8));
+            frame.release();
+        }
+        assertEquals(MESSAGE, message.toString());
+        channel.finish();
+    }
+
+    public void testDeflatedTextPassesFrameDecoder()
+    {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        EmbeddedChannel client = new EmbeddedChannel(new WebSocket13FrameEncoder(true));
+        client.writeOutbound(new TextWebSocketFrame(true, PerMessageDeflate.RSV1, PerMessageDeflate.compress(
+                deflater, Unpooled.copiedBuffer(MESSAGE, CharsetUtil.UTF_8), client.alloc())));
+        client.writeOutbound(new TextWebSocketFrame("plain"));
+        PerMessageDeflate.Parameters parameters = shared.negotiate("permessage-deflate");
+        EmbeddedChannel server = new EmbeddedChannel(new DeflatedTextFrameRewriter(),
+                new WebSocket13FrameDecoder(true, true, 65536), new PerMessageDeflateCodec(shared, parameters, 65536));
+        // Headers split over reads are rewritten too
+        for (ByteBuf buf; (buf = (ByteBuf) client.readOutbound()) != null; ) {
+            while (buf.isReadable()) server.writeInbound(buf.readBytes(1));
+            buf.release();
+        }
+        TextWebSocketFrame deflated = (TextWebSocketFrame) server.readInbound();
+        assertEquals(0, deflated.rsv());
+        assertEquals(MESSAGE, deflated.text());
+        deflated.release();
+        TextWebSocketFrame plain = (TextWebSocketFrame) server.readInbound();
+        assertEquals("plain", plain.text());
+        plain.release();
+        assertTrue(server.isOpen());
+        server.finish();
+    }
+
+    public void testInflatingIsBounded()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(
+                new PerMessageDeflateCodec(shared, shared.negotiate("permessage-deflate"), 1024));
+        byte[] zeros = new byte[64 * 1024];
+        ByteBuf compressed = PerMessageDeflate.compress(new Deflater(9, true), Unpooled.wrappedBuffer(zeros),
+                channel.alloc());
+        channel.writeInbound(new BinaryWebSocketFrame(true, PerMessageDeflate.RSV1, compressed));
+        assertNull(channel.readInbound());
+        CloseWebSocketFrame close = (CloseWebSocketFrame) channel.readOutbound();
+        assertEquals(1009, close.statusCode());
+        close.release();
+        assertFalse(channel.isOpen());
+    }
+
+    public void testCorruptMessageIsInvalidPayload()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(
+                new PerMessageDeflateCodec(shared, shared.negotiate("permessage-deflate"), 1024));
+        // Block type 3 is reserved
+        ByteBuf corrupt = Unpooled.wrappedBuffer(new byte[] {(byte) 0xff, 0x01, 0x02, 0x03});
+        channel.writeInbound(new TextWebSocketFrame(true, PerMessageDeflate.RSV1, corrupt));
+        assertNull(channel.readInbound());
+        CloseWebSocketFrame close = (CloseWebSocketFrame) channel.readOutbound();
+        assertEquals(1007, close.statusCode());
+        close.release();
+        assertFalse(channel.isOpen());
+    }
+
+    public void testBroadcastWithoutSharedMembersIsNotCompressed()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel own = newChannel(perConnection, "permessage-deflate");
+        EmbeddedChannel plain = new EmbeddedChannel();
+        group.add(own);
+        group.add(plain);
+        TextWebSocketFrame frame = text(MESSAGE);
+        new FrameBroadcaster(group, shared).broadcast(frame, plain.alloc());
+        // The member which deflates on its own gets its own compression
+        WebSocketFrame a = (WebSocketFrame) own.readOutbound();
+        TextWebSocketFrame b = (TextWebSocketFrame) plain.readOutbound();
+        assertEquals(PerMessageDeflate.RSV1, a.rsv());
+        assertEquals(0, b.rsv());
+        assertEquals(MESSAGE, b.text());
+        a.release();
+        b.release();
+        assertEquals(0, frame.refCnt());
+        group.close();
+    }
+
+    public void testBroadcastIsCompressedOnceForSharedMembers()
+    {
+        ChannelGroup group = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+        EmbeddedChannel first = newChannel(shared, "permessage-deflate");
+        EmbeddedChannel second = newChannel(shared, "permessage-deflate; client_max_window_bits");
+        EmbeddedChannel plain = new EmbeddedChannel();
+        group.add(first);
+        group.add(second);
+        group.add(plain);
+        FrameBroadcaster broadcaster = new FrameBroadcaster(group, shared);
+        Inflater firstClient = new Inflater(true);
+        Inflater secondClient = new Inflater(true);
+        for (int i = 0; i < 2; i++) {
+            broadcaster.broadcast(text(MESSAGE), first.alloc());
+            WebSocketFrame a = (WebSocketFrame) first.readOutbound();
+            WebSocketFrame b = (WebSocketFrame) second.readOutbound();
+            TextWebSocketFrame c = (TextWebSocketFrame) plain.readOutbound();
+            assertEquals(PerMessageDeflate.RSV1, a.rsv());
+            // Both members are sent the same bytes
+            assertTrue(Arrays.equals(bytes(a.content()), bytes(b.content())));
+            assertEquals(MESSAGE, inflate(firstClient, a.content()));
+            assertEquals(MESSAGE, inflate(secondClient, b.content()));
+            assertEquals(0, c.rsv());
+            assertEquals(MESSAGE, c.text());
+            a.release();
+            b.release();
+            c.release();
+        }
+        group.close();
+    }
+
+    private static EmbeddedChannel newChannel(PerMessageDeflate deflate, String offer)
+    {
+        PerMessageDeflate.Parameters parameters = deflate.negotiate(offer);
+        EmbeddedChannel channel = new EmbeddedChannel(new PerMessageDeflateCodec(deflate, parameters, 65536));
+        channel.attr(PerMessageDeflate.PARAMETERS).set(parameters);
+        return channel;
+    }
+
+    private static TextWebSocketFrame text(String text)
+    {
+        return new TextWebSocketFrame(text);
+    }
+
+    private static byte[] bytes(ByteBuf buf)
+    {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return bytes;
+    }
+
+    /**
+     * Inflates a message as a client does.
+     */
+    private static String inflate(Inflater inflater, ByteBuf content)
+    {
+        try {
+            ByteBuf out = PerMessageDeflate.decompress(inflater, content, true, 65536, UnpooledByteBufAllocator.DEFAULT);
+            try {
+                return out.toString(CharsetUtil.UTF_8);
+            } finally {
+                out.release();
+            }
+        } catch (DataFormatException e) {
+            throw new AssertionError(e);
+        }
+    }
+}